@@ -4,6 +4,7 @@ import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
 
 import cn.lkllkllkl.transformativeimageview.TransformativeImageView;
+import cn.lkllkllkl.transformativeimageview.glide.ZoomAwareTarget;
 
 public class MainActivity extends AppCompatActivity {
 
@@ -13,8 +14,7 @@ public class MainActivity extends AppCompatActivity {
         setContentView(R.layout.activity_main);
         TransformativeImageView transformativeImageView =
                 (TransformativeImageView) findViewById(R.id.transformative_image_view);
-        GlideApp.with(this)
-                .load(R.drawable.cat)
-                .into(transformativeImageView);
+        // 按控件大小解码，放大后在后台提高分辨率
+        ZoomAwareTarget.into(GlideApp.with(this).load(R.drawable.cat), transformativeImageView);
     }
 }
@@ -0,0 +1,127 @@
+package cn.lkllkllkl.transformativeimageview.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * 测量每次模拟的ACTION_MOVE事件与每次回弹计算的耗时。
+ * 配合gc profiler（见build.gradle）的gc.alloc.rate.norm指标检查每次操作分配的内存，正常应为0
+ */
+@State(Scope.Thread)
+public class TransformEngineBenchmark {
+    private static final int SAMPLE_COUNT = 64; // 模拟的触摸轨迹点数
+
+    private final TransformEngine mEngine = new TransformEngine();
+    private final float[] mFinger1 = new float[SAMPLE_COUNT * 2]; // 第一根手指轨迹
+    private final float[] mFinger2 = new float[SAMPLE_COUNT * 2]; // 第二根手指轨迹
+    private final TransformEngine mTransformed = new TransformEngine(); // 回弹前的状态
+    private final GestureTransformer mGesture = new GestureTransformer(mEngine);
+    private final int[] mIds = {0, 1};
+    private final float[] mXs = new float[2];
+    private final float[] mYs = new float[2];
+    private int mIndex = 0;
+
+    @Setup
+    public void setUp() {
+        mEngine.setMaxScaleFactor(4f);
+        mEngine.setMinScaleFactor(1f);
+        mEngine.setScaleBy(TransformEngine.SCALE_BY_FINGER_MID_POINT);
+        mEngine.init(4000f, 3000f, 1080f, 1920f);
+        // 两指绕屏幕中心边旋转边张开
+        for (int i = 0; i < SAMPLE_COUNT; i++) {
+            double rad = Math.PI * i / SAMPLE_COUNT;
+            float radius = 200f + i * 2f;
+            mFinger1[i * 2] = 540f + (float) (Math.cos(rad) * radius);
+            mFinger1[i * 2 + 1] = 960f + (float) (Math.sin(rad) * radius);
+            mFinger2[i * 2] = 540f - (float) (Math.cos(rad) * radius);
+            mFinger2[i * 2 + 1] = 960f - (float) (Math.sin(rad) * radius);
+        }
+
+        mEngine.scale(5f, 300f, 400f);
+        mEngine.rotate(70f);
+        mEngine.translate(150f, -80f);
+        mTransformed.set(mEngine);
+        fillPointers(0);
+        mGesture.down(mIds, mXs, mYs, 2);
+    }
+
+    private void fillPointers(int index) {
+        mXs[0] = mFinger1[index * 2];
+        mYs[0] = mFinger1[index * 2 + 1];
+        mXs[1] = mFinger2[index * 2];
+        mYs[1] = mFinger2[index * 2 + 1];
+    }
+
+    /**
+     * 一次两指ACTION_MOVE：由GestureTransformer的最小二乘解同时平移、缩放、旋转，与控件中的计算相同。
+     * 求解、复数乘法和构造矩阵都不调用三角函数和开方
+     */
+    @Benchmark
+    public Affine moveEvent() {
+        move();
+        return mEngine.getMatrix();
+    }
+
+    /**
+     * 与moveEvent相同，但每次事件后都读取缩放比例和旋转角度，
+     * 与moveEvent之差即为按需求出两者的开销（一次sqrt、一次atan2），用于确认moveEvent中没有这部分计算
+     */
+    @Benchmark
+    public float moveEventReadingPolar() {
+        move();
+        return mEngine.getMatrix().getScaleX() + mEngine.getScaleFactor()
+                + mEngine.getCurrentRotateDegree();
+    }
+
+    private void move() {
+        int current = (mIndex + 1) % SAMPLE_COUNT;
+        mIndex = current;
+        if (current == 0) {
+            mEngine.set(mTransformed); // 避免长时间运行后矩阵发散
+            fillPointers(0);
+            mGesture.down(mIds, mXs, mYs, 2);
+            return;
+        }
+        fillPointers(current);
+        mGesture.move(mIds, mXs, mYs, 2);
+    }
+
+    /**
+     * 一次两指ACTION_MOVE：按两个触点分别求距离和角度（两次sqrt、两次atan2），用于与moveEvent对比
+     */
+    @Benchmark
+    public Affine moveEventPairwise() {
+        int last = mIndex;
+        int current = (mIndex + 1) % SAMPLE_COUNT;
+        mIndex = current;
+        if (current == 0) mEngine.set(mTransformed); // 避免长时间运行后矩阵发散
+
+        float lastX1 = mFinger1[last * 2], lastY1 = mFinger1[last * 2 + 1];
+        float lastX2 = mFinger2[last * 2], lastY2 = mFinger2[last * 2 + 1];
+        float x1 = mFinger1[current * 2], y1 = mFinger1[current * 2 + 1];
+        float x2 = mFinger2[current * 2], y2 = mFinger2[current * 2 + 1];
+        float midX = (x1 + x2) / 2;
+        float midY = (y1 + y2) / 2;
+
+        mEngine.translate(midX - (lastX1 + lastX2) / 2, midY - (lastY1 + lastY2) / 2);
+        mEngine.scale(TransformEngine.distance(x1, y1, x2, y2)
+                / TransformEngine.distance(lastX1, lastY1, lastX2, lastY2), midX, midY);
+        mEngine.rotate(TransformEngine.getRotateDegree(lastX2 - lastX1, lastY2 - lastY1,
+                x2 - x1, y2 - y1));
+        return mEngine.getMatrix();
+    }
+
+    /**
+     * 一次ACTION_UP时的回弹计算：旋转、缩放、平移回弹
+     */
+    @Benchmark
+    public Affine revert() {
+        mEngine.set(mTransformed);
+        mEngine.checkRotation();
+        mEngine.checkScale(540f, 960f);
+        mEngine.checkBorder();
+        return mEngine.getMatrix();
+    }
+}
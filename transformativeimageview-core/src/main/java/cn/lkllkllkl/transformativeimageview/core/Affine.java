@@ -0,0 +1,274 @@
+package cn.lkllkllkl.transformativeimageview.core;
+
+/**
+ * 基于float的2D仿射变换矩阵，与android.graphics.Matrix的仿射部分含义相同：
+ * <pre>
+ * | scaleX  skewX  transX |
+ * | skewY   scaleY transY |
+ * |   0       0      1    |
+ * </pre>
+ * 所有post*方法都是左乘，即新的变换在已有变换之后执行
+ */
+public class Affine {
+    public static final int MSCALE_X = 0;
+    public static final int MSKEW_X = 1;
+    public static final int MTRANS_X = 2;
+    public static final int MSKEW_Y = 3;
+    public static final int MSCALE_Y = 4;
+    public static final int MTRANS_Y = 5;
+
+    private float mScaleX = 1f;
+    private float mSkewX = 0f;
+    private float mTransX = 0f;
+    private float mSkewY = 0f;
+    private float mScaleY = 1f;
+    private float mTransY = 0f;
+
+    public Affine() {
+    }
+
+    public Affine(Affine src) {
+        set(src);
+    }
+
+    public void reset() {
+        mScaleX = 1f;
+        mSkewX = 0f;
+        mTransX = 0f;
+        mSkewY = 0f;
+        mScaleY = 1f;
+        mTransY = 0f;
+    }
+
+    public void set(Affine src) {
+        mScaleX = src.mScaleX;
+        mSkewX = src.mSkewX;
+        mTransX = src.mTransX;
+        mSkewY = src.mSkewY;
+        mScaleY = src.mScaleY;
+        mTransY = src.mTransY;
+    }
+
+    /**
+     * 从长度至少为6的数组中读取矩阵的值，下标与android.graphics.Matrix相同
+     */
+    public void setValues(float[] values) {
+        mScaleX = values[MSCALE_X];
+        mSkewX = values[MSKEW_X];
+        mTransX = values[MTRANS_X];
+        mSkewY = values[MSKEW_Y];
+        mScaleY = values[MSCALE_Y];
+        mTransY = values[MTRANS_Y];
+    }
+
+    public void setValues(float scaleX, float skewX, float transX,
+                          float skewY, float scaleY, float transY) {
+        mScaleX = scaleX;
+        mSkewX = skewX;
+        mTransX = transX;
+        mSkewY = skewY;
+        mScaleY = scaleY;
+        mTransY = transY;
+    }
+
+    /**
+     * 将矩阵的值写入长度为9的数组，可直接用于android.graphics.Matrix#setValues(float[])
+     */
+    public void getValues(float[] values) {
+        values[MSCALE_X] = mScaleX;
+        values[MSKEW_X] = mSkewX;
+        values[MTRANS_X] = mTransX;
+        values[MSKEW_Y] = mSkewY;
+        values[MSCALE_Y] = mScaleY;
+        values[MTRANS_Y] = mTransY;
+        values[6] = 0f;
+        values[7] = 0f;
+        values[8] = 1f;
+    }
+
+    /**
+     * 设置为相似变换：以scale缩放、旋转degrees度，并使点(px, py)映射到(dx, dy)
+     */
+    public void setSimilarity(float scale, float degrees, float px, float py, float dx, float dy) {
+        double rad = Math.toRadians(degrees);
+        float cos = (float) Math.cos(rad) * scale;
+        float sin = (float) Math.sin(rad) * scale;
+        mScaleX = cos;
+        mSkewX = -sin;
+        mSkewY = sin;
+        mScaleY = cos;
+        mTransX = dx - (cos * px - sin * py);
+        mTransY = dy - (sin * px + cos * py);
+    }
+
+    public void postTranslate(float dx, float dy) {
+        mTransX += dx;
+        mTransY += dy;
+    }
+
+    /**
+     * 以(px, py)为中心缩放
+     */
+    public void postScale(float sx, float sy, float px, float py) {
+        mScaleX *= sx;
+        mSkewX *= sx;
+        mTransX = sx * (mTransX - px) + px;
+        mSkewY *= sy;
+        mScaleY *= sy;
+        mTransY = sy * (mTransY - py) + py;
+    }
+
+    /**
+     * 以(px, py)为中心旋转
+     *
+     * @param degrees 旋转角度，单位“度”，顺时针为正
+     */
+    public void postRotate(float degrees, float px, float py) {
+        double rad = Math.toRadians(degrees);
+        float cos = (float) Math.cos(rad);
+        float sin = (float) Math.sin(rad);
+
+        float scaleX = cos * mScaleX - sin * mSkewY;
+        float skewY = sin * mScaleX + cos * mSkewY;
+        float skewX = cos * mSkewX - sin * mScaleY;
+        float scaleY = sin * mSkewX + cos * mScaleY;
+        float transX = cos * (mTransX - px) - sin * (mTransY - py) + px;
+        float transY = sin * (mTransX - px) + cos * (mTransY - py) + py;
+
+        mScaleX = scaleX;
+        mSkewY = skewY;
+        mSkewX = skewX;
+        mScaleY = scaleY;
+        mTransX = transX;
+        mTransY = transY;
+    }
+
+    /**
+     * 计算逆矩阵
+     *
+     * @param inverse 保存逆矩阵，可以为this
+     * @return 矩阵不可逆时返回false，inverse不变
+     */
+    public boolean invert(Affine inverse) {
+        float det = mScaleX * mScaleY - mSkewX * mSkewY;
+        if (det == 0f) return false;
+        float invDet = 1f / det;
+        float scaleX = mScaleY * invDet;
+        float skewX = -mSkewX * invDet;
+        float skewY = -mSkewY * invDet;
+        float scaleY = mScaleX * invDet;
+        float transX = -(scaleX * mTransX + skewX * mTransY);
+        float transY = -(skewY * mTransX + scaleY * mTransY);
+
+        inverse.mScaleX = scaleX;
+        inverse.mSkewX = skewX;
+        inverse.mTransX = transX;
+        inverse.mSkewY = skewY;
+        inverse.mScaleY = scaleY;
+        inverse.mTransY = transY;
+        return true;
+    }
+
+    /**
+     * 映射向量（不包含平移），结果写回vec
+     *
+     * @param vec 长度为2的数组，分别为向量的x、y
+     */
+    public void mapVector(float[] vec) {
+        float x = vec[0];
+        float y = vec[1];
+        vec[0] = mScaleX * x + mSkewX * y;
+        vec[1] = mSkewY * x + mScaleY * y;
+    }
+
+    /**
+     * 映射点，结果写回pts
+     *
+     * @param pts 依次为各点的x、y
+     */
+    public void mapPoints(float[] pts) {
+        for (int i = 0; i + 1 < pts.length; i += 2) {
+            float x = pts[i];
+            float y = pts[i + 1];
+            pts[i] = mScaleX * x + mSkewX * y + mTransX;
+            pts[i + 1] = mSkewY * x + mScaleY * y + mTransY;
+        }
+    }
+
+    /**
+     * 映射矩形，结果为映射后四个顶点的外接矩形
+     *
+     * @param dst 保存结果，可以与src相同
+     */
+    public void mapRect(FloatRect dst, FloatRect src) {
+        float x0 = src.left;
+        float y0 = src.top;
+        float x1 = src.right;
+        float y1 = src.bottom;
+
+        float ax = mScaleX * x0 + mSkewX * y0 + mTransX;
+        float ay = mSkewY * x0 + mScaleY * y0 + mTransY;
+        float bx = mScaleX * x1 + mSkewX * y0 + mTransX;
+        float by = mSkewY * x1 + mScaleY * y0 + mTransY;
+        float cx = mScaleX * x1 + mSkewX * y1 + mTransX;
+        float cy = mSkewY * x1 + mScaleY * y1 + mTransY;
+        float dx = mScaleX * x0 + mSkewX * y1 + mTransX;
+        float dy = mSkewY * x0 + mScaleY * y1 + mTransY;
+
+        dst.left = Math.min(Math.min(ax, bx), Math.min(cx, dx));
+        dst.top = Math.min(Math.min(ay, by), Math.min(cy, dy));
+        dst.right = Math.max(Math.max(ax, bx), Math.max(cx, dx));
+        dst.bottom = Math.max(Math.max(ay, by), Math.max(cy, dy));
+    }
+
+    public float getScaleX() {
+        return mScaleX;
+    }
+
+    public float getSkewX() {
+        return mSkewX;
+    }
+
+    public float getTransX() {
+        return mTransX;
+    }
+
+    public float getSkewY() {
+        return mSkewY;
+    }
+
+    public float getScaleY() {
+        return mScaleY;
+    }
+
+    public float getTransY() {
+        return mTransY;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Affine)) return false;
+        Affine affine = (Affine) o;
+        return mScaleX == affine.mScaleX && mSkewX == affine.mSkewX
+                && mTransX == affine.mTransX && mSkewY == affine.mSkewY
+                && mScaleY == affine.mScaleY && mTransY == affine.mTransY;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Float.floatToIntBits(mScaleX);
+        result = 31 * result + Float.floatToIntBits(mSkewX);
+        result = 31 * result + Float.floatToIntBits(mTransX);
+        result = 31 * result + Float.floatToIntBits(mSkewY);
+        result = 31 * result + Float.floatToIntBits(mScaleY);
+        result = 31 * result + Float.floatToIntBits(mTransY);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "Affine[" + mScaleX + ", " + mSkewX + ", " + mTransX + "]["
+                + mSkewY + ", " + mScaleY + ", " + mTransY + "]";
+    }
+}
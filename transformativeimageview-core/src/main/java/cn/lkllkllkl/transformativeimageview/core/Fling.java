@@ -0,0 +1,96 @@
+package cn.lkllkllkl.transformativeimageview.core;
+
+/**
+ * 惯性滑动的速度衰减计算，速度按指数规律衰减：v(t) = v0 * e^(-friction * t)。
+ * 每帧调用{@link #step(float)}得到该帧的位移，计算过程不分配对象
+ */
+public class Fling {
+    private static final float DEFAULT_FRICTION = 4f; // 默认摩擦系数，每秒速度衰减为原来的e^-4
+    private static final float DEFAULT_MIN_VELOCITY = 20f; // 默认停止速度，单位像素每秒
+
+    private float mFriction = DEFAULT_FRICTION;
+    private float mMinVelocity = DEFAULT_MIN_VELOCITY;
+    private float mVelocityX = 0f;
+    private float mVelocityY = 0f;
+    private float mDx = 0f; // 最近一帧x方向位移
+    private float mDy = 0f; // 最近一帧y方向位移
+
+    /**
+     * @param velocityX x方向初速度，单位像素每秒
+     * @param velocityY y方向初速度，单位像素每秒
+     */
+    public void start(float velocityX, float velocityY) {
+        mVelocityX = velocityX;
+        mVelocityY = velocityY;
+        mDx = 0f;
+        mDy = 0f;
+    }
+
+    /**
+     * 计算经过dt秒后的位移和速度，位移为速度在dt内的积分
+     *
+     * @param dt 距上一帧的时间，单位秒
+     * @return 是否仍在滑动
+     */
+    public boolean step(float dt) {
+        if (isFinished()) {
+            mDx = 0f;
+            mDy = 0f;
+            return false;
+        }
+        float decay = (float) Math.exp(-mFriction * dt);
+        float distanceRatio = (1f - decay) / mFriction;
+        mDx = mVelocityX * distanceRatio;
+        mDy = mVelocityY * distanceRatio;
+        mVelocityX *= decay;
+        mVelocityY *= decay;
+        if (Math.abs(mVelocityX) < mMinVelocity) mVelocityX = 0f;
+        if (Math.abs(mVelocityY) < mMinVelocity) mVelocityY = 0f;
+        return true;
+    }
+
+    public boolean isFinished() {
+        return mVelocityX == 0f && mVelocityY == 0f;
+    }
+
+    /**
+     * 停止x方向的滑动，用于到达边界时
+     */
+    public void stopX() {
+        mVelocityX = 0f;
+    }
+
+    /**
+     * 停止y方向的滑动，用于到达边界时
+     */
+    public void stopY() {
+        mVelocityY = 0f;
+    }
+
+    public void stop() {
+        mVelocityX = 0f;
+        mVelocityY = 0f;
+    }
+
+    public float getDx() {
+        return mDx;
+    }
+
+    public float getDy() {
+        return mDy;
+    }
+
+    /**
+     * @param friction 摩擦系数，越大停止得越快
+     */
+    public void setFriction(float friction) {
+        mFriction = friction;
+    }
+
+    /**
+     * @param minVelocity 速度低于此值时停止，单位像素每秒
+     */
+    public void setMinVelocity(float minVelocity) {
+        mMinVelocity = minVelocity;
+    }
+}
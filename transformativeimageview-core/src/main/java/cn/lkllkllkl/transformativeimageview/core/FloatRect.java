@@ -0,0 +1,50 @@
+package cn.lkllkllkl.transformativeimageview.core;
+
+/**
+ * float坐标的矩形，与android.graphics.RectF含义相同
+ */
+public class FloatRect {
+    public float left;
+    public float top;
+    public float right;
+    public float bottom;
+
+    public FloatRect() {
+    }
+
+    public FloatRect(float left, float top, float right, float bottom) {
+        set(left, top, right, bottom);
+    }
+
+    public void set(float left, float top, float right, float bottom) {
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+    }
+
+    public void set(FloatRect src) {
+        set(src.left, src.top, src.right, src.bottom);
+    }
+
+    public float width() {
+        return right - left;
+    }
+
+    public float height() {
+        return bottom - top;
+    }
+
+    public float centerX() {
+        return (left + right) * 0.5f;
+    }
+
+    public float centerY() {
+        return (top + bottom) * 0.5f;
+    }
+
+    @Override
+    public String toString() {
+        return "FloatRect(" + left + ", " + top + ", " + right + ", " + bottom + ")";
+    }
+}
@@ -0,0 +1,61 @@
+package cn.lkllkllkl.transformativeimageview.core;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 单个生产者和单个消费者之间传递最新一帧的无锁信箱，与Android平台无关。
+ * <p>
+ * 信箱只有一个槽位：生产者放入新的一帧时，消费者还未取走的旧帧被替换并退还给生产者，
+ * 消费者每次只会取到最新的一帧，处理慢时跳过中间的帧而不会积压。
+ * 另有一个空闲槽位用于回收消费者处理完的帧，生产者取出后重新填充，稳定后不需要分配新对象。
+ * 所有操作都只有一次原子交换，任何一方都不会阻塞
+ *
+ * @param <T> 帧的类型
+ */
+public class FrameMailbox<T> {
+    private final AtomicReference<T> mSlot = new AtomicReference<>(); // 等待消费的最新一帧
+    private final AtomicReference<T> mFree = new AtomicReference<>(); // 消费者回收的帧
+
+    /**
+     * 生产者取出一个回收的帧用于填充
+     *
+     * @return 回收的帧，没有时返回null，由调用者创建新的帧
+     */
+    public T obtain() {
+        return mFree.getAndSet(null);
+    }
+
+    /**
+     * 生产者放入新的一帧
+     *
+     * @return 被替换的尚未消费的旧帧，由生产者重新使用；没有时返回null
+     */
+    public T post(T frame) {
+        return mSlot.getAndSet(frame);
+    }
+
+    /**
+     * 消费者取走最新的一帧
+     *
+     * @return 最新的一帧，没有新帧时返回null
+     */
+    public T take() {
+        return mSlot.getAndSet(null);
+    }
+
+    /**
+     * 回收处理完的帧，空闲槽位已被占用时丢弃
+     *
+     * @return 是否放入了空闲槽位
+     */
+    public boolean recycle(T frame) {
+        return mFree.compareAndSet(null, frame);
+    }
+
+    /**
+     * @return 是否有尚未消费的帧
+     */
+    public boolean hasPending() {
+        return mSlot.get() != null;
+    }
+}
@@ -0,0 +1,326 @@
+package cn.lkllkllkl.transformativeimageview.core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+/**
+ * 脱离Android平台回放{@link GestureTrace}，触点经过与控件相同的{@link GestureTransformer}和
+ * {@link TransformEngine}，统计每个事件的耗时和分配的内存，并给出最终的矩阵。
+ * <p>
+ * 历史触点只在轨迹表明控件处理了它们时才回放，与控件是否合并触摸事件一致，
+ * 因此每个事件的耗时、分配量和最终矩阵都与录制时控件的计算相同。
+ * <p>
+ * 手指全部抬起时按轨迹中记录的回弹开关直接计算回弹结果（相当于回弹动画结束时的状态），
+ * 惯性滑动不参与回放，下一次手指落下前的SYNC记录会把变换恢复到录制时的状态。
+ * <p>
+ * 命令行用法：{@code GestureReplay <trace> [golden]}，
+ * golden文件不存在时写入本次的最终矩阵，存在时与之比较；
+ * ACTION_MOVE分配了内存或矩阵不一致时以非0状态退出，可直接用于CI
+ */
+public class GestureReplay {
+    public static final float GOLDEN_TOLERANCE = 1e-3f; // 与golden矩阵比较时允许的误差
+
+    private final GestureTrace mTrace;
+    private final TransformEngine mEngine = new TransformEngine();
+    private final GestureTransformer mGesture = new GestureTransformer(mEngine);
+    private final int[] mIds;
+    private final float[] mXs;
+    private final float[] mYs;
+    private final ThreadMXBean mThreadBean = ManagementFactory.getThreadMXBean();
+    private final boolean mAllocationSupported;
+    private long mAllocationOverhead = 0; // 读取分配量本身带来的分配
+
+    public GestureReplay(GestureTrace trace) {
+        mTrace = trace;
+        mIds = new int[Math.max(2, trace.maxPointerCount)];
+        mXs = new float[Math.max(2, trace.maxPointerCount)];
+        mYs = new float[Math.max(2, trace.maxPointerCount)];
+        mAllocationSupported = mThreadBean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) mThreadBean).isThreadAllocatedMemorySupported();
+        if (mAllocationSupported) {
+            ((com.sun.management.ThreadMXBean) mThreadBean).setThreadAllocatedMemoryEnabled(true);
+            // 连续读取两次，差值即为读取本身的开销
+            long min = Long.MAX_VALUE;
+            for (int i = 0; i < 16; i++) {
+                long start = allocatedBytes();
+                min = Math.min(min, allocatedBytes() - start);
+            }
+            mAllocationOverhead = min;
+        }
+    }
+
+    /**
+     * 从头回放一次轨迹，可以多次调用，第一次回放包含类加载和JIT预热，统计时应使用之后的结果
+     */
+    public Result replay() {
+        Result result = new Result(mAllocationSupported);
+        GestureTrace trace = mTrace;
+        mEngine.setMaxScaleFactor(trace.maxScaleFactor);
+        mEngine.setMinScaleFactor(trace.minScaleFactor);
+        mEngine.setScaleBy(trace.scaleBy);
+        mEngine.init(trace.imageWidth, trace.imageHeight, trace.viewWidth, trace.viewHeight);
+        mGesture.up();
+
+        int index = 0;
+        while (index < trace.recordCount) {
+            // 历史触点和其后的触点属于同一个事件
+            int end = index;
+            while (end < trace.recordCount - 1
+                    && (trace.actions[end] & GestureTrace.FLAG_HISTORICAL) != 0) {
+                end++;
+            }
+            int action = trace.actions[end] & ~GestureTrace.FLAG_HISTORICAL;
+            long startBytes = allocatedBytes();
+            long startTime = System.nanoTime();
+            for (int i = index; i <= end; i++) {
+                if (i < end && !trace.replayHistorical) continue;
+                dispatch(i);
+            }
+            long time = System.nanoTime() - startTime;
+            long bytes = mAllocationSupported
+                    ? Math.max(0, allocatedBytes() - startBytes - mAllocationOverhead) : 0;
+            result.record(action, time, bytes);
+            index = end + 1;
+        }
+        mEngine.getMatrixValues(result.mMatrix);
+        return result;
+    }
+
+    private void dispatch(int index) {
+        GestureTrace trace = mTrace;
+        int action = trace.actions[index] & ~GestureTrace.FLAG_HISTORICAL;
+        int start = trace.pointerStarts[index];
+        int count = trace.pointerCounts[index];
+        if (action == GestureTrace.ACTION_SYNC) {
+            float[] t = trace.transforms;
+            mEngine.setTransform(t[start * 4], t[start * 4 + 1], t[start * 4 + 2], t[start * 4 + 3]);
+            return;
+        }
+        System.arraycopy(trace.ids, start, mIds, 0, count);
+        System.arraycopy(trace.xs, start, mXs, 0, count);
+        System.arraycopy(trace.ys, start, mYs, 0, count);
+        switch (action) {
+            case GestureTrace.ACTION_DOWN:
+            case GestureTrace.ACTION_POINTER_DOWN:
+                mGesture.down(mIds, mXs, mYs, count);
+                break;
+            case GestureTrace.ACTION_MOVE:
+                mGesture.move(mIds, mXs, mYs, count);
+                break;
+            case GestureTrace.ACTION_UP:
+            case GestureTrace.ACTION_CANCEL:
+                int flags = trace.revertFlags;
+                mEngine.revert((flags & GestureTrace.FLAG_ROTATE_REVERT) != 0,
+                        (flags & GestureTrace.FLAG_SCALE_REVERT) != 0,
+                        (flags & GestureTrace.FLAG_TRANSLATE_REVERT) != 0,
+                        mGesture.getLastMidX(), mGesture.getLastMidY());
+                mGesture.up();
+                break;
+            case GestureTrace.ACTION_POINTER_UP:
+                mGesture.pointerUp(mIds, mXs, mYs, count, trace.actionIndexes[index]);
+                break;
+        }
+    }
+
+    private long allocatedBytes() {
+        if (!mAllocationSupported) return 0;
+        return ((com.sun.management.ThreadMXBean) mThreadBean).getThreadAllocatedBytes(
+                Thread.currentThread().getId());
+    }
+
+    /**
+     * 一次回放的统计结果
+     */
+    public static class Result {
+        private final boolean mAllocationSupported;
+        private final Histogram mMoveTime = new Histogram();
+        private final Histogram mEventTime = new Histogram();
+        private int mMoveCount = 0;
+        private int mEventCount = 0;
+        private long mMoveAllocatedBytes = 0;
+        private long mMaxMoveAllocatedBytes = 0;
+        private long mAllocatedBytes = 0;
+        private final float[] mMatrix = new float[9];
+
+        Result(boolean allocationSupported) {
+            mAllocationSupported = allocationSupported;
+        }
+
+        void record(int action, long time, long bytes) {
+            mEventCount++;
+            mEventTime.record(time);
+            mAllocatedBytes += bytes;
+            if (action == GestureTrace.ACTION_MOVE) {
+                mMoveCount++;
+                mMoveTime.record(time);
+                mMoveAllocatedBytes += bytes;
+                mMaxMoveAllocatedBytes = Math.max(mMaxMoveAllocatedBytes, bytes);
+            }
+        }
+
+        /**
+         * @return 当前JVM是否支持统计线程分配的内存，不支持时分配量均为0
+         */
+        public boolean isAllocationSupported() {
+            return mAllocationSupported;
+        }
+
+        public Histogram getMoveTime() {
+            return mMoveTime;
+        }
+
+        public Histogram getEventTime() {
+            return mEventTime;
+        }
+
+        public int getMoveCount() {
+            return mMoveCount;
+        }
+
+        public int getEventCount() {
+            return mEventCount;
+        }
+
+        /**
+         * @return 所有ACTION_MOVE共分配的字节数
+         */
+        public long getMoveAllocatedBytes() {
+            return mMoveAllocatedBytes;
+        }
+
+        /**
+         * @return 单个ACTION_MOVE最多分配的字节数
+         */
+        public long getMaxMoveAllocatedBytes() {
+            return mMaxMoveAllocatedBytes;
+        }
+
+        public long getAllocatedBytes() {
+            return mAllocatedBytes;
+        }
+
+        /**
+         * @return 回放结束时的矩阵，格式与android.graphics.Matrix#getValues相同
+         */
+        public float[] getMatrix() {
+            return mMatrix;
+        }
+
+        /**
+         * 与golden矩阵比较
+         *
+         * @return 每个值的误差都不超过{@link #GOLDEN_TOLERANCE}时返回true
+         */
+        public boolean matches(float[] golden) {
+            for (int i = 0; i < mMatrix.length; i++) {
+                if (Math.abs(mMatrix[i] - golden[i]) > GOLDEN_TOLERANCE) return false;
+            }
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append("events=").append(mEventCount).append(" [").append(mEventTime).append("]\n");
+            builder.append("moves=").append(mMoveCount).append(" [").append(mMoveTime).append("]\n");
+            if (mAllocationSupported) {
+                builder.append("allocated=").append(mAllocatedBytes).append("B moveAllocated=")
+                        .append(mMoveAllocatedBytes).append("B maxPerMove=")
+                        .append(mMaxMoveAllocatedBytes).append("B\n");
+            } else {
+                builder.append("allocation tracking not supported by this JVM\n");
+            }
+            builder.append("matrix=").append(formatMatrix(mMatrix));
+            return builder.toString();
+        }
+    }
+
+    /**
+     * 读取golden文件，内容为空白分隔的9个矩阵值
+     */
+    public static float[] readGolden(InputStream inputStream) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
+        float[] values = new float[9];
+        int count = 0;
+        String line;
+        while ((line = reader.readLine()) != null && count < values.length) {
+            for (String token : line.trim().split("\\s+")) {
+                if (token.isEmpty() || count >= values.length) continue;
+                values[count++] = Float.parseFloat(token);
+            }
+        }
+        if (count != values.length) throw new IOException("golden file must contain 9 values");
+        return values;
+    }
+
+    public static String formatMatrix(float[] values) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) builder.append(i % 3 == 0 ? '\n' : ' ');
+            builder.append(String.format(Locale.US, "%.4f", values[i]));
+        }
+        return builder.toString();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: GestureReplay <trace> [golden]");
+            System.exit(2);
+        }
+        GestureTrace trace;
+        InputStream in = new FileInputStream(args[0]);
+        try {
+            trace = GestureTrace.read(in);
+        } finally {
+            in.close();
+        }
+        GestureReplay replay = new GestureReplay(trace);
+        // 预热后再统计
+        for (int i = 0; i < 10; i++) {
+            replay.replay();
+        }
+        Result result = replay.replay();
+        System.out.println(result);
+
+        boolean failed = false;
+        if (result.getMaxMoveAllocatedBytes() > 0) {
+            System.err.println("ACTION_MOVE allocated " + result.getMaxMoveAllocatedBytes()
+                    + " bytes, budget is 0");
+            failed = true;
+        }
+        if (args.length > 1) {
+            File goldenFile = new File(args[1]);
+            if (goldenFile.exists()) {
+                InputStream goldenIn = new FileInputStream(goldenFile);
+                try {
+                    if (!result.matches(readGolden(goldenIn))) {
+                        System.err.println("final matrix differs from " + goldenFile);
+                        failed = true;
+                    }
+                } finally {
+                    goldenIn.close();
+                }
+            } else {
+                Writer writer = new OutputStreamWriter(new FileOutputStream(goldenFile), "UTF-8");
+                try {
+                    writer.write(formatMatrix(result.getMatrix()));
+                    writer.write('\n');
+                } finally {
+                    writer.close();
+                }
+                System.out.println("wrote " + goldenFile);
+            }
+        }
+        if (failed) System.exit(1);
+    }
+}
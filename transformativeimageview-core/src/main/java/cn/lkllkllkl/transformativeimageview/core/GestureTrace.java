@@ -0,0 +1,194 @@
+package cn.lkllkllkl.transformativeimageview.core;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 触摸轨迹，由{@link GestureTraceWriter}写入的二进制格式读取得到，供{@link GestureReplay}回放。
+ * <p>
+ * 格式（大端序）：
+ * <pre>
+ * 文件头：int魔数"TIVT"，byte版本号，
+ *        float图片宽、高，float控件宽、高，float最大、最小缩放比例，byte缩放中心，byte回弹开关
+ * 记录：  byte动作（最高位为1表示属于下一个非历史记录的历史触点），变长整数距上一条记录的毫秒数，
+ *        动作为SYNC时接着4个float：缩放比例、旋转角度、图片中心x、y；
+ *        其他动作接着byte触点个数、byte动作对应的触点下标（版本2起），
+ *        每个触点为byte触点id、float x、float y
+ * </pre>
+ * 版本3起只记录控件实际处理的历史触点，即开启合并触摸事件时ACTION_MOVE中的历史触点；
+ * 更早的版本总是记录所有历史触点，回放时按控件的默认配置（不合并触摸事件）跳过这些触点。
+ * 读取后所有记录保存在基本类型数组中，回放时不需要分配对象
+ */
+public class GestureTrace {
+    static final int MAGIC = 0x54495654; // "TIVT"
+    static final int VERSION = 3;
+
+    public static final int ACTION_DOWN = 0;
+    public static final int ACTION_POINTER_DOWN = 1;
+    public static final int ACTION_MOVE = 2;
+    public static final int ACTION_POINTER_UP = 3;
+    public static final int ACTION_UP = 4;
+    public static final int ACTION_CANCEL = 5;
+    public static final int ACTION_SYNC = 6; // 手势开始前图片的变换，回放时直接设置到引擎
+
+    static final int FLAG_HISTORICAL = 0x80;
+    static final int FLAG_ROTATE_REVERT = 1;
+    static final int FLAG_SCALE_REVERT = 1 << 1;
+    static final int FLAG_TRANSLATE_REVERT = 1 << 2;
+
+    float imageWidth;
+    float imageHeight;
+    float viewWidth;
+    float viewHeight;
+    float maxScaleFactor;
+    float minScaleFactor;
+    int scaleBy;
+    int revertFlags;
+    boolean replayHistorical; // 回放时是否处理历史触点
+
+    int recordCount = 0;
+    int[] actions = new int[64]; // 包含FLAG_HISTORICAL
+    long[] times = new long[64]; // 距第一条记录的毫秒数
+    int[] pointerStarts = new int[64]; // 触点在xs、ys、ids中的起始下标，SYNC记录指向transforms
+    int[] pointerCounts = new int[64];
+    int[] actionIndexes = new int[64]; // ACTION_POINTER_DOWN、ACTION_POINTER_UP对应的触点下标
+    int pointerTotal = 0;
+    int[] ids = new int[256];
+    float[] xs = new float[256];
+    float[] ys = new float[256];
+    int syncTotal = 0;
+    float[] transforms = new float[16]; // SYNC记录的变换，每条4个值
+    int maxPointerCount = 0;
+
+    GestureTrace() {
+    }
+
+    /**
+     * 读取完整的轨迹，输入流由调用者负责关闭
+     */
+    public static GestureTrace read(InputStream inputStream) throws IOException {
+        DataInputStream in = new DataInputStream(inputStream);
+        if (in.readInt() != MAGIC) throw new IOException("not a gesture trace");
+        int version = in.readUnsignedByte();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("unsupported gesture trace version " + version);
+        }
+        GestureTrace trace = new GestureTrace();
+        trace.imageWidth = in.readFloat();
+        trace.imageHeight = in.readFloat();
+        trace.viewWidth = in.readFloat();
+        trace.viewHeight = in.readFloat();
+        trace.maxScaleFactor = in.readFloat();
+        trace.minScaleFactor = in.readFloat();
+        trace.scaleBy = in.readUnsignedByte();
+        trace.revertFlags = in.readUnsignedByte();
+        // 版本3之前无论控件是否使用都会记录历史触点
+        trace.replayHistorical = version >= 3;
+
+        long time = 0;
+        while (true) {
+            int action = in.read();
+            if (action < 0) break; // 文件结束
+            time += readVarInt(in);
+            trace.ensureRecordCapacity();
+            int index = trace.recordCount++;
+            trace.actions[index] = action;
+            trace.times[index] = time;
+            if ((action & ~FLAG_HISTORICAL) == ACTION_SYNC) {
+                trace.ensureSyncCapacity();
+                int start = trace.syncTotal * 4;
+                for (int i = 0; i < 4; i++) {
+                    trace.transforms[start + i] = in.readFloat();
+                }
+                trace.pointerStarts[index] = trace.syncTotal++;
+                trace.pointerCounts[index] = 0;
+                continue;
+            }
+            int count = in.readUnsignedByte();
+            // 版本1没有记录触点下标，按最后一个触点处理
+            trace.actionIndexes[index] = version >= 2 ? in.readUnsignedByte() : count - 1;
+            trace.ensurePointerCapacity(count);
+            trace.pointerStarts[index] = trace.pointerTotal;
+            trace.pointerCounts[index] = count;
+            for (int i = 0; i < count; i++) {
+                int p = trace.pointerTotal++;
+                trace.ids[p] = in.readUnsignedByte();
+                trace.xs[p] = in.readFloat();
+                trace.ys[p] = in.readFloat();
+            }
+            trace.maxPointerCount = Math.max(trace.maxPointerCount, count);
+        }
+        return trace;
+    }
+
+    static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        while (true) {
+            int b = in.read();
+            if (b < 0) throw new EOFException();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) return value;
+            shift += 7;
+        }
+    }
+
+    private void ensureRecordCapacity() {
+        if (recordCount < actions.length) return;
+        int capacity = actions.length * 2;
+        actions = copyOf(actions, capacity);
+        pointerStarts = copyOf(pointerStarts, capacity);
+        pointerCounts = copyOf(pointerCounts, capacity);
+        actionIndexes = copyOf(actionIndexes, capacity);
+        long[] newTimes = new long[capacity];
+        System.arraycopy(times, 0, newTimes, 0, recordCount);
+        times = newTimes;
+    }
+
+    private void ensurePointerCapacity(int count) {
+        if (pointerTotal + count <= xs.length) return;
+        int capacity = Math.max(xs.length * 2, pointerTotal + count);
+        ids = copyOf(ids, capacity);
+        float[] newXs = new float[capacity];
+        float[] newYs = new float[capacity];
+        System.arraycopy(xs, 0, newXs, 0, pointerTotal);
+        System.arraycopy(ys, 0, newYs, 0, pointerTotal);
+        xs = newXs;
+        ys = newYs;
+    }
+
+    private void ensureSyncCapacity() {
+        if ((syncTotal + 1) * 4 <= transforms.length) return;
+        float[] newTransforms = new float[transforms.length * 2];
+        System.arraycopy(transforms, 0, newTransforms, 0, syncTotal * 4);
+        transforms = newTransforms;
+    }
+
+    private static int[] copyOf(int[] array, int capacity) {
+        int[] newArray = new int[capacity];
+        System.arraycopy(array, 0, newArray, 0, Math.min(array.length, capacity));
+        return newArray;
+    }
+
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    public float getImageWidth() {
+        return imageWidth;
+    }
+
+    public float getImageHeight() {
+        return imageHeight;
+    }
+
+    public float getViewWidth() {
+        return viewWidth;
+    }
+
+    public float getViewHeight() {
+        return viewHeight;
+    }
+}
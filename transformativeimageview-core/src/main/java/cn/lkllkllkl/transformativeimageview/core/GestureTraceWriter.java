@@ -0,0 +1,104 @@
+package cn.lkllkllkl.transformativeimageview.core;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 以{@link GestureTrace}的二进制格式逐条写入触摸轨迹。
+ * 写入时不分配对象，可以在触摸事件中直接调用
+ */
+public class GestureTraceWriter {
+    private final DataOutputStream mOut;
+    private boolean mHeaderWritten = false;
+    private long mLastTime = Long.MIN_VALUE; // 上一条记录的时间，单位为毫秒
+
+    public GestureTraceWriter(OutputStream out) {
+        mOut = new DataOutputStream(new BufferedOutputStream(out));
+    }
+
+    /**
+     * 写入文件头，必须在第一条记录前调用且只调用一次
+     *
+     * @param engine 提供图片和控件大小以及缩放限制
+     */
+    public void writeHeader(TransformEngine engine, boolean rotateRevert, boolean scaleRevert,
+                            boolean translateRevert) throws IOException {
+        if (mHeaderWritten) throw new IllegalStateException("header already written");
+        mHeaderWritten = true;
+        mOut.writeInt(GestureTrace.MAGIC);
+        mOut.writeByte(GestureTrace.VERSION);
+        mOut.writeFloat(engine.getImageWidth());
+        mOut.writeFloat(engine.getImageHeight());
+        mOut.writeFloat(engine.getViewWidth());
+        mOut.writeFloat(engine.getViewHeight());
+        mOut.writeFloat(engine.getMaxScaleFactor());
+        mOut.writeFloat(engine.getMinScaleFactor());
+        mOut.writeByte(engine.getScaleBy());
+        int flags = 0;
+        if (rotateRevert) flags |= GestureTrace.FLAG_ROTATE_REVERT;
+        if (scaleRevert) flags |= GestureTrace.FLAG_SCALE_REVERT;
+        if (translateRevert) flags |= GestureTrace.FLAG_TRANSLATE_REVERT;
+        mOut.writeByte(flags);
+    }
+
+    public boolean isHeaderWritten() {
+        return mHeaderWritten;
+    }
+
+    /**
+     * 写入手势开始前图片的变换，回放时从这里开始计算
+     */
+    public void writeSync(long time, TransformEngine engine) throws IOException {
+        writeActionAndTime(GestureTrace.ACTION_SYNC, time);
+        mOut.writeFloat(engine.getScaleFactor());
+        mOut.writeFloat(engine.getCurrentRotateDegree());
+        mOut.writeFloat(engine.getImageCenterX());
+        mOut.writeFloat(engine.getImageCenterY());
+    }
+
+    /**
+     * 写入一组触点
+     *
+     * @param action GestureTrace中的ACTION_*
+     * @param historical 是否为批量事件中的历史触点
+     * @param time 触点时间，单位为毫秒
+     * @param actionIndex 落下或抬起的触点下标，其他动作为0
+     */
+    public void writeSample(int action, boolean historical, long time, int actionIndex,
+                            int pointerCount, int[] ids, float[] xs, float[] ys) throws IOException {
+        writeActionAndTime(historical ? action | GestureTrace.FLAG_HISTORICAL : action, time);
+        mOut.writeByte(pointerCount);
+        mOut.writeByte(actionIndex);
+        for (int i = 0; i < pointerCount; i++) {
+            mOut.writeByte(ids[i]);
+            mOut.writeFloat(xs[i]);
+            mOut.writeFloat(ys[i]);
+        }
+    }
+
+    private void writeActionAndTime(int action, long time) throws IOException {
+        if (!mHeaderWritten) throw new IllegalStateException("header not written");
+        long delta = mLastTime == Long.MIN_VALUE ? 0 : Math.max(0, time - mLastTime);
+        mLastTime = time;
+        mOut.writeByte(action);
+        writeVarInt((int) Math.min(delta, Integer.MAX_VALUE));
+    }
+
+    private void writeVarInt(int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            mOut.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        mOut.writeByte(value);
+    }
+
+    public void flush() throws IOException {
+        mOut.flush();
+    }
+
+    public void close() throws IOException {
+        mOut.close();
+    }
+}
@@ -0,0 +1,187 @@
+package cn.lkllkllkl.transformativeimageview.core;
+
+/**
+ * 把触点序列转换为对{@link TransformEngine}的平移、缩放、旋转，与Android平台无关。
+ * <p>
+ * 触点按id跟踪，每次移动时对上一次和本次都存在的所有触点求最小二乘意义下的相似变换
+ * （平移、缩放、旋转），只用到点积和叉积，不需要三角函数。
+ * 手指落下或抬起时只增减跟踪的触点而不重置状态，第三个手指落下或某个手指抬起时图片不会跳动。
+ * <p>
+ * 控件和回放工具都通过此类处理触点，保证两者的计算结果完全一致。
+ * 除了触点个数超过以往最大值时扩容，所有方法都不会分配对象
+ */
+public class GestureTransformer {
+    private static final float MIN_SPREAD = 1e-2f; // 触点分布的最小范围（距离平方和），小于时只平移
+
+    private final TransformEngine mEngine;
+
+    private int mCount = 0; // 当前跟踪的触点个数
+    private int[] mIds = new int[4]; // 上一次各触点的id
+    private float[] mXs = new float[4]; // 上一次各触点的x坐标
+    private float[] mYs = new float[4]; // 上一次各触点的y坐标
+    private float mLastMidX = 0f; // 上一次所有触点中点的x坐标
+    private float mLastMidY = 0f; // 上一次所有触点中点的y坐标
+
+    public GestureTransformer(TransformEngine engine) {
+        mEngine = engine;
+    }
+
+    /**
+     * 有手指落下（包括第一个手指和之后的手指），以本次所有触点作为之后移动的起点
+     *
+     * @param ids 各触点的id
+     * @param xs 各触点的x坐标
+     * @param ys 各触点的y坐标
+     * @param count 触点个数
+     */
+    public void down(int[] ids, float[] xs, float[] ys, int count) {
+        setPointers(ids, xs, ys, count, -1);
+    }
+
+    /**
+     * 有手指抬起但还有其他手指，去掉抬起的触点，其他触点继续跟踪
+     *
+     * @param upIndex 抬起的触点在本组触点中的下标
+     */
+    public void pointerUp(int[] ids, float[] xs, float[] ys, int count, int upIndex) {
+        setPointers(ids, xs, ys, count, upIndex);
+    }
+
+    /**
+     * 手指全部抬起或触摸取消，之后的移动不再改变图片
+     */
+    public void up() {
+        mCount = 0;
+    }
+
+    /**
+     * 处理一组移动后的触点，对上一次和本次都存在的触点求相似变换并作用到图片上
+     */
+    public void move(int[] ids, float[] xs, float[] ys, int count) {
+        if (mCount == 0) return;
+        // 求匹配触点在上一次和本次的中点
+        int matched = 0;
+        float lastSumX = 0f, lastSumY = 0f, sumX = 0f, sumY = 0f;
+        for (int i = 0; i < count; i++) {
+            int last = indexOf(ids[i]);
+            if (last < 0) continue;
+            matched++;
+            lastSumX += mXs[last];
+            lastSumY += mYs[last];
+            sumX += xs[i];
+            sumY += ys[i];
+        }
+        if (matched > 0) {
+            float lastMidX = lastSumX / matched;
+            float lastMidY = lastSumY / matched;
+            float midX = sumX / matched;
+            float midY = sumY / matched;
+            // 以中点为原点，最小二乘解为 a = Σ(p·q) / Σ|p|²，b = Σ(p×q) / Σ|p|²
+            float dot = 0f, cross = 0f, spread = 0f;
+            if (matched > 1) {
+                for (int i = 0; i < count; i++) {
+                    int last = indexOf(ids[i]);
+                    if (last < 0) continue;
+                    float px = mXs[last] - lastMidX;
+                    float py = mYs[last] - lastMidY;
+                    float qx = xs[i] - midX;
+                    float qy = ys[i] - midY;
+                    dot += px * qx + py * qy;
+                    cross += px * qy - py * qx;
+                    spread += px * px + py * py;
+                }
+            }
+            if (spread > MIN_SPREAD) {
+                mEngine.transformBy(dot / spread, cross / spread, midX, midY,
+                        midX - lastMidX, midY - lastMidY);
+            } else {
+                mEngine.translate(midX - lastMidX, midY - lastMidY);
+            }
+        }
+        setPointers(ids, xs, ys, count, -1);
+    }
+
+    /**
+     * 把图片跟随中点平移到新的位置，之后的移动以本次触点为起点
+     */
+    public void translateTo(float midX, float midY) {
+        mEngine.translate(midX - mLastMidX, midY - mLastMidY);
+        for (int i = 0; i < mCount; i++) {
+            mXs[i] += midX - mLastMidX;
+            mYs[i] += midY - mLastMidY;
+        }
+        mLastMidX = midX;
+        mLastMidY = midY;
+    }
+
+    /**
+     * 记录一组触点，skipIndex为需要去掉的触点下标，不需要时为-1
+     */
+    private void setPointers(int[] ids, float[] xs, float[] ys, int count, int skipIndex) {
+        if (mIds.length < count) {
+            mIds = new int[count];
+            mXs = new float[count];
+            mYs = new float[count];
+        }
+        int n = 0;
+        float sumX = 0f, sumY = 0f;
+        for (int i = 0; i < count; i++) {
+            if (i == skipIndex) continue;
+            mIds[n] = ids[i];
+            mXs[n] = xs[i];
+            mYs[n] = ys[i];
+            sumX += xs[i];
+            sumY += ys[i];
+            n++;
+        }
+        mCount = n;
+        if (n > 0) {
+            mLastMidX = sumX / n;
+            mLastMidY = sumY / n;
+        }
+    }
+
+    private int indexOf(int id) {
+        for (int i = 0; i < mCount; i++) {
+            if (mIds[i] == id) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return 当前跟踪的触点个数
+     */
+    public int getPointerCount() {
+        return mCount;
+    }
+
+    public boolean canDrag() {
+        return mCount > 0;
+    }
+
+    public boolean canScale() {
+        return mCount > 1;
+    }
+
+    public boolean canRotate() {
+        return mCount > 1;
+    }
+
+    /**
+     * @return 是否有可以进行的变换
+     */
+    public boolean isActive() {
+        return mCount > 0;
+    }
+
+    /**
+     * @return 上一次所有触点中点的x坐标，也是回弹时的缩放中心
+     */
+    public float getLastMidX() {
+        return mLastMidX;
+    }
+
+    public float getLastMidY() {
+        return mLastMidY;
+    }
+}
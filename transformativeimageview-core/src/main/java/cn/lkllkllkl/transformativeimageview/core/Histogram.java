@@ -0,0 +1,117 @@
+package cn.lkllkllkl.transformativeimageview.core;
+
+/**
+ * 记录耗时分布的直方图，桶的边界按2的幂增长，单位为纳秒。
+ * 第i个桶（i &gt; 0）记录[2^(i-1), 2^i)微秒的值，第0个桶记录小于1微秒的值，
+ * 最后一个桶记录其余更大的值。
+ * <p>
+ * 记录时不分配对象，非线程安全
+ */
+public class Histogram {
+    public static final int BUCKET_COUNT = 24; // 最后一个桶从约4秒开始
+
+    private final long[] mBuckets = new long[BUCKET_COUNT];
+    private long mCount = 0;
+    private long mSum = 0;
+    private long mMin = Long.MAX_VALUE;
+    private long mMax = 0;
+
+    /**
+     * 记录一个值
+     *
+     * @param nanos 耗时，单位为纳秒，小于0时按0记录
+     */
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        mBuckets[bucketOf(nanos)]++;
+        mCount++;
+        mSum += nanos;
+        if (nanos < mMin) mMin = nanos;
+        if (nanos > mMax) mMax = nanos;
+    }
+
+    private static int bucketOf(long nanos) {
+        long micros = nanos / 1000;
+        // 小于1微秒为0号桶，[2^(i-1), 2^i)微秒为i号桶
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        return Math.min(bucket, BUCKET_COUNT - 1);
+    }
+
+    /**
+     * @return 第index个桶的上界（不含），单位为纳秒，最后一个桶返回{@link Long#MAX_VALUE}
+     */
+    public static long getBucketUpperBound(int index) {
+        if (index >= BUCKET_COUNT - 1) return Long.MAX_VALUE;
+        return (1L << index) * 1000;
+    }
+
+    public long getBucketCount(int index) {
+        return mBuckets[index];
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return 平均值，单位为纳秒，没有记录时为0
+     */
+    public long getMean() {
+        return mCount == 0 ? 0 : mSum / mCount;
+    }
+
+    public long getMin() {
+        return mCount == 0 ? 0 : mMin;
+    }
+
+    public long getMax() {
+        return mMax;
+    }
+
+    /**
+     * 估算分位数，返回所在桶的上界，最后一个桶返回最大值
+     *
+     * @param percentile 范围为[0, 100]
+     * @return 单位为纳秒，没有记录时为0
+     */
+    public long getPercentile(double percentile) {
+        if (mCount == 0) return 0;
+        long rank = (long) Math.ceil(mCount * percentile / 100);
+        if (rank < 1) rank = 1;
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mBuckets[i];
+            if (seen >= rank) return Math.min(getBucketUpperBound(i), mMax);
+        }
+        return mMax;
+    }
+
+    /**
+     * 把另一个直方图的记录合并进来
+     */
+    public void add(Histogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mBuckets[i] += other.mBuckets[i];
+        }
+        mCount += other.mCount;
+        mSum += other.mSum;
+        mMin = Math.min(mMin, other.mMin);
+        mMax = Math.max(mMax, other.mMax);
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mBuckets[i] = 0;
+        }
+        mCount = 0;
+        mSum = 0;
+        mMin = Long.MAX_VALUE;
+        mMax = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + mCount + " mean=" + getMean() / 1000 + "us p50=" + getPercentile(50) / 1000
+                + "us p99=" + getPercentile(99) / 1000 + "us max=" + mMax / 1000 + "us";
+    }
+}
@@ -0,0 +1,268 @@
+package cn.lkllkllkl.transformativeimageview.core;
+
+/**
+ * 均匀网格空间索引，用于快速找出与某个区域相交的条目，与Android平台无关。
+ * <p>
+ * 条目以下标表示，每个条目有一个包围盒和一个最小可见缩放比例。
+ * 调用{@link #build()}后条目按包围盒放入覆盖的网格中（紧凑的数组布局），
+ * 区域查询只检查与区域相交的网格，点击检测只检查点附近的网格，两者的耗时都与条目总数无关。
+ * 查询和点击检测不会分配对象（结果缓冲区不够时扩容除外），非线程安全
+ */
+public class SpatialGrid {
+    private static final int ITEMS_PER_CELL = 8; // 平均每个网格的条目数
+    private static final int MAX_CELLS_PER_SIDE = 256;
+
+    private int mCount = 0;
+    private float[] mBounds = new float[64]; // 每个条目4个值：left, top, right, bottom
+    private float[] mMinScales = new float[16]; // 每个条目的最小可见缩放比例
+
+    // 网格
+    private float mLeft, mTop; // 网格覆盖区域的左上角
+    private float mCellWidth = 1f, mCellHeight = 1f;
+    private int mColumns = 0, mRows = 0;
+    private int[] mCellStarts = new int[1]; // 第i个网格的条目为mCellItems[mCellStarts[i], mCellStarts[i + 1])
+    private int[] mCellItems = new int[0];
+
+    // 查询
+    private int[] mStamps = new int[16]; // 条目上次被查询到时的查询编号，用于去掉跨多个网格的重复条目
+    private int mStamp = 0;
+    private int[] mResults = new int[64];
+    private int mResultCount = 0;
+
+    /**
+     * 添加一个条目，添加后需要调用{@link #build()}才能被查询到
+     *
+     * @param minScale 缩放比例小于此值时查询不到此条目，不需要按缩放比例过滤时为0
+     * @return 条目下标
+     */
+    public int add(float left, float top, float right, float bottom, float minScale) {
+        if (mCount == mMinScales.length) {
+            int capacity = mCount * 2;
+            float[] bounds = new float[capacity * 4];
+            System.arraycopy(mBounds, 0, bounds, 0, mCount * 4);
+            mBounds = bounds;
+            float[] minScales = new float[capacity];
+            System.arraycopy(mMinScales, 0, minScales, 0, mCount);
+            mMinScales = minScales;
+        }
+        int index = mCount++;
+        set(index, left, top, right, bottom, minScale);
+        return index;
+    }
+
+    /**
+     * 修改条目，修改后需要调用{@link #build()}才能生效
+     */
+    public void set(int index, float left, float top, float right, float bottom, float minScale) {
+        mBounds[index * 4] = Math.min(left, right);
+        mBounds[index * 4 + 1] = Math.min(top, bottom);
+        mBounds[index * 4 + 2] = Math.max(left, right);
+        mBounds[index * 4 + 3] = Math.max(top, bottom);
+        mMinScales[index] = minScale;
+    }
+
+    public float getLeft(int index) {
+        return mBounds[index * 4];
+    }
+
+    public float getTop(int index) {
+        return mBounds[index * 4 + 1];
+    }
+
+    public float getRight(int index) {
+        return mBounds[index * 4 + 2];
+    }
+
+    public float getBottom(int index) {
+        return mBounds[index * 4 + 3];
+    }
+
+    public float getMinScale(int index) {
+        return mMinScales[index];
+    }
+
+    public void clear() {
+        mCount = 0;
+        mColumns = 0;
+        mRows = 0;
+        mResultCount = 0;
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * 根据当前所有条目重新建立网格
+     */
+    public void build() {
+        if (mStamps.length < mCount) mStamps = new int[mMinScales.length];
+        if (mCount == 0) {
+            mColumns = 0;
+            mRows = 0;
+            return;
+        }
+        float left = Float.MAX_VALUE, top = Float.MAX_VALUE;
+        float right = -Float.MAX_VALUE, bottom = -Float.MAX_VALUE;
+        for (int i = 0; i < mCount; i++) {
+            left = Math.min(left, mBounds[i * 4]);
+            top = Math.min(top, mBounds[i * 4 + 1]);
+            right = Math.max(right, mBounds[i * 4 + 2]);
+            bottom = Math.max(bottom, mBounds[i * 4 + 3]);
+        }
+        // 网格数与条目数成正比，网格尽量接近正方形
+        float width = Math.max(right - left, 1f);
+        float height = Math.max(bottom - top, 1f);
+        float cellSize = (float) Math.sqrt(width * height * ITEMS_PER_CELL / mCount);
+        mColumns = clamp((int) Math.ceil(width / cellSize));
+        mRows = clamp((int) Math.ceil(height / cellSize));
+        mLeft = left;
+        mTop = top;
+        mCellWidth = width / mColumns;
+        mCellHeight = height / mRows;
+
+        // 先统计每个网格的条目数，再填入条目
+        int cellCount = mColumns * mRows;
+        if (mCellStarts.length < cellCount + 1) mCellStarts = new int[cellCount + 1];
+        for (int i = 0; i <= cellCount; i++) {
+            mCellStarts[i] = 0;
+        }
+        int total = 0;
+        for (int i = 0; i < mCount; i++) {
+            int c0 = column(mBounds[i * 4]), c1 = column(mBounds[i * 4 + 2]);
+            int r0 = row(mBounds[i * 4 + 1]), r1 = row(mBounds[i * 4 + 3]);
+            for (int r = r0; r <= r1; r++) {
+                for (int c = c0; c <= c1; c++) {
+                    mCellStarts[r * mColumns + c + 1]++;
+                    total++;
+                }
+            }
+        }
+        for (int i = 0; i < cellCount; i++) {
+            mCellStarts[i + 1] += mCellStarts[i];
+        }
+        if (mCellItems.length < total) mCellItems = new int[total];
+        // 填入时mCellStarts[i]逐个后移，填完后等于下一个网格的起始位置，整体右移一位即可恢复
+        for (int i = 0; i < mCount; i++) {
+            int c0 = column(mBounds[i * 4]), c1 = column(mBounds[i * 4 + 2]);
+            int r0 = row(mBounds[i * 4 + 1]), r1 = row(mBounds[i * 4 + 3]);
+            for (int r = r0; r <= r1; r++) {
+                for (int c = c0; c <= c1; c++) {
+                    mCellItems[mCellStarts[r * mColumns + c]++] = i;
+                }
+            }
+        }
+        for (int i = cellCount; i > 0; i--) {
+            mCellStarts[i] = mCellStarts[i - 1];
+        }
+        mCellStarts[0] = 0;
+    }
+
+    private static int clamp(int cells) {
+        return Math.max(1, Math.min(cells, MAX_CELLS_PER_SIDE));
+    }
+
+    private int column(float x) {
+        int column = (int) ((x - mLeft) / mCellWidth);
+        return Math.max(0, Math.min(column, mColumns - 1));
+    }
+
+    private int row(float y) {
+        int row = (int) ((y - mTop) / mCellHeight);
+        return Math.max(0, Math.min(row, mRows - 1));
+    }
+
+    /**
+     * 查询与区域相交且在当前缩放比例下可见的条目，结果的顺序不固定，
+     * 通过{@link #getResult(int)}读取
+     *
+     * @param scale 当前缩放比例
+     * @return 查询到的条目个数
+     */
+    public int query(float left, float top, float right, float bottom, float scale) {
+        mResultCount = 0;
+        if (mColumns == 0 || right < mLeft || bottom < mTop
+                || left > mLeft + mCellWidth * mColumns || top > mTop + mCellHeight * mRows) {
+            return 0;
+        }
+        int stamp = nextStamp();
+        int c0 = column(left), c1 = column(right);
+        int r0 = row(top), r1 = row(bottom);
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                int cell = r * mColumns + c;
+                for (int k = mCellStarts[cell], end = mCellStarts[cell + 1]; k < end; k++) {
+                    int item = mCellItems[k];
+                    if (mStamps[item] == stamp) continue;
+                    mStamps[item] = stamp;
+                    if (mMinScales[item] > scale) continue;
+                    int b = item * 4;
+                    if (mBounds[b] > right || mBounds[b + 2] < left
+                            || mBounds[b + 1] > bottom || mBounds[b + 3] < top) {
+                        continue;
+                    }
+                    addResult(item);
+                }
+            }
+        }
+        return mResultCount;
+    }
+
+    /**
+     * 点击检测，找出包围盒向外扩展slop后包含(x, y)且距离最近的可见条目，距离相同时取后添加的条目
+     *
+     * @param slop 允许的误差，与坐标单位相同
+     * @param scale 当前缩放比例
+     * @return 条目下标，没有时返回-1
+     */
+    public int hitTest(float x, float y, float slop, float scale) {
+        int count = query(x - slop, y - slop, x + slop, y + slop, scale);
+        int hit = -1;
+        float hitDistance = Float.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            int item = mResults[i];
+            int b = item * 4;
+            // 点到包围盒的距离，在包围盒内部时为0
+            float dx = Math.max(0f, Math.max(mBounds[b] - x, x - mBounds[b + 2]));
+            float dy = Math.max(0f, Math.max(mBounds[b + 1] - y, y - mBounds[b + 3]));
+            float distance = dx * dx + dy * dy;
+            if (distance > slop * slop) continue;
+            if (distance < hitDistance || (distance == hitDistance && item > hit)) {
+                hit = item;
+                hitDistance = distance;
+            }
+        }
+        return hit;
+    }
+
+    private int nextStamp() {
+        if (++mStamp == Integer.MAX_VALUE) {
+            // 查询编号用尽后清零重新开始
+            for (int i = 0; i < mStamps.length; i++) {
+                mStamps[i] = 0;
+            }
+            mStamp = 1;
+        }
+        return mStamp;
+    }
+
+    private void addResult(int item) {
+        if (mResultCount == mResults.length) {
+            int[] results = new int[mResults.length * 2];
+            System.arraycopy(mResults, 0, results, 0, mResultCount);
+            mResults = results;
+        }
+        mResults[mResultCount++] = item;
+    }
+
+    /**
+     * @return 上一次查询的第i个结果
+     */
+    public int getResult(int i) {
+        return mResults[i];
+    }
+
+    public int getResultCount() {
+        return mResultCount;
+    }
+}
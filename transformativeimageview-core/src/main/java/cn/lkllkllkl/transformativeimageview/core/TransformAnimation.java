@@ -0,0 +1,269 @@
+package cn.lkllkllkl.transformativeimageview.core;
+
+/**
+ * 图片变换动画，将变换分解为缩放比例、旋转角度、图片中心位置分别插值，
+ * 避免直接对矩阵各元素线性插值导致旋转过程中图片变形、缩小。
+ * <p>
+ * 支持两种插值方式：按时长的先加速后减速插值，以及弹簧动力学。
+ * 动画进行中可随时通过{@link #setTarget(float, float, float, float)}修改目标而不需要重新开始，
+ * 且速度保持连续：按时长插值时改为从当前值和当前速度出发的三次Hermite曲线，
+ * 在一个动画时长内减速到达新目标；弹簧模式下直接保留当前速度。每帧的计算量固定，且不分配对象
+ */
+public class TransformAnimation {
+    private static final float DEFAULT_DURATION = 0.3f; // 默认动画时长，单位秒
+    private static final float DEFAULT_STIFFNESS = 500f; // 默认弹簧刚度
+    private static final float DEFAULT_DAMPING_RATIO = 1f; // 默认阻尼比，1为临界阻尼，不会回弹过头
+    private static final float MAX_SPRING_STEP = 0.004f; // 弹簧积分的最大步长，单位秒
+    private static final float SCALE_THRESHOLD = 1e-3f; // 缩放比例与目标的相对误差小于此值时视为到达
+    private static final float ROTATION_THRESHOLD = 0.05f; // 旋转角度与目标误差小于此值时视为到达
+    private static final float POSITION_THRESHOLD = 0.5f; // 位置与目标误差小于此值时视为到达
+
+    private static final int SCALE = 0;
+    private static final int ROTATION = 1;
+    private static final int CENTER_X = 2;
+    private static final int CENTER_Y = 3;
+    private static final int COMPONENT_COUNT = 4;
+
+    private final float[] mFrom = new float[COMPONENT_COUNT]; // 插值起点
+    private final float[] mCurrent = new float[COMPONENT_COUNT]; // 当前值
+    private final float[] mTarget = new float[COMPONENT_COUNT]; // 目标值
+    private final float[] mVelocity = new float[COMPONENT_COUNT]; // 当前速度，单位为每秒的变化量
+    private final float[] mFromVelocity = new float[COMPONENT_COUNT]; // 修改目标时的速度，作为Hermite曲线起点的速度
+
+    private boolean mSpring = false; // 是否使用弹簧动力学
+    private float mDuration = DEFAULT_DURATION;
+    private float mStiffness = DEFAULT_STIFFNESS;
+    private float mDampingRatio = DEFAULT_DAMPING_RATIO;
+    private float mElapsed = 0f; // 按时长插值时已经过的时间
+    private boolean mRetargeted = false; // 按时长插值时是否已修改过目标，修改后使用Hermite曲线
+    private boolean mRunning = false;
+
+    /**
+     * 设置当前值，同时作为插值起点，速度清零
+     *
+     * @param scale 缩放比例
+     * @param rotation 旋转角度，单位“度”
+     * @param centerX 图片中心的x坐标
+     * @param centerY 图片中心的y坐标
+     */
+    public void setCurrent(float scale, float rotation, float centerX, float centerY) {
+        mCurrent[SCALE] = scale;
+        mCurrent[ROTATION] = rotation;
+        mCurrent[CENTER_X] = centerX;
+        mCurrent[CENTER_Y] = centerY;
+        for (int i = 0; i < COMPONENT_COUNT; i++) {
+            mFrom[i] = mCurrent[i];
+            mVelocity[i] = 0f;
+        }
+        mElapsed = 0f;
+        mRetargeted = false;
+    }
+
+    /**
+     * 设置目标值。动画进行中调用时从当前值和当前速度继续向新目标运动，不会停顿后重新加速
+     *
+     * @see #setCurrent(float, float, float, float)
+     */
+    public void setTarget(float scale, float rotation, float centerX, float centerY) {
+        mTarget[SCALE] = scale;
+        // 旋转沿最短路径进行
+        mTarget[ROTATION] = mCurrent[ROTATION] + wrapDegree(rotation - mCurrent[ROTATION]);
+        mTarget[CENTER_X] = centerX;
+        mTarget[CENTER_Y] = centerY;
+        if (mRunning) {
+            // 从当前值和当前速度开始新的一段插值，弹簧模式直接保留速度
+            System.arraycopy(mCurrent, 0, mFrom, 0, COMPONENT_COUNT);
+            System.arraycopy(mVelocity, 0, mFromVelocity, 0, COMPONENT_COUNT);
+            mElapsed = 0f;
+            mRetargeted = true;
+        }
+    }
+
+    /**
+     * 开始动画，需要先设置当前值和目标值
+     */
+    public void start() {
+        mRunning = !isSettled();
+    }
+
+    public void cancel() {
+        mRunning = false;
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    /**
+     * 当前值是否已经到达目标值
+     */
+    public boolean isSettled() {
+        return Math.abs(mCurrent[SCALE] - mTarget[SCALE]) <= SCALE_THRESHOLD * Math.abs(mTarget[SCALE])
+                && Math.abs(mCurrent[ROTATION] - mTarget[ROTATION]) <= ROTATION_THRESHOLD
+                && Math.abs(mCurrent[CENTER_X] - mTarget[CENTER_X]) <= POSITION_THRESHOLD
+                && Math.abs(mCurrent[CENTER_Y] - mTarget[CENTER_Y]) <= POSITION_THRESHOLD;
+    }
+
+    /**
+     * 计算经过dt秒后的值，到达目标后当前值等于目标值
+     *
+     * @param dt 距上一帧的时间，单位秒
+     * @return 动画是否仍在进行
+     */
+    public boolean step(float dt) {
+        if (!mRunning) return false;
+        if (mSpring) {
+            stepSpring(dt);
+            if (isSettled() && isResting()) finish();
+        } else {
+            mElapsed += dt;
+            float fraction = mDuration > 0 ? Math.min(1f, mElapsed / mDuration) : 1f;
+            if (fraction >= 1f) {
+                finish();
+            } else if (mRetargeted) {
+                stepHermite(fraction);
+            } else {
+                stepEased(fraction);
+            }
+        }
+        return mRunning;
+    }
+
+    /**
+     * 与ValueAnimator默认的AccelerateDecelerateInterpolator相同，速度为插值结果对时间的导数
+     */
+    private void stepEased(float fraction) {
+        float interpolated = (float) (Math.cos((fraction + 1) * Math.PI) / 2.0f) + 0.5f;
+        float speed = (float) (Math.sin(fraction * Math.PI) * Math.PI / 2.0 / mDuration);
+        for (int i = 0; i < COMPONENT_COUNT; i++) {
+            float distance = mTarget[i] - mFrom[i];
+            mCurrent[i] = mFrom[i] + distance * interpolated;
+            mVelocity[i] = distance * speed;
+        }
+    }
+
+    /**
+     * 三次Hermite曲线：起点为修改目标时的值和速度，终点为目标值，到达时速度为0
+     */
+    private void stepHermite(float fraction) {
+        float u = fraction;
+        float u2 = u * u;
+        float u3 = u2 * u;
+        // 基函数及其对u的导数
+        float h00 = 2 * u3 - 3 * u2 + 1;
+        float h10 = u3 - 2 * u2 + u;
+        float h01 = 3 * u2 - 2 * u3;
+        float d00 = 6 * u2 - 6 * u;
+        float d10 = 3 * u2 - 4 * u + 1;
+        for (int i = 0; i < COMPONENT_COUNT; i++) {
+            float tangent = mFromVelocity[i] * mDuration; // 起点速度换算为对u的导数
+            mCurrent[i] = h00 * mFrom[i] + h10 * tangent + h01 * mTarget[i];
+            mVelocity[i] = (d00 * (mFrom[i] - mTarget[i]) + d10 * tangent) / mDuration;
+        }
+    }
+
+    /**
+     * 半隐式欧拉法积分弹簧运动，步长过大时拆分为多步以保证稳定
+     */
+    private void stepSpring(float dt) {
+        float damping = 2f * mDampingRatio * (float) Math.sqrt(mStiffness);
+        int steps = Math.max(1, (int) Math.ceil(dt / MAX_SPRING_STEP));
+        float h = dt / steps;
+        for (int step = 0; step < steps; step++) {
+            for (int i = 0; i < COMPONENT_COUNT; i++) {
+                float acceleration = -mStiffness * (mCurrent[i] - mTarget[i]) - damping * mVelocity[i];
+                mVelocity[i] += acceleration * h;
+                mCurrent[i] += mVelocity[i] * h;
+            }
+        }
+    }
+
+    /**
+     * 弹簧速度是否足够小
+     */
+    private boolean isResting() {
+        return Math.abs(mVelocity[SCALE]) <= SCALE_THRESHOLD * Math.abs(mTarget[SCALE])
+                && Math.abs(mVelocity[ROTATION]) <= ROTATION_THRESHOLD
+                && Math.abs(mVelocity[CENTER_X]) <= POSITION_THRESHOLD
+                && Math.abs(mVelocity[CENTER_Y]) <= POSITION_THRESHOLD;
+    }
+
+    private void finish() {
+        System.arraycopy(mTarget, 0, mCurrent, 0, COMPONENT_COUNT);
+        for (int i = 0; i < COMPONENT_COUNT; i++) {
+            mVelocity[i] = 0f;
+        }
+        mRetargeted = false;
+        mRunning = false;
+    }
+
+    /**
+     * 将角度转换到(-180, 180]区间
+     */
+    static float wrapDegree(float degree) {
+        degree %= 360f;
+        if (degree > 180f) degree -= 360f;
+        else if (degree <= -180f) degree += 360f;
+        return degree;
+    }
+
+    public float getScale() {
+        return mCurrent[SCALE];
+    }
+
+    public float getRotation() {
+        return mCurrent[ROTATION];
+    }
+
+    public float getCenterX() {
+        return mCurrent[CENTER_X];
+    }
+
+    public float getCenterY() {
+        return mCurrent[CENTER_Y];
+    }
+
+    public float getTargetScale() {
+        return mTarget[SCALE];
+    }
+
+    public float getTargetRotation() {
+        return mTarget[ROTATION];
+    }
+
+    public float getTargetCenterX() {
+        return mTarget[CENTER_X];
+    }
+
+    public float getTargetCenterY() {
+        return mTarget[CENTER_Y];
+    }
+
+    /**
+     * @param spring true则使用弹簧动力学，false则按时长插值
+     */
+    public void setSpring(boolean spring) {
+        mSpring = spring;
+    }
+
+    /**
+     * @param duration 按时长插值时的动画时长，单位秒
+     */
+    public void setDuration(float duration) {
+        mDuration = duration;
+    }
+
+    /**
+     * @param stiffness 弹簧刚度，越大越快到达目标
+     */
+    public void setStiffness(float stiffness) {
+        mStiffness = stiffness;
+    }
+
+    /**
+     * @param dampingRatio 阻尼比，小于1时会在目标附近来回振动
+     */
+    public void setDampingRatio(float dampingRatio) {
+        mDampingRatio = dampingRatio;
+    }
+}
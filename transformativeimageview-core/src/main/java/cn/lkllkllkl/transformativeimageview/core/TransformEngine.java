@@ -0,0 +1,652 @@
+package cn.lkllkllkl.transformativeimageview.core;
+
+/**
+ * 图片旋转、缩放、平移及回弹的计算，与Android平台无关。
+ * <p>
+ * 坐标均为相对于View的坐标，图片原始区域为(0, 0, imageWidth, imageHeight)。
+ * 变换以复数z = scale * (cosθ + i·sinθ)和图片中心位置保存在基本类型字段中，
+ * 手势的缩放和旋转直接与z相乘，矩阵也直接由z构造，触摸过程中不需要任何三角函数；
+ * 缩放比例和旋转角度只在被读取时才由z求出，
+ * 矩阵和图片所在区域只在被读取且状态发生变化后才重新计算。
+ * 所有方法都不会分配对象，可以在每次触摸事件中调用
+ */
+public class TransformEngine {
+    public static final int HORIZONTAL = 0; // 图片水平
+    public static final int VERTICAL = 1; // 图片垂直
+    public static final int SCALE_BY_IMAGE_CENTER = 0; // 以图片中心为缩放中心
+    public static final int SCALE_BY_FINGER_MID_POINT = 1; // 以所有手指的中点为缩放中心
+    public static final float UNSPECIFIED_SCALE_FACTOR = -1f; // 未指定缩放比例
+    public static final int BLOCKED_X = 1; // x方向被边界挡住
+    public static final int BLOCKED_Y = 2; // y方向被边界挡住
+
+    private static final float MAX_SCALE_FACTOR = 2.0f; // 默认最大缩放比例为2
+    private static final float MIN_SCALE_FACTOR = 1.0f; // 默认最小缩放比例
+    private static final float INIT_SCALE_FACTOR = 1.2f; // 默认适应控件大小后的初始化缩放比例
+    private static final float BORDER_TOLERANCE = 0.5f; // 判断图片是否到达边界时允许的误差，单位像素
+
+    private float mImageWidth = 0f; // 图片原始宽度
+    private float mImageHeight = 0f; // 图片原始高度
+    private float mViewWidth = 0f;
+    private float mViewHeight = 0f;
+
+    // 变换的分量，唯一的状态来源
+    private float mA = 1f; // z的实部，scale * cos(θ)
+    private float mB = 0f; // z的虚部，scale * sin(θ)，顺时针为正
+    private float mCenterX = 0f; // 图片中心在控件中的x坐标
+    private float mCenterY = 0f; // 图片中心在控件中的y坐标
+    private int mVersion = 0; // 每次变换发生变化都会增加
+
+    // 由分量计算得出的缓存
+    private final Affine mMatrix = new Affine(); // 用于图片旋转、平移、缩放的矩阵
+    private final FloatRect mImageRect = new FloatRect(); // 图片变换后所在区域
+    private boolean mMatrixDirty = true; // mMatrix是否需要重新计算
+    private boolean mImageRectDirty = true; // mImageRect是否需要重新计算
+    private float mScaleFactor = 1.0f; // 当前的缩放倍数，即|z|
+    private float mRotation = 0f; // 当前旋转角度，即z的辐角，范围为(-180, 180]
+    private boolean mScaleDirty = false; // mScaleFactor是否需要重新计算
+    private boolean mRotationDirty = false; // mRotation是否需要重新计算
+
+    private float mMaxScaleFactor = MAX_SCALE_FACTOR; // 最大缩放比例
+    private float mMinScaleFactor = UNSPECIFIED_SCALE_FACTOR; // 此最小缩放比例优先级高于下面两个
+    private float mVerticalMinScaleFactor = MIN_SCALE_FACTOR; // 图片旋转90（或-90）度后的的最小缩放比例
+    private float mHorizontalMinScaleFactor = MIN_SCALE_FACTOR; // 图片最初的最小缩放比例
+    private int mScaleBy = SCALE_BY_IMAGE_CENTER;
+
+    /**
+     * 复制另一个引擎的全部状态
+     */
+    public void set(TransformEngine src) {
+        mImageWidth = src.mImageWidth;
+        mImageHeight = src.mImageHeight;
+        mViewWidth = src.mViewWidth;
+        mViewHeight = src.mViewHeight;
+        copyRotationScale(src, 1f);
+        mCenterX = src.mCenterX;
+        mCenterY = src.mCenterY;
+        mMaxScaleFactor = src.mMaxScaleFactor;
+        mMinScaleFactor = src.mMinScaleFactor;
+        mVerticalMinScaleFactor = src.mVerticalMinScaleFactor;
+        mHorizontalMinScaleFactor = src.mHorizontalMinScaleFactor;
+        mScaleBy = src.mScaleBy;
+        invalidate();
+    }
+
+    /**
+     * 设置图片原始大小和控件大小，并初始化图片位置和大小：
+     * 图片缩放到比适应控件大小稍大，并移动到控件中心
+     */
+    public void init(float imageWidth, float imageHeight, float viewWidth, float viewHeight) {
+        mImageWidth = imageWidth;
+        mImageHeight = imageHeight;
+        mViewWidth = viewWidth;
+        mViewHeight = viewHeight;
+
+        // 计算缩放比例，使图片适应控件大小
+        mHorizontalMinScaleFactor = Math.min(viewWidth / imageWidth, viewHeight / imageHeight);
+        mVerticalMinScaleFactor = Math.min(viewHeight / imageWidth, viewWidth / imageHeight);
+
+        // 初始图片缩放比例比最小缩放比例稍大，并移动到中心
+        setRotationScale(mHorizontalMinScaleFactor * INIT_SCALE_FACTOR, 0f);
+        mCenterX = viewWidth / 2;
+        mCenterY = viewHeight / 2;
+        invalidate();
+
+        // 如果用户有指定最小缩放比例则使用用户指定的
+        if (mMinScaleFactor != UNSPECIFIED_SCALE_FACTOR) {
+            mHorizontalMinScaleFactor = mMinScaleFactor;
+            mVerticalMinScaleFactor = mMinScaleFactor;
+        }
+    }
+
+    /**
+     * 控件大小发生变化时按比例重新映射当前变换，保留用户的缩放、旋转和平移：
+     * 缩放比例随适应控件大小的缩放比例等比变化，图片中心随控件宽高等比移动
+     */
+    public void resize(float viewWidth, float viewHeight) {
+        if (mViewWidth == viewWidth && mViewHeight == viewHeight) return;
+        if (mViewWidth <= 0f || mViewHeight <= 0f) {
+            init(mImageWidth, mImageHeight, viewWidth, viewHeight);
+            return;
+        }
+        float oldFitScale = Math.min(mViewWidth / mImageWidth, mViewHeight / mImageHeight);
+        float newFitScale = Math.min(viewWidth / mImageWidth, viewHeight / mImageHeight);
+        multiplyScale(newFitScale / oldFitScale);
+        mCenterX *= viewWidth / mViewWidth;
+        mCenterY *= viewHeight / mViewHeight;
+        mViewWidth = viewWidth;
+        mViewHeight = viewHeight;
+        if (mMinScaleFactor == UNSPECIFIED_SCALE_FACTOR) {
+            mHorizontalMinScaleFactor = newFitScale;
+            mVerticalMinScaleFactor = Math.min(viewHeight / mImageWidth, viewWidth / mImageHeight);
+        }
+        invalidate();
+    }
+
+    public void translate(float dx, float dy) {
+        if (dx == 0f && dy == 0f) return;
+        mCenterX += dx;
+        mCenterY += dy;
+        invalidate();
+    }
+
+    /**
+     * 缩放图片，缩放中心由{@link #setScaleBy(int)}决定
+     *
+     * @param scaleFactor 相对当前大小的缩放比例
+     * @param midX 所有手指中点的x坐标
+     * @param midY 所有手指中点的y坐标
+     */
+    public void scale(float scaleFactor, float midX, float midY) {
+        if (mScaleBy == SCALE_BY_FINGER_MID_POINT) {
+            scaleAt(scaleFactor, midX, midY);
+        } else {
+            scaleAt(scaleFactor, mCenterX, mCenterY);
+        }
+    }
+
+    /**
+     * 以(px, py)为中心缩放，图片中心到缩放中心的距离同比例变化
+     */
+    private void scaleAt(float scaleFactor, float px, float py) {
+        if (scaleFactor == 1f) return;
+        multiplyScale(scaleFactor);
+        mCenterX = px + (mCenterX - px) * scaleFactor;
+        mCenterY = py + (mCenterY - py) * scaleFactor;
+        invalidate();
+    }
+
+    /**
+     * 按一次手势的增量同时平移、缩放、旋转图片：先平移(dx, dy)，再以(px, py)为中心乘以复数a + bi，
+     * 即缩放|a + bi|倍并旋转其辐角。缩放中心为图片中心时忽略(px, py)，改为以图片中心为中心。
+     * 图片中心的位置和z都直接由复数乘法计算，不需要三角函数和开方
+     *
+     * @param a 相似变换中的a = scale * cos(θ)
+     * @param b 相似变换中的b = scale * sin(θ)，顺时针为正
+     * @param px 所有手指中点的x坐标
+     * @param py 所有手指中点的y坐标
+     */
+    public void transformBy(float a, float b, float px, float py, float dx, float dy) {
+        if (a == 1f && b == 0f && dx == 0f && dy == 0f) return;
+        mCenterX += dx;
+        mCenterY += dy;
+        if (mScaleBy != SCALE_BY_FINGER_MID_POINT) {
+            px = mCenterX;
+            py = mCenterY;
+        }
+        float x = mCenterX - px;
+        float y = mCenterY - py;
+        mCenterX = px + a * x - b * y;
+        mCenterY = py + b * x + a * y;
+        if (b == 0f && a > 0f) {
+            // 没有旋转
+            multiplyScale(a);
+        } else {
+            float za = mA;
+            mA = za * a - mB * b;
+            mB = za * b + mB * a;
+            mScaleDirty = true;
+            mRotationDirty = true;
+        }
+        invalidate();
+    }
+
+    /**
+     * 以图片中心为中心旋转图片
+     *
+     * @param degree 旋转角度，单位“度”，顺时针为正
+     */
+    public void rotate(float degree) {
+        if (degree == 0f) return;
+        double rad = Math.toRadians(degree);
+        float cos = (float) Math.cos(rad);
+        float sin = (float) Math.sin(rad);
+        float za = mA;
+        mA = za * cos - mB * sin;
+        mB = za * sin + mB * cos;
+        if (!mRotationDirty) mRotation = TransformAnimation.wrapDegree(mRotation + degree);
+        invalidate();
+    }
+
+    /**
+     * 使用Math#atan2(double y, double x)方法求上次触摸事件两指所示向量与x轴的夹角，
+     * 再求出本次触摸事件两指所示向量与x轴夹角，最后求出两角之差即为图片需要转过的角度
+     *
+     * @return 两向量夹角，单位“度”，顺时针旋转时为正数，逆时针旋转时返回负数
+     */
+    public static float getRotateDegree(float lastX, float lastY, float currentX, float currentY) {
+        //上次触摸事件向量与x轴夹角
+        double lastRad = Math.atan2(lastY, lastX);
+        //当前触摸事件向量与x轴夹角
+        double currentRad = Math.atan2(currentY, currentX);
+        // 两向量与x轴夹角之差即为需要旋转的角度
+        double rad = currentRad - lastRad;
+        //“弧度”转“度”
+        return (float) Math.toDegrees(rad);
+    }
+
+    /**
+     * 获取两点间距离
+     */
+    public static float distance(float x1, float y1, float x2, float y2) {
+        float dx = x2 - x1;
+        float dy = y2 - y1;
+        return (float) Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * 获取当前图片旋转角度，z变化后第一次读取时才重新计算
+     * @return 图片当前的旋转角度，范围为(-180, 180]
+     */
+    public float getCurrentRotateDegree() {
+        if (mRotationDirty) {
+            mRotation = TransformAnimation.wrapDegree((float) Math.toDegrees(Math.atan2(mB, mA)));
+            mRotationDirty = false;
+        }
+        return mRotation;
+    }
+
+    /**
+     * 根据当前图片旋转的角度，判断是否回弹
+     */
+    public void checkRotation() {
+        float currentDegree = getCurrentRotateDegree();
+        float degree = currentDegree;
+        // 根据当前图片旋转的角度值所在区间，判断要转到几度
+        degree = Math.abs(degree);
+        if (degree > 45 && degree <= 135) {
+            degree = 90;
+        } else if (degree > 135 && degree <= 225) {
+            degree = 180;
+        } else if (degree > 225 && degree <= 315) {
+            degree = 270;
+        } else {
+            degree = 0;
+        }
+        // 判断顺时针还是逆时针旋转
+        degree = currentDegree < 0 ? -degree : degree;
+        rotate(degree - currentDegree);
+    }
+
+    /**
+     * 检查图片缩放比例是否超过设置的大小
+     *
+     * @param midX 最后一次触摸事件所有手指中点的x坐标
+     * @param midY 最后一次触摸事件所有手指中点的y坐标
+     */
+    public void checkScale(float midX, float midY) {
+        float scaleFactor = 1.0f;
+        float currentScale = getScaleFactor();
+
+        // 获取图片当前是水平还是垂直
+        int imgOrientation = imgOrientation();
+        // 超过设置的上限或下限则回弹到设置的限制值
+        // 除以当前图片缩放比例currentScale，缩放后的图片的缩放比例即为被除数大小
+        if (imgOrientation == HORIZONTAL
+                && currentScale < mHorizontalMinScaleFactor) {
+            scaleFactor = mHorizontalMinScaleFactor / currentScale;
+        } else if (imgOrientation == VERTICAL
+                && currentScale < mVerticalMinScaleFactor) {
+            scaleFactor = mVerticalMinScaleFactor / currentScale;
+        } else if (currentScale > mMaxScaleFactor) {
+            scaleFactor = mMaxScaleFactor / currentScale;
+        }
+
+        scale(scaleFactor, midX, midY);
+    }
+
+    /**
+     * 判断图片当前是水平还是垂直
+     * @return 水平则返回 {@code HORIZONTAL}，垂直则返回 {@code VERTICAL}
+     */
+    public int imgOrientation() {
+        float degree = Math.abs(getCurrentRotateDegree());
+        int orientation = HORIZONTAL;
+        if (degree > 45f && degree <= 135f) {
+            orientation = VERTICAL;
+        }
+        return orientation;
+    }
+
+    /**
+     * 将图片移回控件中心
+     */
+    public void checkBorder() {
+        translate(getBorderOffsetX(), getBorderOffsetY());
+    }
+
+    /**
+     * 平移图片但不越过{@link #checkBorder()}的边界，用于惯性滑动：
+     * 平移前在边界内的方向最多移动到边界上；
+     * 平移前已在边界外的方向（如未开启平移回弹时拖出的图片）不再继续远离，靠近边界的平移保留
+     *
+     * @return 被边界挡住的方向，{@link #BLOCKED_X}、{@link #BLOCKED_Y}的组合，都没有时为0
+     */
+    public int translateWithinBorder(float dx, float dy) {
+        float beforeX = getBorderOffsetX();
+        float beforeY = getBorderOffsetY();
+        translate(dx, dy);
+        float correctionX = borderCorrection(beforeX, getBorderOffsetX());
+        float correctionY = borderCorrection(beforeY, getBorderOffsetY());
+        translate(correctionX, correctionY);
+        int blocked = 0;
+        if (correctionX != 0f) blocked |= BLOCKED_X;
+        if (correctionY != 0f) blocked |= BLOCKED_Y;
+        return blocked;
+    }
+
+    /**
+     * @param before 平移前回到边界内需要的位移
+     * @param after 平移后回到边界内需要的位移
+     * @return 为不越过边界需要追加的位移，不需要时为0
+     */
+    private static float borderCorrection(float before, float after) {
+        if (after == 0f) return 0f;
+        // 从边界内或从另一侧越过边界，停在边界上
+        if (before == 0f || (before > 0f) != (after > 0f)) return after;
+        // 已在边界外，远离边界时撤销这次平移
+        return Math.abs(after) > Math.abs(before) ? after - before : 0f;
+    }
+
+    /**
+     * 依次进行旋转、缩放、平移回弹，变换直接变为回弹后的结果。
+     * 旋转和缩放会影响图片所在区域，进而影响平移回弹，所以顺序不能改变
+     *
+     * @param rotation 是否旋转回弹
+     * @param scale 是否缩放回弹
+     * @param border 是否平移回弹
+     * @param midX 最后一次触摸事件所有手指中点的x坐标
+     * @param midY 最后一次触摸事件所有手指中点的y坐标
+     */
+    public void revert(boolean rotation, boolean scale, boolean border, float midX, float midY) {
+        if (rotation) checkRotation();
+        if (scale) checkScale(midX, midY);
+        if (border) checkBorder();
+    }
+
+    /**
+     * 计算x方向需要移动多少才能使图片与控件之间没有白边
+     *
+     * @return x方向的位移，不需要移动时为0
+     */
+    public float getBorderOffsetX() {
+        FloatRect imageRect = getImageRect();
+        // mImageRect中的坐标值为相对View的值
+        // 图片宽大于控件时图片与控件之间不能有白边
+        if (imageRect.width() > mViewWidth) {
+            if (imageRect.left > 0) {/*判断图片左边界与控件之间是否有空隙*/
+                return -imageRect.left;
+            } else if (imageRect.right < mViewWidth) {/*判断图片右边界与控件之间是否有空隙*/
+                return mViewWidth - imageRect.right;
+            }
+            return 0f;
+        }
+        /*宽小于控件则移动到中心*/
+        return mViewWidth / 2 - mCenterX;
+    }
+
+    /**
+     * 计算y方向需要移动多少才能使图片与控件之间没有白边
+     *
+     * @return y方向的位移，不需要移动时为0
+     */
+    public float getBorderOffsetY() {
+        FloatRect imageRect = getImageRect();
+        // 图片高大于控件时图片与控件之间不能有白边
+        if (imageRect.height() > mViewHeight) {
+            if (imageRect.top > 0) {/*判断图片上边界与控件之间是否有空隙*/
+                return -imageRect.top;
+            } else if (imageRect.bottom < mViewHeight) {/*判断图片下边界与控件之间是否有空隙*/
+                return mViewHeight - imageRect.bottom;
+            }
+            return 0f;
+        }
+        /*高小于控件则移动到中心*/
+        return mViewHeight / 2 - mCenterY;
+    }
+
+    /**
+     * 判断图片在水平方向上是否还能拖动，即图片在该方向上是否超出控件边界，
+     * 含义与{@code View#canScrollHorizontally(int)}相同
+     *
+     * @param direction 负数表示检查能否向左拖动（图片左边还有内容），正数表示检查能否向右
+     */
+    public boolean canScrollHorizontally(int direction) {
+        FloatRect imageRect = getImageRect();
+        if (direction < 0) return imageRect.left < -BORDER_TOLERANCE;
+        return imageRect.right > mViewWidth + BORDER_TOLERANCE;
+    }
+
+    /**
+     * 判断图片在竖直方向上是否还能拖动，含义与{@code View#canScrollVertically(int)}相同
+     *
+     * @param direction 负数表示检查图片上边是否还有内容，正数表示检查下边
+     */
+    public boolean canScrollVertically(int direction) {
+        FloatRect imageRect = getImageRect();
+        if (direction < 0) return imageRect.top < -BORDER_TOLERANCE;
+        return imageRect.bottom > mViewHeight + BORDER_TOLERANCE;
+    }
+
+    /**
+     * 变换发生变化，矩阵和图片所在区域需要重新计算
+     */
+    private void invalidate() {
+        mMatrixDirty = true;
+        mImageRectDirty = true;
+        mVersion++;
+    }
+
+    /**
+     * 由缩放比例和旋转角度设置z，同时更新两者的缓存
+     */
+    private void setRotationScale(float scale, float degrees) {
+        double rad = Math.toRadians(degrees);
+        mA = scale * (float) Math.cos(rad);
+        mB = scale * (float) Math.sin(rad);
+        mScaleFactor = scale;
+        mRotation = TransformAnimation.wrapDegree(degrees);
+        mScaleDirty = false;
+        mRotationDirty = false;
+    }
+
+    /**
+     * z乘以正实数，旋转角度不变，缩放比例的缓存直接同比例变化
+     */
+    private void multiplyScale(float scaleFactor) {
+        mA *= scaleFactor;
+        mB *= scaleFactor;
+        mScaleFactor *= scaleFactor;
+    }
+
+    /**
+     * 复制另一个引擎的z及其缓存，并乘以正实数scaleFactor
+     */
+    private void copyRotationScale(TransformEngine src, float scaleFactor) {
+        mA = src.mA * scaleFactor;
+        mB = src.mB * scaleFactor;
+        mScaleFactor = src.mScaleFactor * scaleFactor;
+        mRotation = src.mRotation;
+        mScaleDirty = src.mScaleDirty;
+        mRotationDirty = src.mRotationDirty;
+    }
+
+    /**
+     * 以分解后的形式设置变换，用于按分量插值的动画
+     *
+     * @param scale 缩放比例
+     * @param degrees 旋转角度，单位“度”
+     * @param centerX 图片中心在控件中的x坐标
+     * @param centerY 图片中心在控件中的y坐标
+     */
+    public void setTransform(float scale, float degrees, float centerX, float centerY) {
+        setRotationScale(scale, degrees);
+        mCenterX = centerX;
+        mCenterY = centerY;
+        invalidate();
+    }
+
+    /**
+     * 把另一个引擎的变换同步到此引擎，用于多个控件联动显示
+     *
+     * @param normalize 为true时按相对量同步：缩放比例相对于各自适应控件大小的缩放比例，
+     *                  图片中心按控件宽高等比映射，与{@link #resize(float, float)}的规则相同，
+     *                  适用于大小不同的图片；为false时使用完全相同的缩放比例、旋转角度和位置
+     */
+    public void setTransform(TransformEngine src, boolean normalize) {
+        if (!normalize || src.mViewWidth <= 0f || src.mViewHeight <= 0f
+                || mViewWidth <= 0f || mViewHeight <= 0f) {
+            copyRotationScale(src, 1f);
+            mCenterX = src.mCenterX;
+            mCenterY = src.mCenterY;
+        } else {
+            copyRotationScale(src, getFitScale() / src.getFitScale());
+            mCenterX = src.mCenterX / src.mViewWidth * mViewWidth;
+            mCenterY = src.mCenterY / src.mViewHeight * mViewHeight;
+        }
+        invalidate();
+    }
+
+    /**
+     * @return 图片完整显示在控件中时的缩放比例
+     */
+    public float getFitScale() {
+        return Math.min(mViewWidth / mImageWidth, mViewHeight / mImageHeight);
+    }
+
+    /**
+     * @return 图片中心在控件中的x坐标
+     */
+    public float getImageCenterX() {
+        return mCenterX;
+    }
+
+    /**
+     * @return 图片中心在控件中的y坐标
+     */
+    public float getImageCenterY() {
+        return mCenterY;
+    }
+
+    /**
+     * 直接设置矩阵的值，矩阵应为不含错切的相似变换
+     *
+     * @see Affine#setValues(float[])
+     */
+    public void setMatrixValues(float[] values) {
+        float scaleX = values[Affine.MSCALE_X];
+        float skewY = values[Affine.MSKEW_Y];
+        float halfWidth = mImageWidth / 2;
+        float halfHeight = mImageHeight / 2;
+        mA = scaleX;
+        mB = skewY;
+        mScaleDirty = true;
+        mRotationDirty = true;
+        mCenterX = scaleX * halfWidth + values[Affine.MSKEW_X] * halfHeight + values[Affine.MTRANS_X];
+        mCenterY = skewY * halfWidth + values[Affine.MSCALE_Y] * halfHeight + values[Affine.MTRANS_Y];
+        invalidate();
+    }
+
+    /**
+     * @see Affine#getValues(float[])
+     */
+    public void getMatrixValues(float[] values) {
+        getMatrix().getValues(values);
+    }
+
+    /**
+     * @return 当前矩阵，状态变化后才重新计算，不应直接修改
+     */
+    public Affine getMatrix() {
+        if (mMatrixDirty) {
+            float cos = mA;
+            float sin = mB;
+            float halfWidth = mImageWidth / 2;
+            float halfHeight = mImageHeight / 2;
+            mMatrix.setValues(cos, -sin, mCenterX - (cos * halfWidth - sin * halfHeight),
+                    sin, cos, mCenterY - (sin * halfWidth + cos * halfHeight));
+            mMatrixDirty = false;
+        }
+        return mMatrix;
+    }
+
+    /**
+     * @return 图片变换后所在区域，状态变化后才重新计算，不应直接修改
+     */
+    public FloatRect getImageRect() {
+        if (mImageRectDirty) {
+            // 旋转后图片外接矩形的半宽、半高
+            float cos = Math.abs(mA);
+            float sin = Math.abs(mB);
+            float halfWidth = (cos * mImageWidth + sin * mImageHeight) / 2;
+            float halfHeight = (sin * mImageWidth + cos * mImageHeight) / 2;
+            mImageRect.set(mCenterX - halfWidth, mCenterY - halfHeight,
+                    mCenterX + halfWidth, mCenterY + halfHeight);
+            mImageRectDirty = false;
+        }
+        return mImageRect;
+    }
+
+    /**
+     * @return 变换的版本号，每次变换发生变化都会增加，可用于判断变换是否变化
+     */
+    public int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * @return 当前的缩放比例，z变化后第一次读取时才重新计算
+     */
+    public float getScaleFactor() {
+        if (mScaleDirty) {
+            mScaleFactor = (float) Math.sqrt(mA * mA + mB * mB);
+            mScaleDirty = false;
+        }
+        return mScaleFactor;
+    }
+
+    public float getImageWidth() {
+        return mImageWidth;
+    }
+
+    public float getImageHeight() {
+        return mImageHeight;
+    }
+
+    public float getViewWidth() {
+        return mViewWidth;
+    }
+
+    public float getViewHeight() {
+        return mViewHeight;
+    }
+
+    public void setMaxScaleFactor(float maxScaleFactor) {
+        mMaxScaleFactor = maxScaleFactor;
+    }
+
+    public float getMaxScaleFactor() {
+        return mMaxScaleFactor;
+    }
+
+    /**
+     * @param minScaleFactor 最小缩放比例，为{@link #UNSPECIFIED_SCALE_FACTOR}时使用适应控件大小的缩放比例
+     */
+    public void setMinScaleFactor(float minScaleFactor) {
+        mMinScaleFactor = minScaleFactor;
+    }
+
+    public float getMinScaleFactor() {
+        return mMinScaleFactor;
+    }
+
+    /**
+     * @param scaleBy {@link #SCALE_BY_IMAGE_CENTER}或{@link #SCALE_BY_FINGER_MID_POINT}
+     */
+    public void setScaleBy(int scaleBy) {
+        mScaleBy = scaleBy;
+    }
+
+    public int getScaleBy() {
+        return mScaleBy;
+    }
+}
@@ -0,0 +1,125 @@
+package cn.lkllkllkl.transformativeimageview.core;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * 按条目id缓存图片变换状态的LRU缓存，用于相册、翻页等同一个控件反复显示不同图片的场景，与Android平台无关。
+ * <p>
+ * 每个条目只保存变换的分量以及保存时的图片和控件大小，恢复时图片大小一致才生效，
+ * 控件大小不同时按{@link TransformEngine#resize(float, float)}的规则等比映射。
+ * 条目数超过上限时淘汰最久未访问的条目，被淘汰的对象直接用于新条目。非线程安全
+ */
+public class TransformStateCache {
+    private final LinkedHashMap<Long, State> mEntries =
+            new LinkedHashMap<>(16, 0.75f, true); // 按访问顺序排列，最早访问的在前
+    private final int mMaxSize; // 最多缓存的条目数
+
+    private int mHitCount = 0;
+    private int mMissCount = 0;
+
+    /**
+     * 一个条目的变换状态
+     */
+    private static class State {
+        float imageWidth;
+        float imageHeight;
+        float viewWidth;
+        float viewHeight;
+        float scale;
+        float rotation;
+        float centerX;
+        float centerY;
+    }
+
+    /**
+     * @param maxSize 最多缓存的条目数
+     */
+    public TransformStateCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * 保存引擎当前的变换状态
+     */
+    public void put(long key, TransformEngine engine) {
+        put(key, engine, engine.getScaleFactor(), engine.getCurrentRotateDegree(),
+                engine.getImageCenterX(), engine.getImageCenterY());
+    }
+
+    /**
+     * 以指定的变换分量保存状态，如回弹动画进行中保存动画的结束值
+     *
+     * @param engine 提供图片和控件大小
+     */
+    public void put(long key, TransformEngine engine, float scale, float rotation,
+                    float centerX, float centerY) {
+        State state = mEntries.get(key);
+        if (state == null) {
+            if (mEntries.size() >= mMaxSize) {
+                // 淘汰最久未访问的条目，复用其对象
+                Iterator<State> iterator = mEntries.values().iterator();
+                state = iterator.next();
+                iterator.remove();
+            } else {
+                state = new State();
+            }
+            mEntries.put(key, state);
+        }
+        state.imageWidth = engine.getImageWidth();
+        state.imageHeight = engine.getImageHeight();
+        state.viewWidth = engine.getViewWidth();
+        state.viewHeight = engine.getViewHeight();
+        state.scale = scale;
+        state.rotation = rotation;
+        state.centerX = centerX;
+        state.centerY = centerY;
+    }
+
+    /**
+     * 恢复保存的变换状态：图片大小与保存时一致才恢复，控件大小不同时等比映射
+     *
+     * @return 是否恢复成功，失败时engine不变
+     */
+    public boolean restore(long key, TransformEngine engine, float imageWidth, float imageHeight,
+                           float viewWidth, float viewHeight) {
+        State state = mEntries.get(key);
+        if (state == null || state.imageWidth != imageWidth || state.imageHeight != imageHeight) {
+            mMissCount++;
+            return false;
+        }
+        mHitCount++;
+        // 先按保存时的控件大小恢复变换，再按比例映射到当前控件大小
+        engine.init(imageWidth, imageHeight, state.viewWidth, state.viewHeight);
+        engine.setTransform(state.scale, state.rotation, state.centerX, state.centerY);
+        engine.resize(viewWidth, viewHeight);
+        return true;
+    }
+
+    public void remove(long key) {
+        mEntries.remove(key);
+    }
+
+    public void clear() {
+        mEntries.clear();
+    }
+
+    public int size() {
+        return mEntries.size();
+    }
+
+    public int getMaxSize() {
+        return mMaxSize;
+    }
+
+    public int getHitCount() {
+        return mHitCount;
+    }
+
+    public int getMissCount() {
+        return mMissCount;
+    }
+}
@@ -0,0 +1,95 @@
+package cn.lkllkllkl.transformativeimageview.core;
+
+/**
+ * 根据可见区域的变化估计平移和缩放速度，预测一段时间后的可见区域，用于提前解码图块，与Android平台无关。
+ * <p>
+ * 平移速度为可见区域中心在图片原始坐标中的移动速度，缩放速度为缩放比例对数的变化速度，
+ * 都按相邻两次更新的差值估计并做指数平滑。间隔太久的更新视为新的一次移动，速度从0开始估计。
+ * 不会分配对象，非线程安全
+ */
+public class ViewportPredictor {
+    private static final float SMOOTHING = 0.5f; // 新速度的权重
+    private static final long MIN_SAMPLE_INTERVAL = 4; // 小于此间隔（毫秒）的更新合并到下一次
+    private static final long MAX_SAMPLE_INTERVAL = 100; // 超过此间隔（毫秒）则认为已停止过
+    private static final float MAX_SCALE_CHANGE = 2f; // 预测的缩放比例最多变化的倍数
+
+    private long mLastTime = -1; // 上一次采样的时间，-1表示没有
+    private float mLastCenterX;
+    private float mLastCenterY;
+    private float mLastScale;
+    private float mVelocityX; // 单位为图片原始坐标每毫秒
+    private float mVelocityY;
+    private float mScaleVelocity; // 缩放比例自然对数每毫秒的变化
+
+    /**
+     * 记录一次可见区域
+     *
+     * @param time 时间，单位毫秒
+     * @param scale 缩放比例
+     */
+    public void update(long time, float left, float top, float right, float bottom, float scale) {
+        float centerX = (left + right) * 0.5f;
+        float centerY = (top + bottom) * 0.5f;
+        long interval = time - mLastTime;
+        if (mLastTime < 0 || interval > MAX_SAMPLE_INTERVAL || scale <= 0f || mLastScale <= 0f) {
+            mVelocityX = 0f;
+            mVelocityY = 0f;
+            mScaleVelocity = 0f;
+        } else if (interval < MIN_SAMPLE_INTERVAL) {
+            // 同一帧内的多次更新，保留上一次采样，位移累积到下一次
+            return;
+        } else {
+            float vx = (centerX - mLastCenterX) / interval;
+            float vy = (centerY - mLastCenterY) / interval;
+            float vs = (float) Math.log(scale / mLastScale) / interval;
+            mVelocityX += (vx - mVelocityX) * SMOOTHING;
+            mVelocityY += (vy - mVelocityY) * SMOOTHING;
+            mScaleVelocity += (vs - mScaleVelocity) * SMOOTHING;
+        }
+        mLastTime = time;
+        mLastCenterX = centerX;
+        mLastCenterY = centerY;
+        mLastScale = scale;
+    }
+
+    /**
+     * 以当前速度预测一段时间后的可见区域：中心按平移速度移动，大小随缩放比例反向变化
+     *
+     * @param ahead 预测的时长，单位毫秒
+     * @param out 预测的可见区域
+     * @return 预测的缩放比例
+     */
+    public float predict(long ahead, float left, float top, float right, float bottom,
+                         float scale, FloatRect out) {
+        float scaleChange = (float) Math.exp(mScaleVelocity * ahead);
+        scaleChange = Math.max(1f / MAX_SCALE_CHANGE, Math.min(scaleChange, MAX_SCALE_CHANGE));
+        float centerX = (left + right) * 0.5f + mVelocityX * ahead;
+        float centerY = (top + bottom) * 0.5f + mVelocityY * ahead;
+        float halfWidth = (right - left) * 0.5f / scaleChange;
+        float halfHeight = (bottom - top) * 0.5f / scaleChange;
+        out.set(centerX - halfWidth, centerY - halfHeight, centerX + halfWidth, centerY + halfHeight);
+        return scale * scaleChange;
+    }
+
+    /**
+     * 清除速度，下一次更新重新开始估计
+     */
+    public void reset() {
+        mLastTime = -1;
+        mVelocityX = 0f;
+        mVelocityY = 0f;
+        mScaleVelocity = 0f;
+    }
+
+    public float getVelocityX() {
+        return mVelocityX;
+    }
+
+    public float getVelocityY() {
+        return mVelocityY;
+    }
+
+    public float getScaleVelocity() {
+        return mScaleVelocity;
+    }
+}
@@ -0,0 +1,66 @@
+package cn.lkllkllkl.transformativeimageview.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FlingTest {
+    private static final float DELTA = 1e-3f;
+    private static final float FRICTION = 4f;
+    private static final float MIN_VELOCITY = 20f;
+
+    @Test
+    public void step_travelsInitialVelocityOverFriction() throws Exception {
+        Fling fling = new Fling();
+        fling.setFriction(FRICTION);
+        fling.setMinVelocity(MIN_VELOCITY);
+        fling.start(2000f, -1000f);
+        float x = 0f;
+        float y = 0f;
+        while (fling.step(1 / 60f)) {
+            x += fling.getDx();
+            y += fling.getDy();
+        }
+        // 总位移为v / k，停止时剩余的速度最多少走MIN_VELOCITY / k
+        assertEquals(2000f / FRICTION, x, MIN_VELOCITY / FRICTION);
+        assertEquals(-1000f / FRICTION, y, MIN_VELOCITY / FRICTION);
+        assertTrue(fling.isFinished());
+    }
+
+    @Test
+    public void step_isExactForAnyFrameInterval() throws Exception {
+        Fling whole = new Fling();
+        whole.setFriction(FRICTION);
+        whole.start(1000f, 0f);
+        whole.step(0.5f);
+
+        Fling split = new Fling();
+        split.setFriction(FRICTION);
+        split.start(1000f, 0f);
+        split.step(0.2f);
+        float x = split.getDx();
+        split.step(0.3f);
+        x += split.getDx();
+
+        float expected = 1000f / FRICTION * (1f - (float) Math.exp(-FRICTION * 0.5f));
+        assertEquals(expected, whole.getDx(), DELTA);
+        assertEquals(expected, x, DELTA);
+    }
+
+    @Test
+    public void stopX_keepsOtherAxisMoving() throws Exception {
+        Fling stopped = new Fling();
+        Fling free = new Fling();
+        stopped.start(1500f, 800f);
+        free.start(1500f, 800f);
+        stopped.step(0.016f);
+        free.step(0.016f);
+
+        stopped.stopX();
+        assertFalse(stopped.isFinished());
+        stopped.step(0.016f);
+        free.step(0.016f);
+        assertEquals(0f, stopped.getDx(), 0f);
+        assertEquals(free.getDy(), stopped.getDy(), 0f);
+    }
+}
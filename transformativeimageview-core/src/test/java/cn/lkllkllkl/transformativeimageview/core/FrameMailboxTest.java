@@ -0,0 +1,29 @@
+package cn.lkllkllkl.transformativeimageview.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrameMailboxTest {
+    @Test
+    public void post_keepsOnlyLatestFrame() throws Exception {
+        FrameMailbox<float[]> mailbox = new FrameMailbox<>();
+        assertNull(mailbox.obtain());
+        assertNull(mailbox.take());
+
+        float[] first = {1f};
+        float[] second = {2f};
+        assertNull(mailbox.post(first));
+        // 未消费的旧帧退还给生产者
+        assertSame(first, mailbox.post(second));
+        assertTrue(mailbox.hasPending());
+        assertSame(second, mailbox.take());
+        assertNull(mailbox.take());
+
+        // 处理完的帧回收后由生产者重新使用，空闲槽位只保留一个
+        assertTrue(mailbox.recycle(second));
+        assertFalse(mailbox.recycle(first));
+        assertSame(second, mailbox.obtain());
+        assertNull(mailbox.obtain());
+    }
+}
@@ -0,0 +1,115 @@
+package cn.lkllkllkl.transformativeimageview.core;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * 回放录制的触摸轨迹：ACTION_MOVE不能分配内存，最终矩阵必须与golden文件一致。
+ * 新增轨迹时把.trace文件放到resources/traces中，用GestureReplay的命令行生成对应的.golden文件
+ */
+public class GestureReplayTest {
+    private static final String[] TRACES = {"pinch_rotate", "three_finger_handoff"};
+
+    @Test
+    public void replay_matchesGoldenWithoutAllocation() throws Exception {
+        for (String name : TRACES) {
+            GestureReplay replay = new GestureReplay(readTrace(name));
+            // 预热，排除类加载和JIT编译的影响
+            for (int i = 0; i < 20; i++) {
+                replay.replay();
+            }
+            GestureReplay.Result result = replay.replay();
+            assertTrue(name + " has no move events", result.getMoveCount() > 0);
+            if (result.isAllocationSupported()) {
+                assertEquals(name + " allocated during ACTION_MOVE", 0L,
+                        result.getMaxMoveAllocatedBytes());
+            }
+            assertArrayEquals(name + " final matrix", readGolden(name), result.getMatrix(),
+                    GestureReplay.GOLDEN_TOLERANCE);
+        }
+    }
+
+    @Test
+    public void replay_skipsHistoricalSamplesUnlessCoalesced() throws Exception {
+        // 同一个三指手势，分别按不合并和合并触摸事件录制
+        GestureTrace plain = GestureTrace.read(new ByteArrayInputStream(writeThreeFingerTrace(false)));
+        byte[] coalescedBytes = writeThreeFingerTrace(true);
+        GestureTrace coalesced = GestureTrace.read(new ByteArrayInputStream(coalescedBytes));
+        // 版本2的轨迹总是记录历史触点，回放时应按默认配置跳过
+        byte[] legacyBytes = coalescedBytes.clone();
+        legacyBytes[4] = 2;
+        GestureTrace legacy = GestureTrace.read(new ByteArrayInputStream(legacyBytes));
+
+        GestureReplay.Result plainResult = new GestureReplay(plain).replay();
+        GestureReplay.Result legacyResult = new GestureReplay(legacy).replay();
+        GestureReplay.Result coalescedResult = new GestureReplay(coalesced).replay();
+        assertTrue(coalesced.getRecordCount() > plain.getRecordCount());
+        assertEquals(plainResult.getMoveCount(), legacyResult.getMoveCount());
+        assertEquals(plainResult.getMoveCount(), coalescedResult.getMoveCount());
+        assertArrayEquals(plainResult.getMatrix(), legacyResult.getMatrix(), 0f);
+        // 三指的最小二乘变换不能逐步叠加，处理历史触点后结果不同
+        assertFalse(Arrays.equals(plainResult.getMatrix(), coalescedResult.getMatrix()));
+    }
+
+    /**
+     * 写入一个三指手势：三根手指依次落下后各自向不同方向移动，每个ACTION_MOVE带3个历史触点
+     *
+     * @param historical 是否记录历史触点，即控件是否合并触摸事件
+     */
+    private byte[] writeThreeFingerTrace(boolean historical) throws IOException {
+        TransformEngine engine = new TransformEngine();
+        engine.init(400, 300, 800, 1200);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GestureTraceWriter writer = new GestureTraceWriter(out);
+        writer.writeHeader(engine, false, false, false);
+        writer.writeSync(0, engine);
+        int[] ids = {0, 1, 2};
+        float[] xs = {300f, 500f, 400f};
+        float[] ys = {500f, 500f, 700f};
+        writer.writeSample(GestureTrace.ACTION_DOWN, false, 0, 0, 1, ids, xs, ys);
+        writer.writeSample(GestureTrace.ACTION_POINTER_DOWN, false, 10, 1, 2, ids, xs, ys);
+        writer.writeSample(GestureTrace.ACTION_POINTER_DOWN, false, 20, 2, 3, ids, xs, ys);
+        long time = 20;
+        for (int event = 0; event < 5; event++) {
+            for (int sample = 0; sample < 4; sample++) {
+                time += 4;
+                xs[0] -= 6f;
+                ys[0] -= 2f;
+                xs[1] += 9f;
+                ys[1] += 5f;
+                xs[2] += 1f;
+                ys[2] += 12f;
+                boolean isHistorical = sample < 3;
+                if (isHistorical && !historical) continue;
+                writer.writeSample(GestureTrace.ACTION_MOVE, isHistorical, time, 0, 3, ids, xs, ys);
+            }
+        }
+        writer.close();
+        return out.toByteArray();
+    }
+
+    private GestureTrace readTrace(String name) throws IOException {
+        InputStream in = getClass().getResourceAsStream("/traces/" + name + ".trace");
+        try {
+            return GestureTrace.read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private float[] readGolden(String name) throws IOException {
+        InputStream in = getClass().getResourceAsStream("/traces/" + name + ".golden");
+        try {
+            return GestureReplay.readGolden(in);
+        } finally {
+            in.close();
+        }
+    }
+}
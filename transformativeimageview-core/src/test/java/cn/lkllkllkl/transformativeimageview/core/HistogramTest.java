@@ -0,0 +1,22 @@
+package cn.lkllkllkl.transformativeimageview.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HistogramTest {
+    @Test
+    public void percentile_returnsBucketUpperBound() throws Exception {
+        Histogram histogram = new Histogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(1500L); // 1.5us，落在[1, 2)us的桶中
+        }
+        histogram.record(3000000L);
+        assertEquals(100, histogram.getCount());
+        assertEquals(2000L, histogram.getPercentile(50));
+        assertEquals(3000000L, histogram.getPercentile(100));
+        assertEquals(1500L, histogram.getMin());
+        histogram.reset();
+        assertEquals(0L, histogram.getPercentile(50));
+    }
+}
@@ -0,0 +1,78 @@
+package cn.lkllkllkl.transformativeimageview.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SpatialGridTest {
+    private static final int COUNT = 10000;
+
+    private SpatialGrid mGrid;
+    private float[] mBounds;
+
+    @Before
+    public void setUp() throws Exception {
+        mGrid = new SpatialGrid();
+        mBounds = new float[COUNT * 4];
+        Random random = new Random(42);
+        for (int i = 0; i < COUNT; i++) {
+            float x = random.nextFloat() * 8000f;
+            float y = random.nextFloat() * 6000f;
+            // 一半为点，一半为矩形
+            float w = i % 2 == 0 ? 0f : random.nextFloat() * 300f;
+            float h = i % 2 == 0 ? 0f : random.nextFloat() * 300f;
+            mBounds[i * 4] = x;
+            mBounds[i * 4 + 1] = y;
+            mBounds[i * 4 + 2] = x + w;
+            mBounds[i * 4 + 3] = y + h;
+            mGrid.add(x, y, x + w, y + h, i % 10 == 0 ? 2f : 0f);
+        }
+        mGrid.build();
+    }
+
+    @Test
+    public void query_matchesBruteForce() throws Exception {
+        assertArrayEquals(bruteForce(1000f, 1200f, 2500f, 2000f, 1f),
+                sortedResults(mGrid.query(1000f, 1200f, 2500f, 2000f, 1f)));
+        // 缩放比例达到2后最小可见缩放比例为2的条目也能查询到
+        assertArrayEquals(bruteForce(7900f, -10f, 9000f, 300f, 2f),
+                sortedResults(mGrid.query(7900f, -10f, 9000f, 300f, 2f)));
+        assertEquals(0, mGrid.query(9000f, 7000f, 9500f, 7500f, 1f));
+    }
+
+    @Test
+    public void hitTest_returnsNearestItem() throws Exception {
+        int index = mGrid.add(20000f, 20000f, 20000f, 20000f, 0f);
+        mGrid.add(20030f, 20000f, 20030f, 20000f, 0f);
+        mGrid.build();
+        assertEquals(index, mGrid.hitTest(20010f, 20000f, 12f, 1f));
+        assertEquals(-1, mGrid.hitTest(20015f, 20050f, 12f, 1f));
+    }
+
+    private int[] bruteForce(float left, float top, float right, float bottom, float scale) {
+        int[] result = new int[COUNT];
+        int count = 0;
+        for (int i = 0; i < COUNT; i++) {
+            if (mGrid.getMinScale(i) > scale) continue;
+            if (mBounds[i * 4] > right || mBounds[i * 4 + 2] < left
+                    || mBounds[i * 4 + 1] > bottom || mBounds[i * 4 + 3] < top) {
+                continue;
+            }
+            result[count++] = i;
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private int[] sortedResults(int count) {
+        int[] result = new int[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = mGrid.getResult(i);
+        }
+        Arrays.sort(result);
+        return result;
+    }
+}
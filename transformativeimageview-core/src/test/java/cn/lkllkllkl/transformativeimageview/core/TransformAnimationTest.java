@@ -0,0 +1,38 @@
+package cn.lkllkllkl.transformativeimageview.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TransformAnimationTest {
+    private static final float DELTA = 1e-3f;
+    private static final float DT = 0.001f; // 求速度使用的步长，单位秒
+
+    @Test
+    public void setTarget_keepsVelocityContinuous() throws Exception {
+        TransformAnimation animation = new TransformAnimation();
+        animation.setCurrent(2f, 0f, 0f, 0f);
+        animation.setTarget(2f, 0f, 1000f, 0f);
+        animation.start();
+        for (int i = 0; i < 100; i++) {
+            animation.step(DT);
+        }
+        float last = animation.getCenterX();
+        animation.step(DT);
+        float x = animation.getCenterX();
+        float velocityBefore = (x - last) / DT;
+
+        // 动画进行中把目标移远，速度不应突变
+        animation.setTarget(2f, 0f, 1500f, 0f);
+        animation.step(DT);
+        float velocityAfter = (animation.getCenterX() - x) / DT;
+        assertTrue(velocityBefore > 1000f);
+        assertEquals(velocityBefore, velocityAfter, velocityBefore * 0.02f);
+
+        while (animation.step(0.016f)) {
+            assertTrue(animation.getCenterX() <= 1500f + DELTA);
+        }
+        assertEquals(1500f, animation.getCenterX(), DELTA);
+        assertEquals(2f, animation.getScale(), DELTA);
+    }
+}
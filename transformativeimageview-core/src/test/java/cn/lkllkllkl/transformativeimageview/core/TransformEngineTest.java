@@ -0,0 +1,211 @@
+package cn.lkllkllkl.transformativeimageview.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TransformEngineTest {
+    private static final float DELTA = 1e-3f;
+
+    private TransformEngine mEngine;
+
+    @Before
+    public void setUp() throws Exception {
+        mEngine = new TransformEngine();
+        mEngine.init(400f, 300f, 800f, 1200f);
+    }
+
+    @Test
+    public void init_centersImage() throws Exception {
+        FloatRect rect = mEngine.getImageRect();
+        assertEquals(400f, rect.centerX(), DELTA);
+        assertEquals(600f, rect.centerY(), DELTA);
+        assertEquals(800f * 1.2f, rect.width(), DELTA);
+        assertEquals(2.4f, mEngine.getScaleFactor(), DELTA);
+    }
+
+    @Test
+    public void checkRotation_snapsToRightAngle() throws Exception {
+        mEngine.rotate(100f);
+        mEngine.checkRotation();
+        assertEquals(90f, mEngine.getCurrentRotateDegree(), DELTA);
+        assertEquals(TransformEngine.VERTICAL, mEngine.imgOrientation());
+
+        mEngine.rotate(-60f);
+        mEngine.checkRotation();
+        assertEquals(0f, mEngine.getCurrentRotateDegree(), DELTA);
+    }
+
+    @Test
+    public void checkScale_revertsToMaxScale() throws Exception {
+        mEngine.setMaxScaleFactor(3f);
+        mEngine.scale(2f, 0f, 0f);
+        mEngine.checkScale(0f, 0f);
+        assertEquals(3f, mEngine.getScaleFactor(), DELTA);
+        assertEquals(1200f, mEngine.getImageRect().width(), DELTA);
+    }
+
+    @Test
+    public void checkBorder_removesGapBetweenImageAndView() throws Exception {
+        mEngine.translate(100f, 0f);
+        mEngine.checkBorder();
+        FloatRect rect = mEngine.getImageRect();
+        assertEquals(0f, rect.left, DELTA);
+        assertEquals(600f, rect.centerY(), DELTA);
+    }
+
+    @Test
+    public void translateWithinBorder_stopsAtBorder() throws Exception {
+        // 图片为960x720，比控件宽、比控件矮
+        assertEquals(TransformEngine.BLOCKED_X, mEngine.translateWithinBorder(200f, 0f));
+        assertEquals(0f, mEngine.getImageRect().left, DELTA);
+        assertEquals(0, mEngine.translateWithinBorder(-50f, 0f));
+        assertEquals(430f, mEngine.getImageCenterX(), DELTA);
+
+        // 竖直方向不能离开中心
+        assertEquals(TransformEngine.BLOCKED_Y, mEngine.translateWithinBorder(0f, 30f));
+        assertEquals(600f, mEngine.getImageCenterY(), DELTA);
+
+        // 已被拖离中心时不再远离，向中心移动不受影响
+        mEngine.translate(0f, 100f);
+        assertEquals(TransformEngine.BLOCKED_Y, mEngine.translateWithinBorder(0f, 10f));
+        assertEquals(700f, mEngine.getImageCenterY(), DELTA);
+        assertEquals(0, mEngine.translateWithinBorder(0f, -40f));
+        assertEquals(660f, mEngine.getImageCenterY(), DELTA);
+    }
+
+    @Test
+    public void resize_remapsTransformProportionally() throws Exception {
+        mEngine.rotate(30f);
+        mEngine.resize(1200f, 800f);
+        assertEquals(2.4f * (800f / 300f) / 2f, mEngine.getScaleFactor(), DELTA);
+        assertEquals(30f, mEngine.getCurrentRotateDegree(), DELTA);
+        assertEquals(600f, mEngine.getImageCenterX(), DELTA);
+        assertEquals(400f, mEngine.getImageCenterY(), DELTA);
+    }
+
+    @Test
+    public void canScroll_stopsAtImageBorder() throws Exception {
+        assertTrue(mEngine.canScrollHorizontally(-1));
+        assertTrue(mEngine.canScrollHorizontally(1));
+        assertFalse(mEngine.canScrollVertically(-1));
+        mEngine.translate(80f, 0f);
+        assertFalse(mEngine.canScrollHorizontally(-1));
+        assertTrue(mEngine.canScrollHorizontally(1));
+    }
+
+    @Test
+    public void gesture_solvesSimilarityAroundFingers() throws Exception {
+        mEngine.setScaleBy(TransformEngine.SCALE_BY_FINGER_MID_POINT);
+        GestureTransformer gesture = new GestureTransformer(mEngine);
+        int[] ids = {3, 7};
+        gesture.down(ids, new float[]{300f, 500f}, new float[]{600f, 600f}, 2);
+        // 两指绕(400, 600)顺时针转90度并拉开到两倍距离
+        gesture.move(ids, new float[]{400f, 400f}, new float[]{400f, 800f}, 2);
+        assertEquals(4.8f, mEngine.getScaleFactor(), DELTA);
+        assertEquals(90f, mEngine.getCurrentRotateDegree(), DELTA);
+        assertEquals(400f, mEngine.getImageCenterX(), DELTA);
+        assertEquals(600f, mEngine.getImageCenterY(), DELTA);
+    }
+
+    @Test
+    public void transformBy_multipliesComplexScaleAndRotation() throws Exception {
+        // 每次缩放1.1倍并顺时针转60度，共4次，角度越过180度后回绕
+        float a = 1.1f * (float) Math.cos(Math.toRadians(60));
+        float b = 1.1f * (float) Math.sin(Math.toRadians(60));
+        for (int i = 0; i < 4; i++) {
+            mEngine.transformBy(a, b, 0f, 0f, 0f, 0f);
+        }
+        float scale = 2.4f * 1.1f * 1.1f * 1.1f * 1.1f;
+        assertEquals(scale, mEngine.getScaleFactor(), DELTA);
+        assertEquals(-120f, mEngine.getCurrentRotateDegree(), DELTA);
+        assertEquals(TransformEngine.VERTICAL, mEngine.imgOrientation());
+
+        // 矩阵直接由复数构造，与按角度构造的结果相同
+        Affine expected = new Affine();
+        expected.setSimilarity(scale, -120f, 200f, 150f, 400f, 600f);
+        float[] actualValues = new float[9];
+        float[] expectedValues = new float[9];
+        mEngine.getMatrixValues(actualValues);
+        expected.getValues(expectedValues);
+        assertArrayEquals(expectedValues, actualValues, DELTA);
+    }
+
+    @Test
+    public void gesture_fingerHandoffDoesNotMoveImage() throws Exception {
+        GestureTransformer gesture = new GestureTransformer(mEngine);
+        int[] ids = {0, 1, 2};
+        float[] xs = {100f, 300f, 200f};
+        float[] ys = {100f, 100f, 400f};
+        gesture.down(ids, xs, ys, 2);
+        int version = mEngine.getVersion();
+        // 第三指落下、第一指抬起，其余手指不动时图片不变
+        gesture.down(ids, xs, ys, 3);
+        gesture.move(ids, xs, ys, 3);
+        gesture.pointerUp(ids, xs, ys, 3, 0);
+        gesture.move(new int[]{1, 2}, new float[]{300f, 200f}, new float[]{100f, 400f}, 2);
+        assertEquals(version, mEngine.getVersion());
+        // 剩余两指继续平移
+        gesture.move(new int[]{1, 2}, new float[]{310f, 210f}, new float[]{100f, 400f}, 2);
+        assertEquals(410f, mEngine.getImageCenterX(), DELTA);
+        assertEquals(2.4f, mEngine.getScaleFactor(), DELTA);
+    }
+
+    @Test
+    public void affine_invertRoundTrip() throws Exception {
+        Affine affine = new Affine();
+        affine.postScale(2f, 2f, 10f, 20f);
+        affine.postRotate(30f, 5f, 5f);
+        affine.postTranslate(7f, -3f);
+        Affine inverse = new Affine();
+        assertTrue(affine.invert(inverse));
+
+        float[] pts = {12f, 34f};
+        affine.mapPoints(pts);
+        inverse.mapPoints(pts);
+        assertEquals(12f, pts[0], DELTA);
+        assertEquals(34f, pts[1], DELTA);
+    }
+
+    @Test
+    public void animation_keepsImageShapeWhileRotating() throws Exception {
+        TransformAnimation animation = new TransformAnimation();
+        animation.setCurrent(2f, 170f, 100f, 100f);
+        animation.setTarget(2f, -180f, 400f, 600f);
+        animation.start();
+        animation.step(0.15f);
+        mEngine.setTransform(animation.getScale(), animation.getRotation(),
+                animation.getCenterX(), animation.getCenterY());
+        // 沿最短路径旋转，插值过程中缩放比例不变
+        assertTrue(animation.getRotation() > 170f && animation.getRotation() < 180f);
+        Affine matrix = mEngine.getMatrix();
+        assertEquals(2f, (float) Math.hypot(matrix.getScaleX(), matrix.getSkewY()), DELTA);
+
+        // 中途修改目标
+        animation.setTarget(3f, 180f, 0f, 0f);
+        while (animation.step(0.016f)) {
+            assertTrue(animation.getScale() >= 2f - DELTA);
+        }
+        assertEquals(3f, animation.getScale(), DELTA);
+        assertEquals(0f, animation.getCenterX(), DELTA);
+    }
+
+    @Test
+    public void linkedTransform_normalizesForImageSize() throws Exception {
+        mEngine.setTransform(mEngine.getFitScale() * 2f, 30f, 100f, 150f);
+        TransformEngine other = new TransformEngine();
+        other.init(1600f, 2400f, 200f, 600f);
+
+        other.setTransform(mEngine, true);
+        assertEquals(other.getFitScale() * 2f, other.getScaleFactor(), DELTA);
+        assertEquals(30f, other.getCurrentRotateDegree(), DELTA);
+        assertEquals(25f, other.getImageCenterX(), DELTA);
+        assertEquals(75f, other.getImageCenterY(), DELTA);
+
+        other.setTransform(mEngine, false);
+        assertEquals(mEngine.getScaleFactor(), other.getScaleFactor(), DELTA);
+        assertEquals(100f, other.getImageCenterX(), DELTA);
+        assertEquals(150f, other.getImageCenterY(), DELTA);
+    }
+}
@@ -0,0 +1,44 @@
+package cn.lkllkllkl.transformativeimageview.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TransformStateCacheTest {
+    private static final float DELTA = 1e-3f;
+
+    private TransformEngine mEngine;
+
+    @Before
+    public void setUp() throws Exception {
+        mEngine = new TransformEngine();
+        mEngine.init(400f, 300f, 800f, 1200f);
+    }
+
+    @Test
+    public void restore_matchesKeyAndEvictsLeastRecentlyUsed() throws Exception {
+        TransformStateCache cache = new TransformStateCache(2);
+        mEngine.scale(1.5f, 0f, 0f);
+        mEngine.rotate(20f);
+        mEngine.translate(30f, -40f);
+        cache.put(1L, mEngine);
+        mEngine.init(400f, 300f, 800f, 1200f);
+        cache.put(2L, mEngine);
+
+        TransformEngine engine = new TransformEngine();
+        assertTrue(cache.restore(1L, engine, 400f, 300f, 800f, 1200f));
+        assertEquals(3.6f, engine.getScaleFactor(), DELTA);
+        assertEquals(20f, engine.getCurrentRotateDegree(), DELTA);
+        assertEquals(430f, engine.getImageCenterX(), DELTA);
+        assertEquals(560f, engine.getImageCenterY(), DELTA);
+        // 图片大小不同则不恢复
+        assertFalse(cache.restore(1L, engine, 300f, 400f, 800f, 1200f));
+
+        // 条目1刚被访问过，放入条目3时淘汰条目2
+        cache.put(3L, mEngine);
+        assertEquals(2, cache.size());
+        assertFalse(cache.restore(2L, engine, 400f, 300f, 800f, 1200f));
+        assertTrue(cache.restore(1L, engine, 400f, 300f, 800f, 1200f));
+    }
+}
@@ -0,0 +1,34 @@
+package cn.lkllkllkl.transformativeimageview.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ViewportPredictorTest {
+    private static final float DELTA = 1e-3f;
+
+    @Test
+    public void predict_extrapolatesPanAndZoom() throws Exception {
+        ViewportPredictor predictor = new ViewportPredictor();
+        FloatRect predicted = new FloatRect();
+        // 每16毫秒向右平移8个单位，同时放大
+        float scale = 1f;
+        for (int i = 0; i < 10; i++) {
+            predictor.update(i * 16, i * 8f, 0f, i * 8f + 100f, 100f, scale);
+            scale *= 1.05f;
+        }
+        scale /= 1.05f;
+        float left = 9 * 8f;
+        float predictedScale = predictor.predict(32, left, 0f, left + 100f, 100f, scale, predicted);
+        assertEquals(left + 50f + 16f, predicted.centerX(), 0.5f);
+        assertEquals(50f, predicted.centerY(), DELTA);
+        assertEquals(scale * 1.05f * 1.05f, predictedScale, 0.01f);
+        assertTrue(predicted.width() < 100f);
+
+        // 停顿过久后重新开始估计，不再外推
+        predictor.update(1000, left, 0f, left + 100f, 100f, scale);
+        predictor.predict(32, left, 0f, left + 100f, 100f, scale, predicted);
+        assertEquals(left, predicted.left, DELTA);
+        assertEquals(100f, predicted.width(), DELTA);
+    }
+}
@@ -0,0 +1,97 @@
+package cn.lkllkllkl.transformativeimageview.glide;
+
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * 大小固定、内部图片可替换为不同分辨率的Drawable。
+ * <p>
+ * 大小始终为第一张图片的大小，替换为更高分辨率的图片后按同样的大小绘制，
+ * 因此TransformativeImageView不会重新初始化，缩放比例和位置都保持不变，只是显示更清晰
+ */
+class ResolutionDrawable extends Drawable implements Drawable.Callback {
+    private final int mWidth; // 固定的宽度，即第一张图片的宽度
+    private final int mHeight;
+    private Drawable mDrawable; // 当前显示的图片
+    private float mResolution = 1f; // 当前图片的分辨率相对于固定大小的倍数
+
+    ResolutionDrawable(Drawable drawable) {
+        mWidth = drawable.getIntrinsicWidth();
+        mHeight = drawable.getIntrinsicHeight();
+        setDrawable(drawable);
+    }
+
+    /**
+     * 替换为新的图片，分辨率由图片的原始宽度计算
+     */
+    void setDrawable(Drawable drawable) {
+        if (mDrawable != null) mDrawable.setCallback(null);
+        mDrawable = drawable;
+        mResolution = (float) drawable.getIntrinsicWidth() / mWidth;
+        drawable.setCallback(this);
+        drawable.setBounds(getBounds());
+        invalidateSelf();
+    }
+
+    Drawable getDrawable() {
+        return mDrawable;
+    }
+
+    float getResolution() {
+        return mResolution;
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        return mHeight;
+    }
+
+    @Override
+    protected void onBoundsChange(Rect bounds) {
+        mDrawable.setBounds(bounds);
+    }
+
+    @Override
+    public void draw(@NonNull Canvas canvas) {
+        mDrawable.draw(canvas);
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        mDrawable.setAlpha(alpha);
+    }
+
+    @Override
+    public void setColorFilter(@Nullable ColorFilter colorFilter) {
+        mDrawable.setColorFilter(colorFilter);
+    }
+
+    @Override
+    public int getOpacity() {
+        return mDrawable.getOpacity();
+    }
+
+    @Override
+    public void invalidateDrawable(@NonNull Drawable who) {
+        invalidateSelf();
+    }
+
+    @Override
+    public void scheduleDrawable(@NonNull Drawable who, @NonNull Runnable what, long when) {
+        scheduleSelf(what, when);
+    }
+
+    @Override
+    public void unscheduleDrawable(@NonNull Drawable who, @NonNull Runnable what) {
+        unscheduleSelf(what);
+    }
+}
@@ -0,0 +1,212 @@
+package cn.lkllkllkl.transformativeimageview.glide;
+
+import android.graphics.drawable.Animatable;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.RequestBuilder;
+import com.bumptech.glide.load.resource.bitmap.DownsampleStrategy;
+import com.bumptech.glide.request.RequestOptions;
+import com.bumptech.glide.request.target.SimpleTarget;
+import com.bumptech.glide.request.target.Target;
+import com.bumptech.glide.request.target.ViewTarget;
+import com.bumptech.glide.request.transition.Transition;
+
+import cn.lkllkllkl.transformativeimageview.TransformativeImageView;
+
+/**
+ * 按缩放比例决定解码分辨率的Glide Target。
+ * <p>
+ * 首次加载按控件大小解码，图片打开时不会解码出远大于屏幕的Bitmap。
+ * 之后每次变换停止时根据当前缩放比例计算需要的分辨率（按2的幂分级，不超过max_scale），
+ * 比当前分辨率高时在Glide的后台线程中按新的大小重新解码，完成后直接替换显示的图片，
+ * 缩放比例和位置保持不变。重新解码不会放大原图，原图分辨率不够时不再升级。
+ * <p>
+ * 使用方法：
+ * <pre>
+ * ZoomAwareTarget.into(GlideApp.with(this).load(url), transformativeImageView);
+ * </pre>
+ * 单张Bitmap放得下的图片适合使用此类，更大的图片请使用
+ * {@link TransformativeImageView#setTiledImage(String)}分块解码
+ */
+public class ZoomAwareTarget extends ViewTarget<TransformativeImageView, Drawable>
+        implements TransformativeImageView.OnTransformChangeListener {
+    private static final float UPSCALE_TOLERANCE = 1.25f; // 允许的放大倍数，超过后才提高分辨率
+    private static final int MAX_DECODE_MEMORY_FRACTION = 8; // 单张图片最多占用最大可用内存的1/8
+    private static final int BYTES_PER_PIXEL = 4;
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    private final RequestBuilder<Drawable> mRequest; // 用于按更高分辨率重新解码的请求
+    private ResolutionDrawable mDrawable; // 显示的图片，首次加载完成前为null
+    private UpgradeTarget mPendingUpgrade; // 正在解码的更高分辨率图片
+    private UpgradeTarget mShownUpgrade; // 正在显示的更高分辨率图片，替换后释放
+    private float mRequestedResolution = 1f; // 已请求的最高分辨率
+    private boolean mMaxedOut = false; // 原图分辨率已用尽或图片不能升级
+
+    /**
+     * 加载图片到控件中，并在放大时自动提高分辨率
+     *
+     * @param request 加载图片的请求，可以包含占位图等设置
+     */
+    public static ZoomAwareTarget into(RequestBuilder<Drawable> request,
+                                       TransformativeImageView view) {
+        return request.into(new ZoomAwareTarget(view, request));
+    }
+
+    /**
+     * @param request 与加载到此Target的请求相同，用于重新解码
+     */
+    public ZoomAwareTarget(TransformativeImageView view, RequestBuilder<Drawable> request) {
+        super(view);
+        mRequest = request.clone();
+    }
+
+    /**
+     * 计算缩放比例需要的分辨率，相对于首次解码的大小
+     *
+     * @param scale 当前缩放比例
+     * @param maxScale 最大缩放比例
+     * @return 2的幂，不超过maxScale（maxScale小于1时为1）
+     */
+    static float computeResolution(float scale, float maxScale) {
+        float needed = Math.min(scale, maxScale) / UPSCALE_TOLERANCE;
+        float resolution = 1f;
+        while (resolution < needed) {
+            resolution *= 2f;
+        }
+        return Math.max(1f, Math.min(resolution, maxScale));
+    }
+
+    @Override
+    public void onLoadStarted(@Nullable Drawable placeholder) {
+        super.onLoadStarted(placeholder);
+        reset(placeholder);
+    }
+
+    @Override
+    public void onLoadFailed(@Nullable Drawable errorDrawable) {
+        super.onLoadFailed(errorDrawable);
+        reset(errorDrawable);
+    }
+
+    @Override
+    public void onLoadCleared(@Nullable Drawable placeholder) {
+        super.onLoadCleared(placeholder);
+        reset(placeholder);
+    }
+
+    @Override
+    public void onResourceReady(Drawable resource, Transition<? super Drawable> transition) {
+        reset(null);
+        if (resource.getIntrinsicWidth() <= 0 || resource.getIntrinsicHeight() <= 0
+                || resource instanceof Animatable) {
+            // 没有固定大小的图片和动图不升级分辨率
+            view.setImageDrawable(resource);
+            if (resource instanceof Animatable) ((Animatable) resource).start();
+            return;
+        }
+        mDrawable = new ResolutionDrawable(resource);
+        view.setImageDrawable(mDrawable);
+        view.addOnTransformChangeListener(this);
+    }
+
+    /**
+     * 显示新的图片，取消并释放之前所有更高分辨率的图片
+     */
+    private void reset(@Nullable Drawable drawable) {
+        view.removeOnTransformChangeListener(this);
+        if (mDrawable != null || drawable != null) view.setImageDrawable(drawable);
+        mDrawable = null;
+        // 先替换显示的图片再释放，避免绘制已回收的Bitmap
+        clear(mPendingUpgrade);
+        clear(mShownUpgrade);
+        mPendingUpgrade = null;
+        mShownUpgrade = null;
+        mRequestedResolution = 1f;
+        mMaxedOut = false;
+    }
+
+    /**
+     * 释放图片，Glide不允许在Target的回调中取消请求，所以发送到主线程稍后执行
+     */
+    private void clear(@Nullable final Target<?> target) {
+        if (target == null) return;
+        sMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Glide.with(view.getContext()).clear(target);
+            }
+        });
+    }
+
+    @Override
+    public void onTransformChanged(TransformativeImageView view) {
+    }
+
+    @Override
+    public void onTransformSettled(TransformativeImageView view) {
+        if (mDrawable == null || mMaxedOut) return;
+        float resolution = computeResolution(view.getScaleFactor(), view.getMaxScaleFactor());
+        // 限制单张图片占用的内存
+        long maxPixels = Runtime.getRuntime().maxMemory()
+                / MAX_DECODE_MEMORY_FRACTION / BYTES_PER_PIXEL;
+        int width = mDrawable.getIntrinsicWidth();
+        int height = mDrawable.getIntrinsicHeight();
+        while (resolution > 1f
+                && (long) (width * resolution) * (long) (height * resolution) > maxPixels) {
+            resolution /= 2f;
+        }
+        if (resolution <= mDrawable.getResolution() || resolution <= mRequestedResolution) return;
+
+        // 取消正在进行的较低分辨率解码，在后台按新的分辨率解码
+        clear(mPendingUpgrade);
+        mRequestedResolution = resolution;
+        int targetWidth = Math.round(width * resolution);
+        int targetHeight = Math.round(height * resolution);
+        mPendingUpgrade = mRequest.clone()
+                .apply(RequestOptions.overrideOf(targetWidth, targetHeight)
+                        .downsample(DownsampleStrategy.CENTER_INSIDE))
+                .into(new UpgradeTarget(targetWidth, targetHeight, resolution));
+    }
+
+    /**
+     * 接收更高分辨率的图片
+     */
+    private class UpgradeTarget extends SimpleTarget<Drawable> {
+        private final float mResolution; // 请求的分辨率
+
+        UpgradeTarget(int width, int height, float resolution) {
+            super(width, height);
+            mResolution = resolution;
+        }
+
+        @Override
+        public void onResourceReady(Drawable resource, Transition<? super Drawable> transition) {
+            if (mPendingUpgrade != this || mDrawable == null) return;
+            mPendingUpgrade = null;
+            float resolution = (float) resource.getIntrinsicWidth() / mDrawable.getIntrinsicWidth();
+            if (resolution <= mDrawable.getResolution()) {
+                // 原图分辨率不够，不再升级
+                mMaxedOut = true;
+                clear(this);
+                return;
+            }
+            // 解码结果小于请求的大小说明已达到原图分辨率
+            if (resolution < mResolution * 0.99f) mMaxedOut = true;
+            mDrawable.setDrawable(resource);
+            clear(mShownUpgrade);
+            mShownUpgrade = this;
+        }
+
+        @Override
+        public void onLoadFailed(@Nullable Drawable errorDrawable) {
+            if (mPendingUpgrade != this) return;
+            // 内存不足等原因解码失败，保持当前分辨率
+            mPendingUpgrade = null;
+            mMaxedOut = true;
+        }
+    }
+}
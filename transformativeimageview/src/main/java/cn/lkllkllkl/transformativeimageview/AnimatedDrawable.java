@@ -0,0 +1,83 @@
+package cn.lkllkllkl.transformativeimageview;
+
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.PixelFormat;
+import android.graphics.drawable.Animatable;
+import android.graphics.drawable.Drawable;
+
+/**
+ * 动图模式下使用的Drawable，固有尺寸为图片原始尺寸，
+ * 使View中的矩阵计算与普通图片一致，绘制时交由AnimationDecoder绘制当前帧。
+ * 不可见时（{@link #setVisible(boolean, boolean)}）暂停解码
+ */
+class AnimatedDrawable extends Drawable implements Animatable {
+    private final AnimationDecoder mDecoder;
+
+    AnimatedDrawable(AnimationDecoder decoder) {
+        mDecoder = decoder;
+    }
+
+    AnimationDecoder getDecoder() {
+        return mDecoder;
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        mDecoder.draw(canvas);
+    }
+
+    @Override
+    public boolean setVisible(boolean visible, boolean restart) {
+        boolean changed = super.setVisible(visible, restart);
+        mDecoder.setVisible(visible);
+        return changed;
+    }
+
+    @Override
+    public void start() {
+        mDecoder.setPlaying(true);
+    }
+
+    @Override
+    public void stop() {
+        mDecoder.setPlaying(false);
+    }
+
+    @Override
+    public boolean isRunning() {
+        return mDecoder.isPlaying();
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        return mDecoder.getWidth();
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        return mDecoder.getHeight();
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        mDecoder.setAlpha(alpha);
+        invalidateSelf();
+    }
+
+    @Override
+    public void setFilterBitmap(boolean filter) {
+        mDecoder.setFilterBitmap(filter);
+        invalidateSelf();
+    }
+
+    @Override
+    public void setColorFilter(ColorFilter colorFilter) {
+        // 不支持颜色过滤
+    }
+
+    @Override
+    public int getOpacity() {
+        return PixelFormat.TRANSLUCENT;
+    }
+}
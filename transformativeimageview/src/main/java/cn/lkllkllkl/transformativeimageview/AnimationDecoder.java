@@ -0,0 +1,437 @@
+package cn.lkllkllkl.transformativeimageview;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Movie;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 在后台线程中解码动图（GIF）的帧，只绘制可见区域附近的部分，并按当前缩放比例对应的采样率缩小。
+ * <p>
+ * 每帧绘制到从{@link FramePool}取出的位图中，替换下来的帧在新帧被绘制一次后才放回池中，
+ * 保证正在显示的位图不会被后台线程覆盖。整图按采样率缩小后不超过可见区域像素数的
+ * {@link #MAX_PIXELS_PER_VIEW_PIXEL}倍时绘制整图，否则只绘制可见区域及其周围四分之一的范围，
+ * 因此放大查看角落时每帧只处理很小的区域。
+ * <p>
+ * 帧按需解码：新的一帧只在上一帧被绘制后才开始解码，控件被遮挡、移出屏幕或不再绘制时解码随之停止；
+ * 不可见时（{@link #setVisible(boolean)}）暂停播放并释放池中的位图，恢复后从暂停处继续。
+ * 平台的Movie只能按时间定位帧，无法获知每帧的间隔，因此播放帧率不超过{@link #FRAME_INTERVAL_MILLIS}对应的帧率；
+ * Movie内部仍会按原始大小解码每一帧，省下的是每帧的绘制、位图内存和上传纹理的开销。
+ * 除后台线程外，所有方法都应在主线程中调用
+ */
+class AnimationDecoder {
+    private static final String TAG = AnimationDecoder.class.getSimpleName();
+    private static final long FRAME_INTERVAL_MILLIS = 30; // 两帧之间的最小间隔
+    private static final float MAX_PIXELS_PER_VIEW_PIXEL = 2f; // 整图解码的像素数最多为可见区域像素数的倍数
+    private static final float REGION_MARGIN = 0.25f; // 只解码可见区域时四周额外解码的比例
+
+    /**
+     * 解码回调，均在主线程中执行
+     */
+    interface Callback {
+        /**
+         * 动图已打开，此时已知图片原始尺寸
+         */
+        void onImageSizeReady(int width, int height);
+
+        /**
+         * 新的一帧解码完成，需要重绘
+         */
+        void onFrameReady();
+    }
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final HandlerThread mDecodeThread;
+    private final Handler mDecodeHandler;
+    private final Callback mCallback;
+    private final FramePool mPool = new FramePool();
+    private final Object mFrameToken = new Object(); // 帧解码任务的token，用于移除尚未执行的任务
+    private volatile boolean mReleased = false;
+    private Movie mMovie; // 只在后台线程中使用
+
+    // 以下字段只在主线程中读写
+    private int mWidth = 0; // 图片原始宽度，打开前为0
+    private int mHeight = 0;
+    private int mDuration = 0; // 动画时长，静态图片为0
+    private boolean mPlaying = true; // 是否播放，由Animatable控制
+    private boolean mVisible = false; // 控件是否可见
+    private long mStartTime = -1; // 动画开始的时间，已扣除暂停的时长，尚未开始时为-1
+    private long mPauseTime = 0; // 暂停的时间
+    private long mLastRequestTime = 0; // 上一次请求解码的时间
+    private boolean mRequestPending = false; // 是否有正在解码的帧
+    private int mGeneration = 0; // 暂停或释放时增加，用于丢弃过期的帧
+    private final RectF mVisibleRect = new RectF(); // 可见区域，坐标为图片原始坐标
+    private int mSampleSize = 1; // 当前缩放比例对应的采样率
+    private boolean mViewportChanged = true; // 当前帧是否已不能覆盖可见区域或采样率已变化
+    private Bitmap mFrame; // 正在显示的帧
+    private final Rect mFrameRect = new Rect(); // mFrame在图片原始坐标中的区域
+    private int mFrameSampleSize = 0; // mFrame的采样率
+    private boolean mFrameDrawn = false; // mFrame是否已绘制过
+    private Bitmap mRetiredFrame; // 被替换的已绘制过的帧，新帧绘制后放回池中
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    AnimationDecoder(Callback callback) {
+        mCallback = callback;
+        mDecodeThread = new HandlerThread(TAG);
+        mDecodeThread.start();
+        mDecodeHandler = new Handler(mDecodeThread.getLooper());
+    }
+
+    /**
+     * 在后台线程中打开动图文件
+     */
+    void open(final String filePath) {
+        mDecodeHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                onMovieDecoded(Movie.decodeFile(filePath), filePath);
+            }
+        });
+    }
+
+    /**
+     * 在后台线程中打开动图输入流，输入流在图片显示前不能关闭，由调用者负责关闭
+     */
+    void open(final InputStream inputStream) {
+        mDecodeHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // Movie解码输入流需要支持mark，先完整读入内存，动图通常不大
+                Movie movie = null;
+                try {
+                    byte[] data = readFully(inputStream);
+                    movie = Movie.decodeByteArray(data, 0, data.length);
+                } catch (IOException e) {
+                    Log.e(TAG, "read input stream failed", e);
+                }
+                onMovieDecoded(movie, "input stream");
+            }
+        });
+    }
+
+    private static byte[] readFully(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[16 * 1024];
+        int count;
+        while ((count = inputStream.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+
+    private void onMovieDecoded(Movie movie, String source) {
+        if (mReleased) return;
+        if (movie == null || movie.width() <= 0 || movie.height() <= 0) {
+            Log.e(TAG, "decode " + source + " failed");
+            return;
+        }
+        mMovie = movie;
+        final int width = movie.width();
+        final int height = movie.height();
+        final int duration = movie.duration();
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mReleased) return;
+                mWidth = width;
+                mHeight = height;
+                mDuration = duration;
+                mCallback.onImageSizeReady(width, height);
+            }
+        });
+    }
+
+    int getWidth() {
+        return mWidth;
+    }
+
+    int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * 更新可见区域和缩放比例，当前帧不能覆盖可见区域或采样率变化时立即解码新的一帧
+     *
+     * @param visibleRect 可见区域，坐标为图片原始坐标
+     * @param scaleFactor 当前图片的缩放比例
+     */
+    void update(RectF visibleRect, float scaleFactor) {
+        mVisibleRect.set(visibleRect);
+        mSampleSize = computeSampleSize(scaleFactor);
+        if (mSampleSize != mFrameSampleSize || !mFrameRect.contains(
+                (int) mVisibleRect.left, (int) mVisibleRect.top,
+                (int) Math.ceil(mVisibleRect.right), (int) Math.ceil(mVisibleRect.bottom))) {
+            mViewportChanged = true;
+            requestFrame();
+        }
+    }
+
+    /**
+     * 缩小显示时按2的幂降低采样率，放大时使用原始分辨率
+     */
+    static int computeSampleSize(float scaleFactor) {
+        int sampleSize = 1;
+        while (scaleFactor > 0f && sampleSize * 2 * scaleFactor <= 1f) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    void setPlaying(boolean playing) {
+        if (playing == mPlaying) return;
+        boolean wasRunning = isRunning();
+        mPlaying = playing;
+        onRunningChanged(wasRunning);
+    }
+
+    boolean isPlaying() {
+        return mPlaying;
+    }
+
+    /**
+     * 控件不可见、移出屏幕或离开窗口时暂停解码
+     */
+    void setVisible(boolean visible) {
+        if (visible == mVisible) return;
+        boolean wasRunning = isRunning();
+        mVisible = visible;
+        onRunningChanged(wasRunning);
+        if (visible) {
+            requestFrame();
+        } else {
+            // 不可见期间不需要复用的位图
+            mPool.clear();
+        }
+    }
+
+    private boolean isRunning() {
+        return mPlaying && mVisible && !mReleased;
+    }
+
+    private void onRunningChanged(boolean wasRunning) {
+        boolean running = isRunning();
+        if (running == wasRunning) return;
+        long now = SystemClock.uptimeMillis();
+        if (running) {
+            // 从暂停处继续播放
+            if (mStartTime < 0) {
+                mStartTime = now;
+            } else {
+                mStartTime += now - mPauseTime;
+            }
+            requestFrame();
+        } else {
+            mPauseTime = now;
+            cancelPending();
+            // 停止播放但仍可见时保持当前帧，可见区域变化后再按暂停的位置解码
+        }
+    }
+
+    private void cancelPending() {
+        mGeneration++;
+        mDecodeHandler.removeCallbacksAndMessages(mFrameToken);
+        mRequestPending = false;
+    }
+
+    /**
+     * 请求解码下一帧，与上一次请求间隔太短时延迟执行。
+     * 静态图片和停止播放的动图只在可见区域或采样率变化后才重新解码
+     */
+    private void requestFrame() {
+        if (!mVisible || mReleased || mRequestPending || mWidth == 0 || mVisibleRect.isEmpty()) {
+            return;
+        }
+        boolean animating = isRunning() && mDuration > 0;
+        if (mFrame != null && !animating && !mViewportChanged) return;
+        mViewportChanged = false;
+        mRequestPending = true;
+
+        final int sampleSize = mSampleSize;
+        final Rect region = computeRegion(sampleSize);
+        final long startTime = mStartTime;
+        // 停止播放时停在暂停的位置
+        final long pausedTime = animating ? -1 : (mStartTime < 0 ? 0 : mPauseTime - mStartTime);
+        final int duration = mDuration;
+        final int generation = mGeneration;
+        long now = SystemClock.uptimeMillis();
+        long time = mFrame == null ? now : Math.max(now, mLastRequestTime + FRAME_INTERVAL_MILLIS);
+        mLastRequestTime = time;
+        mDecodeHandler.postAtTime(new Runnable() {
+            @Override
+            public void run() {
+                if (mReleased) return;
+                long elapsed = pausedTime >= 0 ? pausedTime : SystemClock.uptimeMillis() - startTime;
+                int frameTime = duration > 0 ? (int) (elapsed % duration) : 0;
+                final Bitmap frame = decodeFrame(region, sampleSize, frameTime);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onFrameDecoded(frame, region, sampleSize, generation);
+                    }
+                });
+            }
+        }, mFrameToken, time);
+    }
+
+    /**
+     * 计算需要解码的区域：整图缩小后足够小时为整图，否则为可见区域及其周围的一部分
+     */
+    private Rect computeRegion(int sampleSize) {
+        float visiblePixels = mVisibleRect.width() * mVisibleRect.height()
+                / (sampleSize * sampleSize);
+        float imagePixels = (float) mWidth * mHeight / (sampleSize * sampleSize);
+        Rect region = new Rect(0, 0, mWidth, mHeight);
+        if (imagePixels <= visiblePixels * MAX_PIXELS_PER_VIEW_PIXEL) return region;
+        float marginX = mVisibleRect.width() * REGION_MARGIN;
+        float marginY = mVisibleRect.height() * REGION_MARGIN;
+        // 对齐到采样率，相邻两帧的像素位置一致
+        int left = (int) Math.floor((mVisibleRect.left - marginX) / sampleSize) * sampleSize;
+        int top = (int) Math.floor((mVisibleRect.top - marginY) / sampleSize) * sampleSize;
+        int right = (int) Math.ceil((mVisibleRect.right + marginX) / sampleSize) * sampleSize;
+        int bottom = (int) Math.ceil((mVisibleRect.bottom + marginY) / sampleSize) * sampleSize;
+        region.intersect(left, top, right, bottom);
+        return region;
+    }
+
+    /**
+     * 在后台线程中把指定时间的帧绘制到池中的位图
+     *
+     * @return 绘制的帧，内存不足时返回null
+     */
+    private Bitmap decodeFrame(Rect region, int sampleSize, int frameTime) {
+        int width = Math.max(1, (region.width() + sampleSize - 1) / sampleSize);
+        int height = Math.max(1, (region.height() + sampleSize - 1) / sampleSize);
+        Bitmap frame = mPool.obtain(width, height);
+        try {
+            if (frame == null) {
+                frame = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            } else {
+                frame.eraseColor(0);
+            }
+        } catch (OutOfMemoryError e) {
+            Log.w(TAG, "allocate frame failed", e);
+            return null;
+        }
+        // Movie不支持硬件加速的Canvas，这里绘制到位图上，不受控件是否硬件加速的影响
+        Canvas canvas = new Canvas(frame);
+        canvas.scale(1f / sampleSize, 1f / sampleSize);
+        canvas.translate(-region.left, -region.top);
+        mMovie.setTime(frameTime);
+        mMovie.draw(canvas, 0f, 0f);
+        return frame;
+    }
+
+    private void onFrameDecoded(Bitmap frame, Rect region, int sampleSize, int generation) {
+        if (mReleased || generation != mGeneration) {
+            if (frame != null && !mReleased) mPool.recycle(frame);
+            return;
+        }
+        mRequestPending = false;
+        if (frame == null) return;
+        if (mFrameDrawn || mFrame == null) {
+            mRetiredFrame = mFrame;
+        } else {
+            // 当前帧从未绘制过，不会被正在显示的内容引用，可以直接复用
+            mPool.recycle(mFrame);
+        }
+        mFrame = frame;
+        mFrameDrawn = false;
+        mFrameRect.set(region);
+        mFrameSampleSize = sampleSize;
+        mCallback.onFrameReady();
+    }
+
+    /**
+     * 绘制当前帧，canvas的坐标系应为图片原始坐标系。绘制后请求解码下一帧
+     */
+    void draw(Canvas canvas) {
+        if (mFrame != null) {
+            canvas.drawBitmap(mFrame, null, mFrameRect, mPaint);
+            mFrameDrawn = true;
+        }
+        // 新帧已经绘制，被替换的帧不再被引用
+        if (mRetiredFrame != null) {
+            mPool.recycle(mRetiredFrame);
+            mRetiredFrame = null;
+        }
+        requestFrame();
+    }
+
+    void setAlpha(int alpha) {
+        mPaint.setAlpha(alpha);
+    }
+
+    /**
+     * 设置绘制时是否使用双线性过滤
+     */
+    void setFilterBitmap(boolean filter) {
+        mPaint.setFilterBitmap(filter);
+    }
+
+    /**
+     * 释放所有帧和后台线程，释放后不可再使用
+     */
+    void release() {
+        mReleased = true;
+        cancelPending();
+        mFrame = null;
+        mRetiredFrame = null;
+        mPool.clear();
+        mDecodeThread.quit();
+    }
+
+    /**
+     * 帧位图池，只保留最近放回的几个位图，供后台线程解码下一帧时复用
+     */
+    static class FramePool {
+        private static final int MAX_SIZE = 2;
+        private final Bitmap[] mBitmaps = new Bitmap[MAX_SIZE];
+        private int mSize = 0;
+
+        /**
+         * @return 大小相同的位图，没有时返回null
+         */
+        synchronized Bitmap obtain(int width, int height) {
+            for (int i = mSize - 1; i >= 0; i--) {
+                Bitmap bitmap = mBitmaps[i];
+                if (bitmap.getWidth() == width && bitmap.getHeight() == height) {
+                    System.arraycopy(mBitmaps, i + 1, mBitmaps, i, mSize - i - 1);
+                    mBitmaps[--mSize] = null;
+                    return bitmap;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * 放回位图，池已满时回收最早放回的位图
+         */
+        synchronized void recycle(Bitmap bitmap) {
+            if (mSize == MAX_SIZE) {
+                mBitmaps[0].recycle();
+                System.arraycopy(mBitmaps, 1, mBitmaps, 0, mSize - 1);
+                mSize--;
+            }
+            mBitmaps[mSize++] = bitmap;
+        }
+
+        synchronized void clear() {
+            for (int i = 0; i < mSize; i++) {
+                mBitmaps[i].recycle();
+                mBitmaps[i] = null;
+            }
+            mSize = 0;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package cn.lkllkllkl.transformativeimageview;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+
+/**
+ * 把导出结果拼接为一张完整的Bitmap，内存占用为导出结果的大小
+ */
+public class BitmapExportSink implements ExportSink {
+    private final Bitmap.Config mConfig;
+    private Bitmap mBitmap;
+    private Canvas mCanvas;
+
+    public BitmapExportSink() {
+        this(Bitmap.Config.ARGB_8888);
+    }
+
+    public BitmapExportSink(Bitmap.Config config) {
+        mConfig = config;
+    }
+
+    @Override
+    public void begin(int width, int height) {
+        mBitmap = Bitmap.createBitmap(width, height, mConfig);
+        mCanvas = new Canvas(mBitmap);
+    }
+
+    @Override
+    public void writeStrip(Bitmap strip, int top, int height) {
+        mCanvas.save();
+        mCanvas.clipRect(0, top, strip.getWidth(), top + height);
+        mCanvas.drawBitmap(strip, 0, top, null);
+        mCanvas.restore();
+    }
+
+    @Override
+    public void end() {
+        mCanvas = null;
+    }
+
+    /**
+     * @return 导出结果，导出完成前为null或不完整
+     */
+    public Bitmap getBitmap() {
+        return mBitmap;
+    }
+}
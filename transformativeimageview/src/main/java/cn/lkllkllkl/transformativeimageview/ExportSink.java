@@ -0,0 +1,37 @@
+package cn.lkllkllkl.transformativeimageview;
+
+import android.graphics.Bitmap;
+
+import java.io.IOException;
+
+/**
+ * 导出结果的接收者，导出按从上到下的条带依次写入，所有方法都在导出线程中调用。
+ * <p>
+ * 条带在导出过程中复用，写入后即被下一条带覆盖，需要保留的内容应在{@link #writeStrip}中复制或编码。
+ * 实现为流式编码器或写入输出流时，导出的内存占用只有一个条带，与导出区域的大小无关
+ *
+ * @see ImageExporter
+ */
+public interface ExportSink {
+    /**
+     * 开始导出
+     *
+     * @param width 导出结果的宽度
+     * @param height 导出结果的高度
+     */
+    void begin(int width, int height) throws IOException;
+
+    /**
+     * 写入一个条带
+     *
+     * @param strip 条带，宽度与导出结果相同，只有前height行有效
+     * @param top 条带在导出结果中的起始行
+     * @param height 条带的有效行数
+     */
+    void writeStrip(Bitmap strip, int top, int height) throws IOException;
+
+    /**
+     * 所有条带写入完成，导出失败或取消时不会调用
+     */
+    void end() throws IOException;
+}
@@ -0,0 +1,108 @@
+package cn.lkllkllkl.transformativeimageview;
+
+import android.support.v4.view.PagerAdapter;
+import android.view.View;
+import android.view.ViewGroup;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import cn.lkllkllkl.transformativeimageview.core.TransformStateCache;
+
+/**
+ * 用于ViewPager相册的Adapter，每页是一个开启翻页模式的{@link TransformativeImageView}。
+ * <p>
+ * 移出的页面放入一个很小的复用池，新页面优先复用池中的控件，不需要每页都创建新控件；
+ * 若复用池中的控件显示的正是要显示的条目且图片仍在，则直接放回，不需要重新加载图片和初始化。
+ * 每个条目的缩放、旋转、平移按{@link #getItemId(int)}保存在{@link TransformStateCache}中，
+ * 翻回之前的页面时立即恢复，不会回到初始大小。
+ * <p>
+ * 子类需要实现{@link #getCount()}、{@link #getItemId(int)}和{@link #onBindImage(TransformativeImageView, int)}
+ */
+public abstract class GalleryPagerAdapter extends PagerAdapter {
+    private static final int DEFAULT_STATE_CACHE_SIZE = 100; // 默认缓存的变换状态个数
+    private static final int MAX_POOL_SIZE = 3; // 复用池最多保存的控件数
+
+    private final TransformStateCache mStateCache;
+    private final List<TransformativeImageView> mPool = new ArrayList<>(); // 最近移出的在后
+
+    public GalleryPagerAdapter() {
+        this(new TransformStateCache(DEFAULT_STATE_CACHE_SIZE));
+    }
+
+    /**
+     * @param stateCache 保存变换状态的缓存，可以在多个Adapter之间共享
+     */
+    public GalleryPagerAdapter(TransformStateCache stateCache) {
+        mStateCache = stateCache;
+    }
+
+    /**
+     * @return 条目的唯一id，数据集变化后同一个条目的id应保持不变
+     */
+    public abstract long getItemId(int position);
+
+    /**
+     * 为控件加载条目的图片，控件可能刚刚显示过其他条目
+     */
+    protected abstract void onBindImage(TransformativeImageView view, int position);
+
+    /**
+     * 创建新的控件，默认开启翻页模式，可重写以设置其他属性
+     */
+    protected TransformativeImageView onCreateView(ViewGroup container) {
+        TransformativeImageView view = new TransformativeImageView(container.getContext());
+        view.setPagerMode(true);
+        return view;
+    }
+
+    /**
+     * 控件被移出复用池、不再使用时调用，可在此取消图片加载或释放图片
+     */
+    protected void onReleaseView(TransformativeImageView view) {
+    }
+
+    public TransformStateCache getStateCache() {
+        return mStateCache;
+    }
+
+    @Override
+    public Object instantiateItem(ViewGroup container, int position) {
+        TransformativeImageView view = obtainView(container, getItemId(position), position);
+        container.addView(view);
+        return view;
+    }
+
+    @Override
+    public void destroyItem(ViewGroup container, int position, Object object) {
+        TransformativeImageView view = (TransformativeImageView) object;
+        // 从窗口移除时控件会把变换状态保存到mStateCache
+        container.removeView(view);
+        mPool.add(view);
+        if (mPool.size() > MAX_POOL_SIZE) onReleaseView(mPool.remove(0));
+    }
+
+    @Override
+    public boolean isViewFromObject(View view, Object object) {
+        return view == object;
+    }
+
+    private TransformativeImageView obtainView(ViewGroup container, long id, int position) {
+        // 复用池中有正在显示该条目的控件则直接使用，保留图片和变换
+        for (int i = mPool.size() - 1; i >= 0; i--) {
+            TransformativeImageView view = mPool.get(i);
+            if (view.getTransformStateCache() == mStateCache && view.getTransformStateKey() == id
+                    && view.getDrawable() != null) {
+                mPool.remove(i);
+                return view;
+            }
+        }
+        TransformativeImageView view = mPool.isEmpty()
+                ? onCreateView(container) : mPool.remove(mPool.size() - 1);
+        view.bindTransformState(mStateCache, id);
+        // 去掉上一个条目的图片，避免新图片加载完成前以旧图片的大小初始化
+        view.setImageDrawable(null);
+        onBindImage(view, position);
+        return view;
+    }
+}
@@ -0,0 +1,115 @@
+package cn.lkllkllkl.transformativeimageview;
+
+import android.util.Log;
+import android.view.MotionEvent;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import cn.lkllkllkl.transformativeimageview.core.GestureTrace;
+import cn.lkllkllkl.transformativeimageview.core.GestureTraceWriter;
+import cn.lkllkllkl.transformativeimageview.core.TransformEngine;
+
+/**
+ * 把控件收到的触摸事件记录为二进制轨迹，通过
+ * {@link TransformativeImageView#setGestureTraceRecorder(GestureTraceRecorder)}开启。
+ * 轨迹可以在JVM上用transformativeimageview-core中的GestureReplay回放，
+ * 统计每个事件的耗时和内存分配并与golden矩阵比较。
+ * <p>
+ * 只在控件合并触摸事件、会处理批量事件中的历史触点时才逐个记录历史触点，
+ * 回放时与控件的计算一致；每次手指落下前记录图片当前的变换。
+ * 写入失败后停止记录，输出流由调用者在{@link #close()}后自行处理
+ */
+public class GestureTraceRecorder {
+    private static final String TAG = GestureTraceRecorder.class.getSimpleName();
+
+    private final GestureTraceWriter mWriter;
+    private int[] mIds = new int[2];
+    private float[] mXs = new float[2];
+    private float[] mYs = new float[2];
+    private boolean mFailed = false;
+
+    public GestureTraceRecorder(OutputStream out) {
+        mWriter = new GestureTraceWriter(out);
+    }
+
+    /**
+     * @param coalesceTouch 控件是否合并触摸事件，合并时才处理ACTION_MOVE中的历史触点
+     */
+    void record(MotionEvent event, TransformEngine engine, boolean rotateRevert,
+                boolean scaleRevert, boolean translateRevert, boolean coalesceTouch) {
+        if (mFailed) return;
+        try {
+            int action = toTraceAction(event.getActionMasked());
+            if (action < 0) return;
+            if (!mWriter.isHeaderWritten()) {
+                // 轨迹必须从手指落下开始
+                if (action != GestureTrace.ACTION_DOWN) return;
+                mWriter.writeHeader(engine, rotateRevert, scaleRevert, translateRevert);
+            }
+            if (action == GestureTrace.ACTION_DOWN) mWriter.writeSync(event.getEventTime(), engine);
+
+            int pointerCount = event.getPointerCount();
+            if (mXs.length < pointerCount) {
+                mIds = new int[pointerCount];
+                mXs = new float[pointerCount];
+                mYs = new float[pointerCount];
+            }
+            for (int i = 0; i < pointerCount; i++) {
+                mIds[i] = event.getPointerId(i);
+            }
+            int historySize = coalesceTouch && action == GestureTrace.ACTION_MOVE
+                    ? event.getHistorySize() : 0;
+            for (int pos = 0; pos < historySize; pos++) {
+                for (int i = 0; i < pointerCount; i++) {
+                    mXs[i] = event.getHistoricalX(i, pos);
+                    mYs[i] = event.getHistoricalY(i, pos);
+                }
+                mWriter.writeSample(action, true, event.getHistoricalEventTime(pos), 0,
+                        pointerCount, mIds, mXs, mYs);
+            }
+            for (int i = 0; i < pointerCount; i++) {
+                mXs[i] = event.getX(i);
+                mYs[i] = event.getY(i);
+            }
+            mWriter.writeSample(action, false, event.getEventTime(), event.getActionIndex(),
+                    pointerCount, mIds, mXs, mYs);
+        } catch (IOException e) {
+            Log.e(TAG, "write gesture trace failed", e);
+            mFailed = true;
+        }
+    }
+
+    private static int toTraceAction(int actionMasked) {
+        switch (actionMasked) {
+            case MotionEvent.ACTION_DOWN:
+                return GestureTrace.ACTION_DOWN;
+            case MotionEvent.ACTION_POINTER_DOWN:
+                return GestureTrace.ACTION_POINTER_DOWN;
+            case MotionEvent.ACTION_MOVE:
+                return GestureTrace.ACTION_MOVE;
+            case MotionEvent.ACTION_POINTER_UP:
+                return GestureTrace.ACTION_POINTER_UP;
+            case MotionEvent.ACTION_UP:
+                return GestureTrace.ACTION_UP;
+            case MotionEvent.ACTION_CANCEL:
+                return GestureTrace.ACTION_CANCEL;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * 把缓冲的数据写入输出流
+     */
+    public void flush() throws IOException {
+        mWriter.flush();
+    }
+
+    /**
+     * 写入缓冲的数据并关闭输出流
+     */
+    public void close() throws IOException {
+        mWriter.close();
+    }
+}
@@ -0,0 +1,232 @@
+package cn.lkllkllkl.transformativeimageview;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.io.IOException;
+
+/**
+ * 在后台线程中按原图分辨率导出图片的一个区域，由
+ * {@link TransformativeImageView#exportVisibleRegion(ExportSink, OnExportListener)}等方法创建。
+ * <p>
+ * 导出结果按从上到下的条带依次绘制并写入{@link ExportSink}，每个条带不超过{@link #STRIP_BYTES}字节。
+ * 分块解码的图片对每个条带只解码其覆盖的原图区域，每次解码不超过{@link #CHUNK_SIZE}见方，
+ * 解码任务排在显示所需的图块之后；因此导出时的内存占用只有一个条带和一块解码区域，
+ * 与原图和导出区域的大小无关，远大于堆内存的图片也能导出。
+ * 导出区域随图片旋转时按条带的外接矩形解码，会多解码条带两侧的部分区域
+ */
+public class ImageExporter implements Runnable {
+    private static final String TAG = ImageExporter.class.getSimpleName();
+    private static final int STRIP_BYTES = 4 * 1024 * 1024; // 每个条带的最大字节数
+    private static final int CHUNK_SIZE = 1024; // 分块解码时每次解码区域的最大边长（像素）
+
+    /**
+     * 导出结果回调，在主线程中执行，导出被取消后不再回调
+     */
+    public interface OnExportListener {
+        /**
+         * 所有条带已写入，{@link ExportSink#end()}已调用
+         */
+        void onExportComplete(ExportSink sink);
+
+        /**
+         * 解码、绘制或写入失败，包括导出过程中图片被替换导致的解码失败
+         */
+        void onExportFailed(ExportSink sink, Throwable error);
+    }
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ExportSink mSink;
+    private final OnExportListener mListener;
+    private final Matrix mImageToOutput = new Matrix(); // 图片原始坐标到导出结果
+    private final Matrix mOutputToImage = new Matrix();
+    private final int mWidth; // 导出结果的宽度
+    private final int mHeight;
+    private final Rect mImageBounds; // 图片在原始坐标中的区域
+    private final Bitmap mBitmap; // 普通Bitmap图片，其他图片为null
+    private final TileManager mTileManager; // 分块解码的图片，其他图片为null
+    private final Drawable mCopy; // 其他图片使用ConstantState创建的副本
+    private final Thread mThread;
+    private volatile boolean mCancelled = false;
+
+    // 以下字段只在导出线程中使用
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final RectF mStripRect = new RectF();
+    private final Rect mRegion = new Rect(); // 条带覆盖的原图区域
+    private final Rect mChunkRect = new Rect();
+    private Bitmap mChunk; // 完整大小的解码区域，用于复用
+
+    /**
+     * 在主线程中调用，之后图片和矩阵的变化不影响导出
+     *
+     * @param imageToOutput 图片原始坐标到导出结果的矩阵
+     */
+    ImageExporter(Drawable drawable, Matrix imageToOutput, int width, int height,
+                  ExportSink sink, OnExportListener listener) {
+        mImageToOutput.set(imageToOutput);
+        if (!imageToOutput.invert(mOutputToImage) || width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("empty export region");
+        }
+        mWidth = width;
+        mHeight = height;
+        mSink = sink;
+        mListener = listener;
+        mImageBounds = new Rect(0, 0, drawable.getIntrinsicWidth(), drawable.getIntrinsicHeight());
+        if (drawable instanceof TiledDrawable) {
+            mTileManager = ((TiledDrawable) drawable).getTileManager();
+            mBitmap = null;
+            mCopy = null;
+        } else if (drawable instanceof BitmapDrawable
+                && ((BitmapDrawable) drawable).getBitmap() != null) {
+            mBitmap = ((BitmapDrawable) drawable).getBitmap();
+            mTileManager = null;
+            mCopy = null;
+        } else if (drawable.getConstantState() != null) {
+            // 使用独立的副本，不会与主线程同时访问同一个Drawable
+            mCopy = drawable.getConstantState().newDrawable().mutate();
+            mCopy.setBounds(mImageBounds);
+            mBitmap = null;
+            mTileManager = null;
+        } else {
+            throw new IllegalStateException("drawable can not be drawn off the main thread");
+        }
+        mThread = new Thread(this, TAG);
+    }
+
+    /**
+     * @return 图片原始坐标中一个单位对应原图的像素数，普通Bitmap按密度缩放后两者不同
+     */
+    static float getSourceScale(Drawable drawable) {
+        if (drawable instanceof BitmapDrawable && ((BitmapDrawable) drawable).getBitmap() != null
+                && drawable.getIntrinsicWidth() > 0) {
+            return (float) ((BitmapDrawable) drawable).getBitmap().getWidth()
+                    / drawable.getIntrinsicWidth();
+        }
+        return 1f;
+    }
+
+    void start() {
+        mThread.start();
+    }
+
+    /**
+     * 取消导出，正在进行的解码或写入完成后停止，不再回调
+     */
+    public void cancel() {
+        mCancelled = true;
+        mThread.interrupt();
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * @return 导出结果的宽度
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    @Override
+    public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        Bitmap strip = null;
+        try {
+            mSink.begin(mWidth, mHeight);
+            int stripHeight = Math.max(1, Math.min(mHeight, STRIP_BYTES / (mWidth * 4)));
+            strip = Bitmap.createBitmap(mWidth, stripHeight, Bitmap.Config.ARGB_8888);
+            Canvas canvas = new Canvas(strip);
+            for (int top = 0; top < mHeight; top += stripHeight) {
+                int height = Math.min(stripHeight, mHeight - top);
+                strip.eraseColor(Color.TRANSPARENT);
+                canvas.save();
+                canvas.translate(0f, -top);
+                canvas.concat(mImageToOutput);
+                drawStrip(canvas, top, height);
+                canvas.restore();
+                if (mCancelled) return;
+                mSink.writeStrip(strip, top, height);
+            }
+            mSink.end();
+            postResult(null);
+        } catch (InterruptedException e) {
+            // 已取消
+        } catch (IOException | RuntimeException | OutOfMemoryError e) {
+            postResult(e);
+        } finally {
+            if (strip != null) strip.recycle();
+            if (mChunk != null) mChunk.recycle();
+            mChunk = null;
+        }
+    }
+
+    /**
+     * 绘制一个条带，canvas的坐标系已变换为图片原始坐标系
+     */
+    private void drawStrip(Canvas canvas, int top, int height)
+            throws IOException, InterruptedException {
+        if (mBitmap != null) {
+            canvas.drawBitmap(mBitmap, null, mImageBounds, mPaint);
+        } else if (mCopy != null) {
+            mCopy.draw(canvas);
+        } else {
+            // 只解码条带覆盖的原图区域，分块解码并复用完整大小的解码区域
+            mStripRect.set(0f, top, mWidth, top + height);
+            mOutputToImage.mapRect(mStripRect);
+            mStripRect.roundOut(mRegion);
+            if (!mRegion.intersect(mImageBounds)) return;
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inMutable = true;
+            for (int y = mRegion.top; y < mRegion.bottom; y += CHUNK_SIZE) {
+                for (int x = mRegion.left; x < mRegion.right; x += CHUNK_SIZE) {
+                    if (mCancelled) throw new InterruptedException();
+                    mChunkRect.set(x, y, Math.min(x + CHUNK_SIZE, mRegion.right),
+                            Math.min(y + CHUNK_SIZE, mRegion.bottom));
+                    boolean fullSize = mChunkRect.width() == CHUNK_SIZE
+                            && mChunkRect.height() == CHUNK_SIZE;
+                    options.inBitmap = fullSize ? mChunk : null;
+                    Bitmap chunk = mTileManager.decodeRegion(mChunkRect, options);
+                    if (chunk == null) throw new IOException("decode " + mChunkRect + " failed");
+                    canvas.drawBitmap(chunk, null, mChunkRect, mPaint);
+                    if (fullSize) {
+                        // 不支持复用时解码结果是新的Bitmap
+                        if (mChunk != null && mChunk != chunk) mChunk.recycle();
+                        mChunk = chunk;
+                    } else {
+                        chunk.recycle();
+                    }
+                }
+            }
+        }
+    }
+
+    private void postResult(final Throwable error) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mCancelled || mListener == null) return;
+                if (error == null) {
+                    mListener.onExportComplete(mSink);
+                } else {
+                    mListener.onExportFailed(mSink, error);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,306 @@
+package cn.lkllkllkl.transformativeimageview;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.view.View;
+
+import cn.lkllkllkl.transformativeimageview.core.SpatialGrid;
+
+/**
+ * 以图片原始坐标标注的标记层，通过{@link TransformativeImageView#setMarkerOverlay(MarkerOverlay)}
+ * 显示在图片上方并随图片一起变换。
+ * <p>
+ * 支持圆点标记、矩形框和文字标签：
+ * 圆点的半径和文字大小为屏幕像素，不随图片缩放；矩形框随图片缩放和旋转，线宽保持不变。
+ * 条目保存在{@link SpatialGrid}空间索引中，每帧只查询并绘制可见区域内的条目，
+ * 缩放比例小于条目的最小可见缩放比例时不绘制该条目，标签只在缩放比例达到{@link #setLabelMinScale(float)}后绘制，
+ * 点击检测只检查点击位置附近的条目，适合上万个条目。
+ * <p>
+ * 所有方法都应在主线程中调用
+ */
+public class MarkerOverlay {
+    private static final int TYPE_MARKER = 0;
+    private static final int TYPE_BOX = 1;
+    private static final float DEFAULT_MARKER_RADIUS = 6f; // 默认圆点半径，单位dp
+    private static final float DEFAULT_STROKE_WIDTH = 2f; // 默认矩形框线宽，单位dp
+    private static final float DEFAULT_TEXT_SIZE = 12f; // 默认标签文字大小，单位sp
+
+    /**
+     * 条目点击回调
+     */
+    public interface OnItemClickListener {
+        /**
+         * @param index 被点击的条目下标，即添加时的返回值
+         */
+        void onItemClick(MarkerOverlay overlay, int index);
+    }
+
+    private final SpatialGrid mGrid = new SpatialGrid();
+    private boolean mIndexDirty = false; // 条目变化后需要重新建立索引
+    private int[] mTypes = new int[16];
+    private int[] mColors = new int[16];
+    private String[] mLabels = new String[16];
+
+    private final float mDensity;
+    private float mMarkerRadius; // 圆点半径，单位像素
+    private float mStrokeWidth; // 矩形框线宽，单位像素
+    private float mLabelMinScale = 0f; // 缩放比例达到此值后才绘制标签
+    private final Paint mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private float[] mPoints = new float[64]; // 批量映射可见条目的锚点
+    private final float[] mCorners = new float[8]; // 矩形框四个角映射后的坐标
+    private final RectF mViewport = new RectF(); // 可见区域，坐标为图片原始坐标
+
+    private OnItemClickListener mOnItemClickListener;
+    private View mHost; // 显示此标记层的控件
+
+    /**
+     * @param density 屏幕密度，用于计算默认的圆点半径、线宽和文字大小
+     */
+    public MarkerOverlay(float density) {
+        mDensity = density;
+        mMarkerRadius = DEFAULT_MARKER_RADIUS * density;
+        mStrokeWidth = DEFAULT_STROKE_WIDTH * density;
+        mPaint.setStrokeWidth(mStrokeWidth);
+        mTextPaint.setTextSize(DEFAULT_TEXT_SIZE * density);
+        mTextPaint.setColor(Color.WHITE);
+        mTextPaint.setShadowLayer(2f * density, 0f, 0f, Color.BLACK);
+    }
+
+    /**
+     * 添加一个圆点标记
+     *
+     * @param x 图片原始坐标
+     * @param y 图片原始坐标
+     * @param minScale 缩放比例小于此值时不显示，始终显示时为0
+     * @return 条目下标
+     */
+    public int addMarker(float x, float y, int color, float minScale) {
+        return add(TYPE_MARKER, x, y, x, y, color, minScale);
+    }
+
+    /**
+     * 添加一个矩形框
+     *
+     * @param rect 图片原始坐标
+     * @param minScale 缩放比例小于此值时不显示，始终显示时为0
+     * @return 条目下标
+     */
+    public int addBox(RectF rect, int color, float minScale) {
+        return add(TYPE_BOX, rect.left, rect.top, rect.right, rect.bottom, color, minScale);
+    }
+
+    private int add(int type, float left, float top, float right, float bottom, int color,
+                    float minScale) {
+        int index = mGrid.add(left, top, right, bottom, minScale);
+        if (index == mTypes.length) {
+            int capacity = index * 2;
+            int[] types = new int[capacity];
+            int[] colors = new int[capacity];
+            String[] labels = new String[capacity];
+            System.arraycopy(mTypes, 0, types, 0, index);
+            System.arraycopy(mColors, 0, colors, 0, index);
+            System.arraycopy(mLabels, 0, labels, 0, index);
+            mTypes = types;
+            mColors = colors;
+            mLabels = labels;
+        }
+        mTypes[index] = type;
+        mColors[index] = color;
+        mLabels[index] = null;
+        onChanged();
+        return index;
+    }
+
+    /**
+     * 设置条目的标签，为null时不显示
+     */
+    public void setLabel(int index, String label) {
+        mLabels[index] = label;
+        invalidateHost();
+    }
+
+    public String getLabel(int index) {
+        return mLabels[index];
+    }
+
+    public void setColor(int index, int color) {
+        mColors[index] = color;
+        invalidateHost();
+    }
+
+    public int getColor(int index) {
+        return mColors[index];
+    }
+
+    /**
+     * 删除所有条目
+     */
+    public void clear() {
+        mGrid.clear();
+        for (int i = 0; i < mLabels.length; i++) {
+            mLabels[i] = null;
+        }
+        onChanged();
+    }
+
+    public int size() {
+        return mGrid.size();
+    }
+
+    /**
+     * @param radius 圆点半径，单位像素
+     */
+    public void setMarkerRadius(float radius) {
+        mMarkerRadius = radius;
+        invalidateHost();
+    }
+
+    /**
+     * @param strokeWidth 矩形框线宽，单位像素
+     */
+    public void setStrokeWidth(float strokeWidth) {
+        mStrokeWidth = strokeWidth;
+        invalidateHost();
+    }
+
+    /**
+     * @param textSize 标签文字大小，单位像素
+     */
+    public void setTextSize(float textSize) {
+        mTextPaint.setTextSize(textSize);
+        invalidateHost();
+    }
+
+    /**
+     * 缩放比例达到此值后才绘制标签，避免缩小时标签互相重叠
+     */
+    public void setLabelMinScale(float labelMinScale) {
+        mLabelMinScale = labelMinScale;
+        invalidateHost();
+    }
+
+    public void setOnItemClickListener(OnItemClickListener listener) {
+        mOnItemClickListener = listener;
+    }
+
+    public OnItemClickListener getOnItemClickListener() {
+        return mOnItemClickListener;
+    }
+
+    void setHost(View host) {
+        mHost = host;
+    }
+
+    private void onChanged() {
+        mIndexDirty = true;
+        invalidateHost();
+    }
+
+    private void invalidateHost() {
+        if (mHost != null) mHost.invalidate();
+    }
+
+    private void ensureIndex() {
+        if (!mIndexDirty) return;
+        mIndexDirty = false;
+        mGrid.build();
+    }
+
+    /**
+     * 点击检测，点击位置与圆点或矩形框的距离不超过slop时算作点中
+     *
+     * @param x 图片原始坐标
+     * @param y 图片原始坐标
+     * @param slop 允许的误差，单位像素
+     * @param scale 当前缩放比例
+     * @return 点中的条目下标，没有时返回-1
+     */
+    public int hitTest(float x, float y, float slop, float scale) {
+        if (scale <= 0f) return -1;
+        ensureIndex();
+        // 圆点以屏幕像素为单位，换算为图片原始坐标中的距离
+        return mGrid.hitTest(x, y, (slop + mMarkerRadius) / scale, scale);
+    }
+
+    /**
+     * 处理点击，点中条目时回调{@link OnItemClickListener}
+     *
+     * @return 是否点中了条目
+     */
+    boolean performClick(float x, float y, float slop, float scale) {
+        if (mOnItemClickListener == null) return false;
+        int index = hitTest(x, y, slop, scale);
+        if (index < 0) return false;
+        mOnItemClickListener.onItemClick(this, index);
+        return true;
+    }
+
+    /**
+     * 绘制可见区域内的条目，canvas的原点应为图片变换前的原点（即已经平移了padding）
+     *
+     * @param matrix 图片原始坐标到canvas坐标的矩阵
+     * @param inverse matrix的逆矩阵
+     * @param width 可见区域的宽度，canvas坐标
+     * @param height 可见区域的高度，canvas坐标
+     * @param scale 当前缩放比例
+     */
+    void draw(Canvas canvas, Matrix matrix, Matrix inverse, float width, float height, float scale) {
+        if (mGrid.size() == 0 || scale <= 0f) return;
+        ensureIndex();
+        // 可见区域映射回图片原始坐标，并向外扩展圆点半径和线宽
+        mViewport.set(0, 0, width, height);
+        inverse.mapRect(mViewport);
+        float margin = Math.max(mMarkerRadius, mStrokeWidth) / scale;
+        mViewport.inset(-margin, -margin);
+        int count = mGrid.query(mViewport.left, mViewport.top, mViewport.right, mViewport.bottom, scale);
+        if (count == 0) return;
+
+        // 所有可见条目的锚点（圆点中心、矩形框左上角）一次映射到canvas坐标
+        if (mPoints.length < count * 2) mPoints = new float[count * 2];
+        for (int i = 0; i < count; i++) {
+            int item = mGrid.getResult(i);
+            mPoints[i * 2] = mGrid.getLeft(item);
+            mPoints[i * 2 + 1] = mGrid.getTop(item);
+        }
+        matrix.mapPoints(mPoints, 0, mPoints, 0, count);
+
+        mPaint.setStrokeWidth(mStrokeWidth);
+        for (int i = 0; i < count; i++) {
+            int item = mGrid.getResult(i);
+            mPaint.setColor(mColors[item]);
+            if (mTypes[item] == TYPE_MARKER) {
+                mPaint.setStyle(Paint.Style.FILL);
+                canvas.drawCircle(mPoints[i * 2], mPoints[i * 2 + 1], mMarkerRadius, mPaint);
+            } else {
+                // 图片可能旋转，矩形框映射为四边形后按线段绘制
+                mCorners[0] = mGrid.getLeft(item);
+                mCorners[1] = mGrid.getTop(item);
+                mCorners[2] = mGrid.getRight(item);
+                mCorners[3] = mGrid.getTop(item);
+                mCorners[4] = mGrid.getRight(item);
+                mCorners[5] = mGrid.getBottom(item);
+                mCorners[6] = mGrid.getLeft(item);
+                mCorners[7] = mGrid.getBottom(item);
+                matrix.mapPoints(mCorners);
+                mPaint.setStyle(Paint.Style.STROKE);
+                for (int k = 0; k < 4; k++) {
+                    int next = (k + 1) % 4;
+                    canvas.drawLine(mCorners[k * 2], mCorners[k * 2 + 1],
+                            mCorners[next * 2], mCorners[next * 2 + 1], mPaint);
+                }
+            }
+        }
+
+        if (scale < mLabelMinScale) return;
+        for (int i = 0; i < count; i++) {
+            String label = mLabels[mGrid.getResult(i)];
+            if (label == null) continue;
+            canvas.drawText(label, mPoints[i * 2] + mMarkerRadius + 2f * mDensity,
+                    mPoints[i * 2 + 1] - 2f * mDensity, mTextPaint);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package cn.lkllkllkl.transformativeimageview;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+
+/**
+ * 放大后显示在控件右上角的缩略图导航，缩略图上用多边形标出当前可见的区域。
+ * <p>
+ * 缩略图每张图片只生成一次，在所有控件共用的后台线程中由原图缩小绘制：
+ * 普通Bitmap直接缩小，分块解码的图片使用已解码的底图（生成期间在缓存中保持引用），
+ * 其他图片使用ConstantState创建的副本绘制，不会与主线程同时访问同一个Drawable。
+ * 生成完成前只绘制背景和可见区域。
+ * <p>
+ * 除后台线程外，所有方法都应在主线程中调用
+ */
+class Minimap {
+    private static final String TAG = Minimap.class.getSimpleName();
+    private static final float DEFAULT_SIZE = 96f; // 缩略图较长边的长度，单位dp
+    private static final float MARGIN = 12f; // 与控件边缘的距离，单位dp
+    private static final float TOUCH_SLOP = 8f; // 缩略图外仍算作点中的距离，单位dp
+    private static final int BACKGROUND_COLOR = 0x66000000;
+    private static final int VIEWPORT_FILL_COLOR = 0x33FFFFFF;
+    private static HandlerThread sWorkerThread; // 所有缩略图共用的生成线程
+    private static Handler sWorkerHandler;
+
+    /**
+     * 缩略图回调，在主线程中执行
+     */
+    interface Callback {
+        /**
+         * 缩略图已生成，需要重绘
+         */
+        void onThumbnailReady();
+    }
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Callback mCallback;
+    private final float mSize; // 缩略图较长边的长度，单位像素
+    private final float mMargin;
+    private final float mTouchSlop;
+    private Drawable mSource; // 生成缩略图的图片
+    private int mGeneration = 0; // 图片每次变化都会增加，用于丢弃旧图片的结果
+    private boolean mPending = false; // 是否正在生成缩略图
+    private Bitmap mThumbnail; // 缩略图，生成完成前为null
+    private float mImageWidth; // 图片原始宽度
+    private float mImageHeight;
+    private float mMapScale; // 图片原始坐标到缩略图的缩放比例
+    private final RectF mBounds = new RectF(); // 缩略图在控件中的区域
+    private final Path mViewportPath = new Path(); // 可见区域在缩略图中的多边形
+    private final Paint mBitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Paint mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+    /**
+     * @param density 屏幕密度，用于计算缩略图大小和边距
+     */
+    Minimap(Callback callback, float density) {
+        mCallback = callback;
+        mSize = DEFAULT_SIZE * density;
+        mMargin = MARGIN * density;
+        mTouchSlop = TOUCH_SLOP * density;
+        mPaint.setStrokeWidth(density);
+    }
+
+    private static synchronized Handler getWorkerHandler() {
+        if (sWorkerHandler == null) {
+            sWorkerThread = new HandlerThread(TAG);
+            sWorkerThread.start();
+            sWorkerHandler = new Handler(sWorkerThread.getLooper());
+        }
+        return sWorkerHandler;
+    }
+
+    /**
+     * 设置图片，与当前图片相同且已生成或正在生成缩略图时不重复生成。
+     * 分块解码的图片底图尚未解码时暂不生成，底图解码完成后再次调用即可
+     */
+    void setSource(Drawable drawable) {
+        if (drawable == mSource && (mThumbnail != null || mPending)) return;
+        mGeneration++;
+        mSource = drawable;
+        mThumbnail = null;
+        mPending = false;
+        if (drawable == null || drawable.getIntrinsicWidth() <= 0
+                || drawable.getIntrinsicHeight() <= 0) {
+            mImageWidth = 0f;
+            mImageHeight = 0f;
+            return;
+        }
+        mImageWidth = drawable.getIntrinsicWidth();
+        mImageHeight = drawable.getIntrinsicHeight();
+        mMapScale = mSize / Math.max(mImageWidth, mImageHeight);
+
+        Bitmap bitmap = null;
+        TileCache tileCache = null;
+        String key = null;
+        Drawable copy = null;
+        if (drawable instanceof TiledDrawable) {
+            TileManager tileManager = ((TiledDrawable) drawable).getTileManager();
+            bitmap = tileManager.getBaseBitmap();
+            tileCache = tileManager.getTileCache();
+            key = tileManager.getBaseKey();
+            // 生成期间保持底图的引用，避免被淘汰复用
+            if (bitmap == null || !tileCache.retain(key)) return;
+        } else if (drawable instanceof BitmapDrawable) {
+            bitmap = ((BitmapDrawable) drawable).getBitmap();
+            if (bitmap == null) return;
+        } else if (drawable.getConstantState() != null) {
+            copy = drawable.getConstantState().newDrawable().mutate();
+            copy.setBounds(0, 0, (int) mImageWidth, (int) mImageHeight);
+        } else {
+            return;
+        }
+        mPending = true;
+        startBuild(bitmap, tileCache, key, copy);
+    }
+
+    private void startBuild(final Bitmap bitmap, final TileCache tileCache, final String key,
+                            final Drawable copy) {
+        final int generation = mGeneration;
+        final int imageWidth = (int) mImageWidth;
+        final int imageHeight = (int) mImageHeight;
+        final int width = Math.max(1, Math.round(mImageWidth * mMapScale));
+        final int height = Math.max(1, Math.round(mImageHeight * mMapScale));
+        getWorkerHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                Bitmap thumbnail = null;
+                try {
+                    thumbnail = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                    Canvas canvas = new Canvas(thumbnail);
+                    if (bitmap != null) {
+                        canvas.drawBitmap(bitmap, null, new Rect(0, 0, width, height),
+                                new Paint(Paint.FILTER_BITMAP_FLAG));
+                    } else {
+                        canvas.scale((float) width / imageWidth, (float) height / imageHeight);
+                        copy.draw(canvas);
+                    }
+                } catch (OutOfMemoryError e) {
+                    thumbnail = null;
+                } finally {
+                    if (tileCache != null) tileCache.release(key);
+                }
+                final Bitmap result = thumbnail;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onThumbnailBuilt(result, generation);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onThumbnailBuilt(Bitmap thumbnail, int generation) {
+        if (generation != mGeneration) return;
+        mPending = false;
+        mThumbnail = thumbnail;
+        if (thumbnail != null) mCallback.onThumbnailReady();
+    }
+
+    /**
+     * 计算缩略图在控件中的区域，位于控件右上角
+     */
+    void layout(int viewWidth) {
+        float width = mImageWidth * mMapScale;
+        float height = mImageHeight * mMapScale;
+        mBounds.set(viewWidth - mMargin - width, mMargin, viewWidth - mMargin, mMargin + height);
+    }
+
+    /**
+     * @return 缩略图在控件中的区域，调用{@link #layout(int)}后有效
+     */
+    RectF getBounds() {
+        return mBounds;
+    }
+
+    boolean hasSource() {
+        return mImageWidth > 0f && mImageHeight > 0f;
+    }
+
+    /**
+     * @return 控件坐标是否点中了缩略图
+     */
+    boolean contains(float x, float y) {
+        return hasSource() && x >= mBounds.left - mTouchSlop && x <= mBounds.right + mTouchSlop
+                && y >= mBounds.top - mTouchSlop && y <= mBounds.bottom + mTouchSlop;
+    }
+
+    /**
+     * 把缩略图上的控件坐标映射为图片原始坐标，超出缩略图的部分取缩略图边缘
+     *
+     * @param out 保存结果[x, y]
+     */
+    void mapToImage(float x, float y, float[] out) {
+        float mapX = Math.max(mBounds.left, Math.min(x, mBounds.right));
+        float mapY = Math.max(mBounds.top, Math.min(y, mBounds.bottom));
+        out[0] = (mapX - mBounds.left) / mMapScale;
+        out[1] = (mapY - mBounds.top) / mMapScale;
+    }
+
+    /**
+     * 绘制缩略图和可见区域，canvas的坐标系应为控件坐标系
+     *
+     * @param corners 控件四个角在图片原始坐标中的位置[x0, y0, ..., x3, y3]
+     */
+    void draw(Canvas canvas, float[] corners) {
+        if (!hasSource()) return;
+        mPaint.setStyle(Paint.Style.FILL);
+        mPaint.setColor(BACKGROUND_COLOR);
+        canvas.drawRect(mBounds, mPaint);
+        if (mThumbnail != null) canvas.drawBitmap(mThumbnail, null, mBounds, mBitmapPaint);
+
+        // 可见区域可能随图片旋转，按四个角绘制多边形，并限制在缩略图内
+        mViewportPath.reset();
+        for (int i = 0; i < 8; i += 2) {
+            float x = mBounds.left + corners[i] * mMapScale;
+            float y = mBounds.top + corners[i + 1] * mMapScale;
+            if (i == 0) {
+                mViewportPath.moveTo(x, y);
+            } else {
+                mViewportPath.lineTo(x, y);
+            }
+        }
+        mViewportPath.close();
+        int saveCount = canvas.save();
+        canvas.clipRect(mBounds);
+        mPaint.setColor(VIEWPORT_FILL_COLOR);
+        canvas.drawPath(mViewportPath, mPaint);
+        mPaint.setStyle(Paint.Style.STROKE);
+        mPaint.setColor(Color.WHITE);
+        canvas.drawPath(mViewportPath, mPaint);
+        canvas.restoreToCount(saveCount);
+        canvas.drawRect(mBounds, mPaint);
+    }
+
+    /**
+     * 丢弃缩略图和正在进行的生成
+     */
+    void release() {
+        mGeneration++;
+        mSource = null;
+        mThumbnail = null;
+        mPending = false;
+        mImageWidth = 0f;
+        mImageHeight = 0f;
+    }
+}
@@ -0,0 +1,210 @@
+package cn.lkllkllkl.transformativeimageview;
+
+import cn.lkllkllkl.transformativeimageview.core.Histogram;
+
+/**
+ * 性能统计，通过{@link TransformativeImageView#setPerformanceMetrics(PerformanceMetrics)}开启。
+ * 未设置时控件中只有一次判空，几乎没有开销。
+ * <p>
+ * 所有统计都在主线程中记录，也应在主线程中读取和重置，
+ * 可以定期读取后调用{@link #reset()}，上报到自己的监控系统中。
+ * 多个控件可以共用同一个对象来汇总统计
+ */
+public class PerformanceMetrics {
+    private final Histogram mTouchLatency = new Histogram();
+    private final Histogram mCheckRotationTime = new Histogram();
+    private final Histogram mCheckScaleTime = new Histogram();
+    private final Histogram mCheckBorderTime = new Histogram();
+    private final Histogram mRevertFrameTime = new Histogram();
+    private final Histogram mTileDecodeTime = new Histogram();
+    private long mMoveEventCount = 0; // ACTION_MOVE事件数
+    private long mMatrixCommitCount = 0; // 由触摸引起的矩阵提交次数
+    private long mRevertFrameCount = 0; // 回弹动画帧数
+    private long mDroppedFrameCount = 0; // 回弹动画中丢失的帧数
+    private long mTileCacheHitCount = 0; // 图块从缓存中取回的次数
+    private long mTileCacheMissCount = 0; // 图块需要解码的次数
+    private long mPrefetchCount = 0; // 预取解码的图块数
+    private long mPrefetchHitCount = 0; // 预取后进入可见区域的图块数
+    private long mPrefetchWastedCount = 0; // 解码完成但从未显示就被释放的预取图块数
+    private int mMaxDecodeQueueDepth = 0; // 解码队列的最大长度
+
+    /**
+     * ACTION_MOVE事件发生到矩阵提交的延迟。
+     * 开启触摸事件合并时多个事件一起提交，记录其中最早的事件的延迟。
+     * 事件时间的精度为毫秒
+     */
+    public Histogram getTouchLatency() {
+        return mTouchLatency;
+    }
+
+    public Histogram getCheckRotationTime() {
+        return mCheckRotationTime;
+    }
+
+    public Histogram getCheckScaleTime() {
+        return mCheckScaleTime;
+    }
+
+    public Histogram getCheckBorderTime() {
+        return mCheckBorderTime;
+    }
+
+    /**
+     * 回弹动画相邻两帧的间隔
+     */
+    public Histogram getRevertFrameTime() {
+        return mRevertFrameTime;
+    }
+
+    /**
+     * 分块解码模式下单个图块的解码耗时（在解码线程中测量）
+     */
+    public Histogram getTileDecodeTime() {
+        return mTileDecodeTime;
+    }
+
+    public long getMoveEventCount() {
+        return mMoveEventCount;
+    }
+
+    public long getMatrixCommitCount() {
+        return mMatrixCommitCount;
+    }
+
+    public long getRevertFrameCount() {
+        return mRevertFrameCount;
+    }
+
+    /**
+     * 回弹动画中帧间隔超过一个刷新周期而丢失的帧数
+     */
+    public long getDroppedFrameCount() {
+        return mDroppedFrameCount;
+    }
+
+    public long getTileCacheHitCount() {
+        return mTileCacheHitCount;
+    }
+
+    public long getTileCacheMissCount() {
+        return mTileCacheMissCount;
+    }
+
+    /**
+     * 分块解码模式下根据平移和缩放速度提前解码的图块数，从缓存中取回的图块不计入
+     */
+    public long getPrefetchCount() {
+        return mPrefetchCount;
+    }
+
+    /**
+     * 预取的图块之后进入了可见区域的次数
+     */
+    public long getPrefetchHitCount() {
+        return mPrefetchHitCount;
+    }
+
+    /**
+     * 预取的图块解码完成后从未显示就被释放的次数，即预测错误浪费的解码
+     */
+    public long getPrefetchWastedCount() {
+        return mPrefetchWastedCount;
+    }
+
+    /**
+     * 提交解码任务后等待解码的任务数的最大值
+     */
+    public int getMaxDecodeQueueDepth() {
+        return mMaxDecodeQueueDepth;
+    }
+
+    /**
+     * @return 图块缓存命中率，范围为[0, 1]，没有请求过图块时为0
+     */
+    public float getTileCacheHitRate() {
+        long total = mTileCacheHitCount + mTileCacheMissCount;
+        return total == 0 ? 0f : (float) mTileCacheHitCount / total;
+    }
+
+    void recordMoveEvent() {
+        mMoveEventCount++;
+    }
+
+    void recordMatrixCommit(long latencyNanos) {
+        mMatrixCommitCount++;
+        mTouchLatency.record(latencyNanos);
+    }
+
+    void recordRevertFrame(long frameTimeNanos, int droppedFrames) {
+        mRevertFrameCount++;
+        mDroppedFrameCount += droppedFrames;
+        mRevertFrameTime.record(frameTimeNanos);
+    }
+
+    void recordTileCache(boolean hit) {
+        if (hit) {
+            mTileCacheHitCount++;
+        } else {
+            mTileCacheMissCount++;
+        }
+    }
+
+    void recordPrefetch() {
+        mPrefetchCount++;
+    }
+
+    void recordPrefetchHit() {
+        mPrefetchHitCount++;
+    }
+
+    void recordPrefetchWasted() {
+        mPrefetchWastedCount++;
+    }
+
+    void recordDecodeQueueDepth(int depth) {
+        if (depth > mMaxDecodeQueueDepth) mMaxDecodeQueueDepth = depth;
+    }
+
+    /**
+     * 清空所有统计
+     */
+    public void reset() {
+        mTouchLatency.reset();
+        mCheckRotationTime.reset();
+        mCheckScaleTime.reset();
+        mCheckBorderTime.reset();
+        mRevertFrameTime.reset();
+        mTileDecodeTime.reset();
+        mMoveEventCount = 0;
+        mMatrixCommitCount = 0;
+        mRevertFrameCount = 0;
+        mDroppedFrameCount = 0;
+        mTileCacheHitCount = 0;
+        mTileCacheMissCount = 0;
+        mPrefetchCount = 0;
+        mPrefetchHitCount = 0;
+        mPrefetchWastedCount = 0;
+        mMaxDecodeQueueDepth = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "PerformanceMetrics{"
+                + "touchLatency[" + mTouchLatency + "]"
+                + ", checkRotation[" + mCheckRotationTime + "]"
+                + ", checkScale[" + mCheckScaleTime + "]"
+                + ", checkBorder[" + mCheckBorderTime + "]"
+                + ", revertFrame[" + mRevertFrameTime + "]"
+                + ", tileDecode[" + mTileDecodeTime + "]"
+                + ", moveEvents=" + mMoveEventCount
+                + ", commits=" + mMatrixCommitCount
+                + ", revertFrames=" + mRevertFrameCount
+                + ", droppedFrames=" + mDroppedFrameCount
+                + ", tileCacheHitRate=" + getTileCacheHitRate()
+                + ", prefetches=" + mPrefetchCount
+                + ", prefetchHits=" + mPrefetchHitCount
+                + ", prefetchWasted=" + mPrefetchWastedCount
+                + ", maxDecodeQueueDepth=" + mMaxDecodeQueueDepth
+                + "}";
+    }
+}
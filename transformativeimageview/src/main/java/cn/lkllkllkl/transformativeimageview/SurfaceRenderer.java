@@ -0,0 +1,334 @@
+package cn.lkllkllkl.transformativeimageview;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+import android.graphics.SurfaceTexture;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+import android.view.TextureView;
+
+import java.util.concurrent.locks.LockSupport;
+
+import cn.lkllkllkl.transformativeimageview.core.FrameMailbox;
+
+/**
+ * 在专用的渲染线程中把图片绘制到TextureView或SurfaceView上。
+ * <p>
+ * 主线程只负责手势和变换的计算，每次矩阵变化时把矩阵和需要绘制的Bitmap填入一帧，
+ * 通过{@link FrameMailbox}交给渲染线程，交接只有一次原子交换，双方都不会阻塞；
+ * 渲染线程处理慢时只绘制最新的一帧。帧中引用的图块在{@link TileCache}中保持引用，
+ * 绘制完成前不会被淘汰或复用。
+ * <p>
+ * Surface的创建和销毁在主线程中回调，与渲染线程的绘制之间通过锁互斥，
+ * 保证Surface销毁后不再绘制。
+ * <p>
+ * API 23及以上使用硬件加速的canvas，缩放和过滤由GPU完成；更低的版本只能使用软件绘制
+ */
+class SurfaceRenderer implements Runnable, TextureView.SurfaceTextureListener, SurfaceHolder.Callback {
+    private static final String TAG = SurfaceRenderer.class.getSimpleName();
+
+    /**
+     * 渲染回调，在主线程中执行
+     */
+    interface Callback {
+        /**
+         * Surface已创建或大小发生变化，需要重新提交当前帧
+         */
+        void onSurfaceChanged();
+    }
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Callback mCallback;
+    private final FrameMailbox<Frame> mMailbox = new FrameMailbox<>();
+    private final Thread mThread;
+    private volatile boolean mQuit = false;
+    private final Paint mPaint = new Paint(); // 只在渲染线程中使用
+
+    private final Object mSurfaceLock = new Object(); // 保护mSurface，绘制期间Surface不会被销毁
+    private Surface mSurface; // 绘制的目标，没有可用的Surface时为null
+    private boolean mOwnsSurface = false; // mSurface是否由此类创建，需要由此类释放
+    private TextureView mTextureView;
+    private SurfaceView mSurfaceView;
+
+    private final Runnable mSurfaceChangedRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!mQuit) mCallback.onSurfaceChanged();
+        }
+    };
+
+    SurfaceRenderer(Callback callback) {
+        mCallback = callback;
+        mThread = new Thread(this, TAG);
+        mThread.start();
+    }
+
+    /**
+     * 绘制到TextureView上，TextureView设置为非不透明以便透出控件的背景
+     */
+    void attach(TextureView textureView) {
+        detach();
+        mTextureView = textureView;
+        textureView.setOpaque(false);
+        textureView.setSurfaceTextureListener(this);
+        if (textureView.isAvailable()) {
+            onSurfaceTextureAvailable(textureView.getSurfaceTexture(),
+                    textureView.getWidth(), textureView.getHeight());
+        }
+    }
+
+    /**
+     * 绘制到SurfaceView上，Surface设置为半透明格式
+     */
+    void attach(SurfaceView surfaceView) {
+        detach();
+        mSurfaceView = surfaceView;
+        SurfaceHolder holder = surfaceView.getHolder();
+        holder.setFormat(PixelFormat.TRANSLUCENT);
+        holder.addCallback(this);
+        Surface surface = holder.getSurface();
+        if (surface != null && surface.isValid()) setSurface(surface, false);
+    }
+
+    /**
+     * 不再绘制到之前的TextureView或SurfaceView
+     */
+    void detach() {
+        if (mTextureView != null) {
+            mTextureView.setSurfaceTextureListener(null);
+            mTextureView = null;
+        }
+        if (mSurfaceView != null) {
+            mSurfaceView.getHolder().removeCallback(this);
+            mSurfaceView = null;
+        }
+        setSurface(null, false);
+    }
+
+    /**
+     * 生产者取出一帧用于填充，填充完成后调用{@link #post(Frame)}
+     */
+    Frame obtainFrame() {
+        Frame frame = mMailbox.obtain();
+        return frame != null ? frame : new Frame();
+    }
+
+    /**
+     * 提交一帧，渲染线程尚未绘制的旧帧被丢弃
+     */
+    void post(Frame frame) {
+        Frame stale = mMailbox.post(frame);
+        if (stale != null) {
+            stale.clear();
+            mMailbox.recycle(stale);
+        }
+        LockSupport.unpark(mThread);
+    }
+
+    /**
+     * 停止渲染线程并释放Surface，释放后不可再使用
+     */
+    void release() {
+        mQuit = true;
+        mMainHandler.removeCallbacks(mSurfaceChangedRunnable);
+        detach();
+        LockSupport.unpark(mThread);
+    }
+
+    @Override
+    public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+        while (!mQuit) {
+            Frame frame = mMailbox.take();
+            if (frame == null) {
+                LockSupport.park(this);
+                continue;
+            }
+            render(frame);
+            frame.clear();
+            mMailbox.recycle(frame);
+        }
+        // 退出前归还未绘制的帧中图块的引用
+        Frame frame = mMailbox.take();
+        if (frame != null) frame.clear();
+    }
+
+    private void render(Frame frame) {
+        synchronized (mSurfaceLock) {
+            if (mSurface == null || !mSurface.isValid()) return;
+            Canvas canvas;
+            try {
+                canvas = lockCanvas();
+            } catch (IllegalArgumentException | IllegalStateException
+                    | Surface.OutOfResourcesException e) {
+                Log.w(TAG, "lock canvas failed", e);
+                return;
+            }
+            try {
+                canvas.drawColor(0, PorterDuff.Mode.CLEAR);
+                frame.draw(canvas, mPaint);
+            } finally {
+                mSurface.unlockCanvasAndPost(canvas);
+            }
+        }
+    }
+
+    /**
+     * 锁定mSurface用于绘制，API 23及以上使用硬件加速的canvas，
+     * 否则每帧都要在渲染线程中用CPU缩放、过滤整个Surface大小的图片
+     */
+    private Canvas lockCanvas() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) return mSurface.lockHardwareCanvas();
+        return mSurface.lockCanvas(null);
+    }
+
+    /**
+     * 替换Surface，会等待正在进行的绘制完成
+     */
+    private void setSurface(Surface surface, boolean owns) {
+        synchronized (mSurfaceLock) {
+            if (mSurface != null && mOwnsSurface) mSurface.release();
+            mSurface = surface;
+            mOwnsSurface = owns;
+        }
+        if (surface != null) {
+            // Surface的回调可能在View的回调中执行，发送到主线程稍后通知
+            mMainHandler.removeCallbacks(mSurfaceChangedRunnable);
+            mMainHandler.post(mSurfaceChangedRunnable);
+        }
+    }
+
+    //-----TextureView-----------------
+
+    @Override
+    public void onSurfaceTextureAvailable(SurfaceTexture surfaceTexture, int width, int height) {
+        setSurface(new Surface(surfaceTexture), true);
+    }
+
+    @Override
+    public void onSurfaceTextureSizeChanged(SurfaceTexture surfaceTexture, int width, int height) {
+        mMainHandler.removeCallbacks(mSurfaceChangedRunnable);
+        mMainHandler.post(mSurfaceChangedRunnable);
+    }
+
+    @Override
+    public boolean onSurfaceTextureDestroyed(SurfaceTexture surfaceTexture) {
+        setSurface(null, false);
+        return true;
+    }
+
+    @Override
+    public void onSurfaceTextureUpdated(SurfaceTexture surfaceTexture) {
+    }
+
+    //-----SurfaceView-----------------
+
+    @Override
+    public void surfaceCreated(SurfaceHolder holder) {
+        setSurface(holder.getSurface(), false);
+    }
+
+    @Override
+    public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+        mMainHandler.removeCallbacks(mSurfaceChangedRunnable);
+        mMainHandler.post(mSurfaceChangedRunnable);
+    }
+
+    @Override
+    public void surfaceDestroyed(SurfaceHolder holder) {
+        setSurface(null, false);
+    }
+
+    /**
+     * 渲染线程绘制的一帧：矩阵和需要绘制的Bitmap，Bitmap按顺序绘制到图片原始坐标中的区域。
+     * 在主线程中填充，提交后只由渲染线程读取，复用时不分配新对象
+     */
+    static class Frame {
+        private final Matrix mMatrix = new Matrix(); // 图片原始坐标到Surface坐标
+        private boolean mFilter = true; // 是否使用双线性过滤
+        private int mAlpha = 255;
+        private Bitmap[] mBitmaps = new Bitmap[16];
+        private Rect[] mRects = new Rect[16];
+        private String[] mKeys = new String[16]; // 图块的缓存key，不是图块时为null
+        private int mCount = 0;
+        private TileCache mTileCache; // 图块所在的缓存
+
+        /**
+         * @param matrix 图片的矩阵
+         * @param dx 矩阵之前的平移，即控件的padding
+         */
+        void setMatrix(Matrix matrix, float dx, float dy) {
+            mMatrix.set(matrix);
+            mMatrix.postTranslate(dx, dy);
+        }
+
+        void setFilter(boolean filter) {
+            mFilter = filter;
+        }
+
+        void setAlpha(int alpha) {
+            mAlpha = alpha;
+        }
+
+        /**
+         * 添加一个Bitmap，图块需要先在缓存中增加引用，帧被丢弃或绘制完成后释放
+         *
+         * @param rect Bitmap在图片原始坐标中的区域
+         * @param tileCache 图块所在的缓存，不是图块时为null
+         * @param key 图块的缓存key，不是图块时为null
+         */
+        void add(Bitmap bitmap, Rect rect, TileCache tileCache, String key) {
+            if (mCount == mBitmaps.length) {
+                int capacity = mCount * 2;
+                Bitmap[] bitmaps = new Bitmap[capacity];
+                Rect[] rects = new Rect[capacity];
+                String[] keys = new String[capacity];
+                System.arraycopy(mBitmaps, 0, bitmaps, 0, mCount);
+                System.arraycopy(mRects, 0, rects, 0, mCount);
+                System.arraycopy(mKeys, 0, keys, 0, mCount);
+                mBitmaps = bitmaps;
+                mRects = rects;
+                mKeys = keys;
+            }
+            if (mRects[mCount] == null) mRects[mCount] = new Rect();
+            mBitmaps[mCount] = bitmap;
+            mRects[mCount].set(rect);
+            mKeys[mCount] = key;
+            if (tileCache != null) mTileCache = tileCache;
+            mCount++;
+        }
+
+        void draw(Canvas canvas, Paint paint) {
+            paint.setFilterBitmap(mFilter);
+            paint.setAlpha(mAlpha);
+            canvas.concat(mMatrix);
+            for (int i = 0; i < mCount; i++) {
+                canvas.drawBitmap(mBitmaps[i], null, mRects[i], paint);
+            }
+        }
+
+        /**
+         * 清空帧的内容，归还图块的引用
+         */
+        void clear() {
+            for (int i = 0; i < mCount; i++) {
+                if (mKeys[i] != null) mTileCache.release(mKeys[i]);
+                mBitmaps[i] = null;
+                mKeys[i] = null;
+            }
+            mCount = 0;
+            mTileCache = null;
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package cn.lkllkllkl.transformativeimageview;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 进程内共享的图块缓存，多个TransformativeImageView可共用同一个实例。
+ * <p>
+ * 缓存按字节大小进行LRU淘汰，正在被View使用的图块（引用计数大于0）不会被淘汰；
+ * 被淘汰的Bitmap放入复用池，通过{@code BitmapFactory.Options.inBitmap}供后续解码复用，减少内存分配和GC。
+ * 内存紧张时（{@link #onTrimMemory(int)}、{@link #onLowMemory()}）释放未使用的图块和复用池。
+ * <p>
+ * 通过{@link #getDefault(Context)}获取的默认实例已注册到Application，
+ * 自行创建的实例需要调用{@link Context#registerComponentCallbacks(android.content.ComponentCallbacks)}
+ * 才能响应内存紧张事件
+ */
+public class TileCache implements ComponentCallbacks2 {
+    private static final int DEFAULT_MEMORY_FRACTION = 8; // 默认缓存大小为最大可用内存的1/8
+    private static final int REUSE_POOL_FRACTION = 4; // 复用池大小为缓存大小的1/4
+
+    private static TileCache sDefault;
+
+    private final LinkedHashMap<String, Entry> mEntries =
+            new LinkedHashMap<>(16, 0.75f, true); // 按访问顺序排列，最早访问的在前
+    private final List<Bitmap> mReusePool = new ArrayList<>(); // 可复用的Bitmap
+    private final long mMaxSize; // 缓存最大字节数
+    private long mSize = 0; // 缓存当前字节数
+    private long mReusePoolSize = 0; // 复用池当前字节数
+
+    private int mHitCount = 0;
+    private int mMissCount = 0;
+    private int mPutCount = 0;
+    private int mEvictionCount = 0;
+    private int mReuseCount = 0;
+
+    /**
+     * 获取默认的共享缓存，大小为最大可用内存的1/8
+     */
+    public static synchronized TileCache getDefault(Context context) {
+        if (sDefault == null) {
+            sDefault = new TileCache(Runtime.getRuntime().maxMemory() / DEFAULT_MEMORY_FRACTION);
+            context.getApplicationContext().registerComponentCallbacks(sDefault);
+        }
+        return sDefault;
+    }
+
+    /**
+     * @param maxSize 缓存最大字节数，不包括正在使用的图块
+     */
+    public TileCache(long maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * 获取缓存中的图块并增加其引用计数，使用完后需调用{@link #release(String)}
+     *
+     * @return 缓存的Bitmap，不存在则返回null
+     */
+    synchronized Bitmap acquire(String key) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        entry.refCount++;
+        return entry.bitmap;
+    }
+
+    /**
+     * 增加已持有的图块的引用计数，不计入命中统计，用于渲染线程在绘制完成前保留图块
+     *
+     * @return 图块是否在缓存中
+     */
+    synchronized boolean retain(String key) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) return false;
+        entry.refCount++;
+        return true;
+    }
+
+    /**
+     * 放入新解码的图块，引用计数为1。若其他View已放入相同的图块，
+     * 则返回已缓存的图块，新图块进入复用池
+     *
+     * @return 实际使用的Bitmap
+     */
+    synchronized Bitmap put(String key, Bitmap bitmap) {
+        mPutCount++;
+        Entry entry = mEntries.get(key);
+        if (entry != null) {
+            entry.refCount++;
+            addToReusePool(bitmap);
+            return entry.bitmap;
+        }
+        mEntries.put(key, new Entry(bitmap));
+        mSize += bitmap.getRowBytes() * bitmap.getHeight();
+        trimToSize(mMaxSize);
+        return bitmap;
+    }
+
+    /**
+     * 减少图块引用计数，引用计数为0的图块才会被淘汰
+     */
+    synchronized void release(String key) {
+        Entry entry = mEntries.get(key);
+        if (entry != null && entry.refCount > 0) {
+            entry.refCount--;
+            if (entry.refCount == 0) trimToSize(mMaxSize);
+        }
+    }
+
+    /**
+     * 从复用池中取出尺寸和格式都相同的Bitmap，用作{@code BitmapFactory.Options.inBitmap}
+     *
+     * @return 可复用的Bitmap，不存在则返回null
+     */
+    synchronized Bitmap obtainReusable(int width, int height, Bitmap.Config config) {
+        for (int i = mReusePool.size() - 1; i >= 0; i--) {
+            Bitmap bitmap = mReusePool.get(i);
+            if (bitmap.getWidth() == width && bitmap.getHeight() == height
+                    && bitmap.getConfig() == config) {
+                mReusePool.remove(i);
+                mReusePoolSize -= bitmap.getRowBytes() * bitmap.getHeight();
+                mReuseCount++;
+                return bitmap;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 淘汰最久未使用且未被引用的图块，直到缓存大小不超过maxSize
+     */
+    private void trimToSize(long maxSize) {
+        Iterator<Map.Entry<String, Entry>> iterator = mEntries.entrySet().iterator();
+        while (mSize > maxSize && iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            if (entry.refCount > 0) continue;
+            iterator.remove();
+            mSize -= entry.bitmap.getRowBytes() * entry.bitmap.getHeight();
+            mEvictionCount++;
+            addToReusePool(entry.bitmap);
+        }
+    }
+
+    private void addToReusePool(Bitmap bitmap) {
+        long byteCount = bitmap.getRowBytes() * bitmap.getHeight();
+        if (bitmap.isMutable() && mReusePoolSize + byteCount <= mMaxSize / REUSE_POOL_FRACTION) {
+            mReusePool.add(bitmap);
+            mReusePoolSize += byteCount;
+        } else {
+            bitmap.recycle();
+        }
+    }
+
+    private void clearReusePool() {
+        for (int i = 0, size = mReusePool.size(); i < size; i++) {
+            mReusePool.get(i).recycle();
+        }
+        mReusePool.clear();
+        mReusePoolSize = 0;
+    }
+
+    /**
+     * 释放所有未被引用的图块和复用池
+     */
+    public synchronized void evictAll() {
+        trimToSize(0);
+        clearReusePool();
+    }
+
+    @Override
+    public synchronized void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_MODERATE || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            evictAll();
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            trimToSize(mMaxSize / 2);
+            clearReusePool();
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        evictAll();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    //-------statistics---------
+
+    /**
+     * @return 缓存中图块的总字节数，包括正在使用的图块
+     */
+    public synchronized long size() {
+        return mSize;
+    }
+
+    public long maxSize() {
+        return mMaxSize;
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized int getPutCount() {
+        return mPutCount;
+    }
+
+    public synchronized int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * @return 通过复用池复用Bitmap的次数
+     */
+    public synchronized int getReuseCount() {
+        return mReuseCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        int accesses = mHitCount + mMissCount;
+        int hitPercent = accesses != 0 ? (100 * mHitCount / accesses) : 0;
+        return String.format("TileCache[size=%d,maxSize=%d,hits=%d,misses=%d,hitRate=%d%%,"
+                        + "evictions=%d,reuses=%d]",
+                mSize, mMaxSize, mHitCount, mMissCount, hitPercent, mEvictionCount, mReuseCount);
+    }
+
+    private static class Entry {
+        final Bitmap bitmap;
+        int refCount = 1;
+
+        Entry(Bitmap bitmap) {
+            this.bitmap = bitmap;
+        }
+    }
+}
@@ -0,0 +1,675 @@
+package cn.lkllkllkl.transformativeimageview;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import cn.lkllkllkl.transformativeimageview.core.FloatRect;
+import cn.lkllkllkl.transformativeimageview.core.ViewportPredictor;
+
+/**
+ * 使用BitmapRegionDecoder分块解码大图，只解码与可见区域相交的图块，
+ * 内存占用只与屏幕大小有关，而与图片大小无关。
+ * <p>
+ * 图片按采样率组织为多级金字塔：最粗糙的一级为与屏幕大小相当的整图底图，打开图片后首先解码并始终绘制；
+ * 更精细的级别在缩放比例超过阈值后才按图块解码，缩小后再释放。
+ * <p>
+ * 底图和图块都保存在共享的{@link TileCache}中，不再可见的图块交还给缓存，再次可见时可直接取回。
+ * <p>
+ * 解码任务在单个后台线程中按优先级执行：可见图块按离可见区域中心的距离排序，
+ * 预取的图块排在所有可见图块之后，不再需要的图块从队列中移除。
+ * 预取根据可见区域的平移和缩放速度预测若干帧后的可见区域，提前解码其中的图块，
+ * 队列中的任务过多时不再预取，避免预取挤占可见图块的解码
+ */
+class TileManager {
+    private static final String TAG = TileManager.class.getSimpleName();
+    private static final int TILE_SIZE = 256; // 图块解码后的边长（像素）
+    private static int sStreamCount = 0; // 用于为输入流生成唯一的缓存key
+    private static final float UPGRADE_MAGNIFICATION = 1.5f; // 解码后的像素放大显示超过此倍数时切换到更精细的级别
+    private static final long FRAME_MILLIS = 16; // 一帧的时长，用于把预取帧数换算为时长
+    private static final int MAX_PREFETCH_QUEUE_DEPTH = 16; // 队列中的任务达到此数量时不再预取
+    private static final float PREFETCH_PRIORITY = 1e6f; // 预取任务的优先级基数，大于任何可见图块
+    static final int DEFAULT_PREFETCH_FRAMES = 6; // 默认预取的帧数
+    private static final float EXPORT_PRIORITY = Float.MAX_VALUE; // 导出任务的优先级，排在所有图块之后、释放之前
+
+    /**
+     * 解码状态回调，均在主线程中执行
+     */
+    interface Callback {
+        /**
+         * 解码器创建完成，此时已知图片原始尺寸
+         */
+        void onImageSizeReady(int width, int height);
+
+        /**
+         * 有新的图块解码完成，需要重绘
+         */
+        void onTileLoaded();
+    }
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ThreadPoolExecutor mDecodeExecutor; // 单线程，BitmapRegionDecoder的解码本身是串行的
+    private long mTaskSequence = 0; // 任务序号，优先级相同时先提交的先执行
+    private final Callback mCallback;
+    private final int mScreenSize; // 屏幕较长边的长度，用于确定底图采样率
+    private final TileCache mTileCache;
+    private String mSourceKey; // 图片来源的缓存key
+    private BitmapRegionDecoder mDecoder; // 只在解码线程中使用
+    private volatile boolean mReleased = false; // 是否已释放
+
+    private int mImageWidth = 0; // 图片原始宽度
+    private int mImageHeight = 0; // 图片原始高度
+    private int mBaseSampleSize = 1; // 底图采样率
+    private Bitmap mBaseBitmap; // 底图，只在主线程中读写
+    private String mBaseKey; // 底图的缓存key
+    private final Rect mBaseRect = new Rect(); // 底图在原图中的区域
+    private int mSampleSize = 1; // 当前缩放比例对应的采样率
+    private final List<Tile> mTiles = new ArrayList<>(); // 当前持有的图块
+    private final Rect mVisibleRect = new Rect(); // 可见区域，坐标为图片原始坐标
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private PerformanceMetrics mMetrics; // 性能统计，为null时不统计，只在主线程中读写
+
+    private int mPrefetchFrames = DEFAULT_PREFETCH_FRAMES; // 预取的帧数，0为不预取
+    private final ViewportPredictor mPredictor = new ViewportPredictor();
+    private final FloatRect mPredictedRect = new FloatRect(); // 预测的可见区域
+    private final Rect mPrefetchRect = new Rect(); // 需要预取的区域，坐标为图片原始坐标
+    private int mPrefetchSampleSize = 1; // 预测的缩放比例对应的采样率
+
+    TileManager(Callback callback, int screenSize, TileCache tileCache) {
+        mCallback = callback;
+        mScreenSize = screenSize;
+        mTileCache = tileCache;
+        mDecodeExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, TAG);
+            }
+        });
+    }
+
+    /**
+     * 在解码线程中打开图片文件
+     */
+    void open(final String filePath) {
+        mSourceKey = filePath;
+        execute(new DecodeTask(Float.NEGATIVE_INFINITY, mTaskSequence++) {
+            @Override
+            public void run() {
+                try {
+                    onDecoderCreated(BitmapRegionDecoder.newInstance(filePath, false));
+                } catch (IOException e) {
+                    Log.e(TAG, "open " + filePath + " failed", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * 在解码线程中打开图片输入流，输入流由调用者负责关闭
+     */
+    void open(final InputStream inputStream) {
+        // 输入流无法判断是否来自同一图片，每个输入流使用不同的key
+        synchronized (TileManager.class) {
+            mSourceKey = "stream:" + sStreamCount++;
+        }
+        execute(new DecodeTask(Float.NEGATIVE_INFINITY, mTaskSequence++) {
+            @Override
+            public void run() {
+                try {
+                    onDecoderCreated(BitmapRegionDecoder.newInstance(inputStream, false));
+                } catch (IOException e) {
+                    Log.e(TAG, "open input stream failed", e);
+                }
+            }
+        });
+    }
+
+    private void onDecoderCreated(BitmapRegionDecoder decoder) {
+        if (mReleased) {
+            decoder.recycle();
+            return;
+        }
+        mDecoder = decoder;
+        final int width = decoder.getWidth();
+        final int height = decoder.getHeight();
+        final int baseSampleSize = computeBaseSampleSize(width, height, mScreenSize);
+        final String baseKey = mSourceKey + "/base";
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mReleased) return;
+                mImageWidth = width;
+                mImageHeight = height;
+                mBaseSampleSize = baseSampleSize;
+                mSampleSize = baseSampleSize;
+                mBaseRect.set(0, 0, width, height);
+                mCallback.onImageSizeReady(width, height);
+            }
+        });
+
+        // 尺寸确定后立即解码底图，保证图片能最快以低分辨率显示出来
+        Bitmap bitmap = mTileCache.acquire(baseKey);
+        if (bitmap == null) {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = baseSampleSize;
+            options.inMutable = true;
+            bitmap = decoder.decodeRegion(new Rect(0, 0, width, height), options);
+            if (bitmap == null) return;
+            bitmap = mTileCache.put(baseKey, bitmap);
+        }
+        final Bitmap baseBitmap = bitmap;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mReleased) {
+                    mTileCache.release(baseKey);
+                    return;
+                }
+                mBaseBitmap = baseBitmap;
+                mBaseKey = baseKey;
+                mCallback.onTileLoaded();
+            }
+        });
+    }
+
+    /**
+     * 计算底图采样率，使底图较长边不小于屏幕较长边
+     */
+    static int computeBaseSampleSize(int width, int height, int screenSize) {
+        int maxSize = Math.max(width, height);
+        int sampleSize = 1;
+        while (maxSize / (sampleSize * 2) >= screenSize) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    void setPerformanceMetrics(PerformanceMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    TileCache getTileCache() {
+        return mTileCache;
+    }
+
+    /**
+     * @return 底图，尚未解码时为null
+     */
+    Bitmap getBaseBitmap() {
+        return mBaseBitmap;
+    }
+
+    String getBaseKey() {
+        return mBaseKey;
+    }
+
+    int getImageWidth() {
+        return mImageWidth;
+    }
+
+    int getImageHeight() {
+        return mImageHeight;
+    }
+
+    /**
+     * 设置预取的帧数，按当前速度预测这么多帧后的可见区域并提前解码
+     *
+     * @param frames 帧数，0为不预取
+     */
+    void setPrefetchFrames(int frames) {
+        mPrefetchFrames = Math.max(0, frames);
+        if (mPrefetchFrames == 0) mPredictor.reset();
+    }
+
+    /**
+     * @return 等待解码的任务数，不包括正在解码的任务
+     */
+    int getQueueDepth() {
+        return mDecodeExecutor.getQueue().size();
+    }
+
+    /**
+     * 根据可见区域和当前缩放比例更新图块，请求解码新出现的图块并释放不再可见的图块
+     *
+     * @param visibleRect 可见区域，坐标为图片原始坐标
+     * @param scaleFactor 当前图片的缩放比例
+     */
+    void update(RectF visibleRect, float scaleFactor) {
+        if (mReleased || mImageWidth == 0 || mImageHeight == 0) return;
+
+        mSampleSize = selectSampleSize(mSampleSize, mBaseSampleSize, scaleFactor);
+        visibleRect.roundOut(mVisibleRect);
+        if (!mVisibleRect.intersect(0, 0, mImageWidth, mImageHeight)) {
+            mVisibleRect.setEmpty();
+        }
+
+        // 请求当前采样率下所有可见的图块，当前级别为底图时只需绘制底图
+        boolean levelComplete = true;
+        if (mSampleSize < mBaseSampleSize && !mVisibleRect.isEmpty()) {
+            int tileSize = TILE_SIZE * mSampleSize; // 图块在原图中的边长
+            int left = mVisibleRect.left / tileSize;
+            int top = mVisibleRect.top / tileSize;
+            int right = (mVisibleRect.right - 1) / tileSize;
+            int bottom = (mVisibleRect.bottom - 1) / tileSize;
+            for (int row = top; row <= bottom; row++) {
+                for (int col = left; col <= right; col++) {
+                    Tile tile = findTile(mSampleSize, col, row);
+                    if (tile == null) {
+                        tile = obtainTile(mSampleSize, col, row, tileSize, false);
+                    } else if (!tile.shown) {
+                        onPrefetchedTileShown(tile);
+                    }
+                    tile.shown = true;
+                    if (tile.bitmap == null) levelComplete = false;
+                }
+            }
+        }
+
+        prefetch(visibleRect, scaleFactor);
+
+        // 释放不可见的图块，其他采样率的图块在当前采样率图块全部解码完成前保留用于占位，
+        // 预取区域内的图块保留到预测失效
+        for (int i = mTiles.size() - 1; i >= 0; i--) {
+            Tile tile = mTiles.get(i);
+            boolean visible = Rect.intersects(tile.rect, mVisibleRect)
+                    && (tile.sampleSize == mSampleSize || !levelComplete);
+            boolean prefetched = tile.sampleSize == mPrefetchSampleSize
+                    && Rect.intersects(tile.rect, mPrefetchRect);
+            if (!visible && !prefetched) {
+                mTiles.remove(i);
+                recycleTile(tile);
+            }
+        }
+    }
+
+    /**
+     * 根据平移和缩放速度预测{@link #mPrefetchFrames}帧后的可见区域，请求解码其中缺少的图块
+     */
+    private void prefetch(RectF visibleRect, float scaleFactor) {
+        mPrefetchRect.setEmpty();
+        if (mPrefetchFrames == 0 || mVisibleRect.isEmpty()) return;
+        mPredictor.update(SystemClock.uptimeMillis(), visibleRect.left, visibleRect.top,
+                visibleRect.right, visibleRect.bottom, scaleFactor);
+        float predictedScale = mPredictor.predict(mPrefetchFrames * FRAME_MILLIS,
+                visibleRect.left, visibleRect.top, visibleRect.right, visibleRect.bottom,
+                scaleFactor, mPredictedRect);
+        mPrefetchSampleSize = selectSampleSize(mSampleSize, mBaseSampleSize, predictedScale);
+        // 预测的级别为底图时底图已经可以显示，不需要预取
+        if (mPrefetchSampleSize >= mBaseSampleSize) return;
+        mPrefetchRect.set((int) Math.floor(mPredictedRect.left), (int) Math.floor(mPredictedRect.top),
+                (int) Math.ceil(mPredictedRect.right), (int) Math.ceil(mPredictedRect.bottom));
+        if (!mPrefetchRect.intersect(0, 0, mImageWidth, mImageHeight)) {
+            mPrefetchRect.setEmpty();
+            return;
+        }
+
+        int tileSize = TILE_SIZE * mPrefetchSampleSize;
+        int left = mPrefetchRect.left / tileSize;
+        int top = mPrefetchRect.top / tileSize;
+        int right = (mPrefetchRect.right - 1) / tileSize;
+        int bottom = (mPrefetchRect.bottom - 1) / tileSize;
+        for (int row = top; row <= bottom; row++) {
+            for (int col = left; col <= right; col++) {
+                if (findTile(mPrefetchSampleSize, col, row) != null) continue;
+                if (getQueueDepth() >= MAX_PREFETCH_QUEUE_DEPTH) return;
+                obtainTile(mPrefetchSampleSize, col, row, tileSize, true);
+            }
+        }
+    }
+
+    /**
+     * 创建图块，优先从缓存中取回，取不到再解码
+     *
+     * @param prefetch 是否为预取，预取的图块优先级低于所有可见图块
+     */
+    private Tile obtainTile(int sampleSize, int col, int row, int tileSize, boolean prefetch) {
+        Tile tile = new Tile(mSourceKey, sampleSize, col, row, tileSize, mImageWidth, mImageHeight);
+        mTiles.add(tile);
+        tile.bitmap = mTileCache.acquire(tile.key);
+        if (!prefetch && mMetrics != null) mMetrics.recordTileCache(tile.bitmap != null);
+        if (tile.bitmap == null) {
+            // 只有真正解码的预取图块才计入预取统计
+            tile.prefetch = prefetch;
+            if (prefetch && mMetrics != null) mMetrics.recordPrefetch();
+            decode(tile, prefetch ? PREFETCH_PRIORITY + distanceToCenter(tile, mPrefetchRect)
+                    : distanceToCenter(tile, mVisibleRect));
+        }
+        return tile;
+    }
+
+    /**
+     * 预取的图块进入可见区域，尚未解码时提高到可见图块的优先级
+     */
+    private void onPrefetchedTileShown(Tile tile) {
+        if (tile.prefetch && mMetrics != null) mMetrics.recordPrefetchHit();
+        if (tile.task != null && mDecodeExecutor.remove(tile.task)) {
+            tile.task.priority = distanceToCenter(tile, mVisibleRect);
+            execute(tile.task);
+        }
+    }
+
+    /**
+     * 图块中心到区域中心的距离，单位为图块边长，用作可见图块的解码优先级
+     */
+    private static float distanceToCenter(Tile tile, Rect rect) {
+        float size = TILE_SIZE * tile.sampleSize;
+        float dx = (tile.rect.exactCenterX() - rect.exactCenterX()) / size;
+        float dy = (tile.rect.exactCenterY() - rect.exactCenterY()) / size;
+        return (float) Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * 不再需要图块：移除尚未开始的解码任务，Bitmap交还给缓存
+     */
+    private void recycleTile(Tile tile) {
+        if (tile.task != null) mDecodeExecutor.remove(tile.task);
+        // 解码完成却从未显示的预取图块浪费了一次解码
+        if (tile.prefetch && !tile.shown && tile.bitmap != null && mMetrics != null) {
+            mMetrics.recordPrefetchWasted();
+        }
+        tile.recycle(mTileCache);
+    }
+
+    private void execute(DecodeTask task) {
+        mDecodeExecutor.execute(task);
+        if (mMetrics != null) mMetrics.recordDecodeQueueDepth(getQueueDepth());
+    }
+
+    /**
+     * 根据缩放比例选择金字塔级别的采样率。
+     * 解码后的像素放大超过{@link #UPGRADE_MAGNIFICATION}倍时切换到更精细的级别，
+     * 更粗糙的级别也不会被放大显示时才切换回去，两个阈值之间留有间隔，避免在阈值附近缩放时反复切换
+     *
+     * @param sampleSize 当前采样率
+     * @param baseSampleSize 底图采样率，即最粗糙级别的采样率
+     * @param scaleFactor 当前图片的缩放比例
+     * @return 新的采样率
+     */
+    static int selectSampleSize(int sampleSize, int baseSampleSize, float scaleFactor) {
+        while (sampleSize > 1 && sampleSize * scaleFactor > UPGRADE_MAGNIFICATION) {
+            sampleSize /= 2;
+        }
+        while (sampleSize < baseSampleSize && sampleSize * 2 * scaleFactor <= 1f) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private Tile findTile(int sampleSize, int col, int row) {
+        for (int i = 0, size = mTiles.size(); i < size; i++) {
+            Tile tile = mTiles.get(i);
+            if (tile.sampleSize == sampleSize && tile.col == col && tile.row == row) {
+                return tile;
+            }
+        }
+        return null;
+    }
+
+    private void decode(final Tile tile, float priority) {
+        tile.task = new DecodeTask(priority, mTaskSequence++) {
+            @Override
+            public void run() {
+                if (tile.cancelled || mReleased || mDecoder == null) return;
+                long start = System.nanoTime();
+                Bitmap decoded = decodeTile(tile);
+                final long decodeTime = System.nanoTime() - start;
+                if (decoded == null) return;
+                final Bitmap bitmap = mTileCache.put(tile.key, decoded);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (tile.cancelled || mReleased) {
+                            mTileCache.release(tile.key);
+                            return;
+                        }
+                        // 解码耗时回到主线程再记录，统计对象只在主线程中读写
+                        if (mMetrics != null) mMetrics.getTileDecodeTime().record(decodeTime);
+                        tile.bitmap = bitmap;
+                        tile.task = null;
+                        mCallback.onTileLoaded();
+                    }
+                });
+            }
+        };
+        execute(tile.task);
+    }
+
+    /**
+     * 在解码线程中解码图块。完整大小的图块解码后尺寸都相同，可以复用缓存淘汰的Bitmap
+     */
+    private Bitmap decodeTile(Tile tile) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = tile.sampleSize;
+        options.inMutable = true;
+        if (tile.rect.width() == TILE_SIZE * tile.sampleSize
+                && tile.rect.height() == TILE_SIZE * tile.sampleSize) {
+            options.inBitmap = mTileCache.obtainReusable(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+        }
+        Bitmap reusable = options.inBitmap;
+        Bitmap bitmap = decodeRegionReusing(tile.rect, options);
+        // 没能复用时缓存淘汰的Bitmap不再需要
+        if (reusable != null && options.inBitmap == null) reusable.recycle();
+        return bitmap;
+    }
+
+    /**
+     * 在解码线程中解码原图的一个区域，优先复用options.inBitmap。
+     * 部分设备不支持复用，此时把options.inBitmap置为null后重新分配，由调用者处理未能复用的Bitmap
+     */
+    private Bitmap decodeRegionReusing(Rect rect, BitmapFactory.Options options) {
+        try {
+            return mDecoder.decodeRegion(rect, options);
+        } catch (IllegalArgumentException e) {
+            // 部分设备不支持复用，改为重新分配
+            if (options.inBitmap == null) throw e;
+            options.inBitmap = null;
+            return mDecoder.decodeRegion(rect, options);
+        }
+    }
+
+    /**
+     * 在解码线程中解码原图的一个区域并等待解码完成，用于导出。
+     * 导出任务排在所有图块之后，不影响显示；只能在主线程和解码线程以外的后台线程中调用
+     *
+     * @return 解码结果，已释放或解码失败时返回null
+     */
+    Bitmap decodeRegion(final Rect rect, final BitmapFactory.Options options)
+            throws InterruptedException {
+        final Bitmap[] result = new Bitmap[1];
+        final CountDownLatch latch = new CountDownLatch(1);
+        // 任务序号只在主线程中递增，导出任务之间的顺序无关紧要，使用固定的序号
+        DecodeTask task = new DecodeTask(EXPORT_PRIORITY, Long.MAX_VALUE) {
+            @Override
+            public void run() {
+                try {
+                    if (mReleased || mDecoder == null) return;
+                    result[0] = decodeRegionReusing(rect, options);
+                } finally {
+                    latch.countDown();
+                }
+            }
+        };
+        try {
+            mDecodeExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // 已释放，解码线程已关闭
+            return null;
+        }
+        latch.await();
+        return result[0];
+    }
+
+    /**
+     * 绘制图块，canvas的坐标系应为图片原始坐标系。
+     * 先绘制底图，再绘制其他采样率的图块作为占位，最后绘制当前采样率的图块
+     */
+    void draw(Canvas canvas) {
+        if (mBaseBitmap != null) canvas.drawBitmap(mBaseBitmap, null, mBaseRect, mPaint);
+        for (int i = 0, size = mTiles.size(); i < size; i++) {
+            Tile tile = mTiles.get(i);
+            if (tile.sampleSize != mSampleSize) tile.draw(canvas, mPaint);
+        }
+        for (int i = 0, size = mTiles.size(); i < size; i++) {
+            Tile tile = mTiles.get(i);
+            if (tile.sampleSize == mSampleSize) tile.draw(canvas, mPaint);
+        }
+    }
+
+    /**
+     * 把需要绘制的底图和图块按{@link #draw(Canvas)}的顺序填入渲染线程的一帧，
+     * 每个图块在缓存中增加一次引用，帧绘制完成或被丢弃后释放
+     */
+    void fillFrame(SurfaceRenderer.Frame frame) {
+        frame.setAlpha(mPaint.getAlpha());
+        if (mBaseBitmap != null && mTileCache.retain(mBaseKey)) {
+            frame.add(mBaseBitmap, mBaseRect, mTileCache, mBaseKey);
+        }
+        for (int i = 0, size = mTiles.size(); i < size; i++) {
+            Tile tile = mTiles.get(i);
+            if (tile.sampleSize != mSampleSize) tile.fillFrame(frame, mTileCache);
+        }
+        for (int i = 0, size = mTiles.size(); i < size; i++) {
+            Tile tile = mTiles.get(i);
+            if (tile.sampleSize == mSampleSize) tile.fillFrame(frame, mTileCache);
+        }
+    }
+
+    void setAlpha(int alpha) {
+        mPaint.setAlpha(alpha);
+    }
+
+    /**
+     * 设置绘制时是否使用双线性过滤
+     */
+    void setFilterBitmap(boolean filter) {
+        mPaint.setFilterBitmap(filter);
+    }
+
+    /**
+     * 取消所有未开始的解码任务，已解码的图块保留
+     */
+    void cancelPending() {
+        for (int i = mTiles.size() - 1; i >= 0; i--) {
+            Tile tile = mTiles.get(i);
+            if (tile.bitmap == null) {
+                mTiles.remove(i);
+                recycleTile(tile);
+            }
+        }
+        mPredictor.reset();
+    }
+
+    /**
+     * 释放所有图块、解码器和解码线程，释放后不可再使用
+     */
+    void release() {
+        // 不移除主线程中未执行的回调，这些回调检查到已释放后会归还图块的引用
+        mReleased = true;
+        for (int i = 0, size = mTiles.size(); i < size; i++) {
+            recycleTile(mTiles.get(i));
+        }
+        mTiles.clear();
+        if (mBaseBitmap != null) {
+            mTileCache.release(mBaseKey);
+            mBaseBitmap = null;
+        }
+        // 排在所有任务之后执行，之后解码线程随线程池关闭而退出
+        execute(new DecodeTask(Float.POSITIVE_INFINITY, mTaskSequence++) {
+            @Override
+            public void run() {
+                if (mDecoder != null) {
+                    mDecoder.recycle();
+                    mDecoder = null;
+                }
+            }
+        });
+        mDecodeExecutor.shutdown();
+    }
+
+    /**
+     * 解码任务，priority越小越先执行
+     */
+    private abstract static class DecodeTask implements Runnable, Comparable<DecodeTask> {
+        float priority; // 只在任务不在队列中时修改
+        final long sequence;
+
+        DecodeTask(float priority, long sequence) {
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(DecodeTask other) {
+            int result = Float.compare(priority, other.priority);
+            if (result != 0) return result;
+            // Long.compare需要API 19
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+    /**
+     * 图块，rect为图块在原图中的区域
+     */
+    private static class Tile {
+        final String key; // 缓存key
+        final int sampleSize;
+        final int col;
+        final int row;
+        final Rect rect;
+        Bitmap bitmap; // 只在主线程中读写
+        volatile boolean cancelled = false;
+        DecodeTask task; // 解码任务，解码完成后为null
+        boolean prefetch = false; // 是否由预取请求解码
+        boolean shown = false; // 是否进入过可见区域
+
+        Tile(String sourceKey, int sampleSize, int col, int row, int tileSize,
+             int imageWidth, int imageHeight) {
+            key = sourceKey + "/" + sampleSize + "/" + col + "/" + row;
+            this.sampleSize = sampleSize;
+            this.col = col;
+            this.row = row;
+            rect = new Rect(col * tileSize, row * tileSize,
+                    Math.min((col + 1) * tileSize, imageWidth),
+                    Math.min((row + 1) * tileSize, imageHeight));
+        }
+
+        void draw(Canvas canvas, Paint paint) {
+            if (bitmap != null) canvas.drawBitmap(bitmap, null, rect, paint);
+        }
+
+        void fillFrame(SurfaceRenderer.Frame frame, TileCache tileCache) {
+            if (bitmap != null && tileCache.retain(key)) frame.add(bitmap, rect, tileCache, key);
+        }
+
+        /**
+         * 不再使用此图块，Bitmap交还给缓存
+         */
+        void recycle(TileCache tileCache) {
+            cancelled = true;
+            if (bitmap != null) {
+                tileCache.release(key);
+                bitmap = null;
+            }
+        }
+    }
+}
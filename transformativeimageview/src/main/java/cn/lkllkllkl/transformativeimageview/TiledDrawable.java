@@ -0,0 +1,59 @@
+package cn.lkllkllkl.transformativeimageview;
+
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.PixelFormat;
+import android.graphics.drawable.Drawable;
+
+/**
+ * 分块解码模式下使用的Drawable，固有尺寸为图片原始尺寸，
+ * 使View中的矩阵计算与普通图片一致，绘制时交由TileManager绘制可见图块
+ */
+class TiledDrawable extends Drawable {
+    private final TileManager mTileManager;
+
+    TiledDrawable(TileManager tileManager) {
+        mTileManager = tileManager;
+    }
+
+    TileManager getTileManager() {
+        return mTileManager;
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        mTileManager.draw(canvas);
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        return mTileManager.getImageWidth();
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        return mTileManager.getImageHeight();
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        mTileManager.setAlpha(alpha);
+        invalidateSelf();
+    }
+
+    @Override
+    public void setFilterBitmap(boolean filter) {
+        mTileManager.setFilterBitmap(filter);
+        invalidateSelf();
+    }
+
+    @Override
+    public void setColorFilter(ColorFilter colorFilter) {
+        // 不支持颜色过滤
+    }
+
+    @Override
+    public int getOpacity() {
+        return PixelFormat.TRANSLUCENT;
+    }
+}
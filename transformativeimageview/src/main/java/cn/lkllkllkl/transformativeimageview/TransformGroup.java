@@ -0,0 +1,174 @@
+package cn.lkllkllkl.transformativeimageview;
+
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 联动的一组{@link TransformativeImageView}，用于并排对比等场景：
+ * 任意一个控件被拖动、缩放、旋转或播放回弹、惯性滑动动画时，其他控件同步显示相同的变换。
+ * <p>
+ * 正在变化的控件为变换的来源，其他控件按来源的变换同步，不再各自计算手势和动画。
+ * 手势过程中同步在下一个vsync的动画阶段进行，一帧内的多个触摸事件只同步一次；
+ * 动画本身就在vsync中执行，每帧计算一次后立即同步，因此所有控件都在同一帧内重绘。
+ * <p>
+ * 开启归一化时缩放比例相对于各自适应控件大小的缩放比例、图片中心按控件宽高等比同步，
+ * 大小不同的图片也能显示对应的区域。只能在主线程中使用
+ */
+public class TransformGroup {
+    private final List<TransformativeImageView> mViews = new ArrayList<>();
+    private final boolean mNormalize; // 是否按图片和控件大小归一化
+    private TransformativeImageView mSource; // 最近一次发生变化的控件
+    private boolean mSyncScheduled = false; // 是否已请求在下一帧同步
+    private boolean mSyncing = false; // 正在同步，此时其他控件的变化不再作为来源
+
+    private Choreographer.FrameCallback mSyncCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mSyncScheduled = false;
+            sync();
+        }
+    };
+
+    /**
+     * 创建按图片和控件大小归一化的联动组
+     */
+    public TransformGroup() {
+        this(true);
+    }
+
+    /**
+     * @param normalize 为true时缩放比例和位置按图片和控件大小归一化后同步，
+     *                  为false时所有控件使用完全相同的变换，适用于大小相同的图片逐像素对比
+     */
+    public TransformGroup(boolean normalize) {
+        mNormalize = normalize;
+    }
+
+    /**
+     * 加入控件，控件之前所在的组会先退出。
+     * 组内已有显示图片的控件时，新控件的图片初始化后使用组当前的变换
+     */
+    public void add(TransformativeImageView view) {
+        if (mViews.contains(view)) return;
+        TransformGroup previous = view.getTransformGroup();
+        if (previous != null) previous.remove(view);
+        mViews.add(view);
+        view.setTransformGroup(this);
+        TransformativeImageView source = findSource(view);
+        if (source == null) return;
+        mSyncing = true;
+        view.followTransform(source, mNormalize);
+        mSyncing = false;
+    }
+
+    public void remove(TransformativeImageView view) {
+        if (!mViews.remove(view)) return;
+        view.setTransformGroup(null);
+        if (mSource == view) {
+            mSource = null;
+            cancelSync();
+        }
+        // 退出前可能正在跟随其他控件变化
+        view.onGroupSettled();
+    }
+
+    public boolean isNormalize() {
+        return mNormalize;
+    }
+
+    public int size() {
+        return mViews.size();
+    }
+
+    /**
+     * 控件的变换发生了变化，该控件成为来源
+     *
+     * @param immediate 为true时立即同步其他控件，用于已在vsync中执行的动画；
+     *                  为false时在下一个vsync同步，用于触摸事件
+     */
+    void onTransformChanged(TransformativeImageView view, boolean immediate) {
+        if (mSyncing) return;
+        mSource = view;
+        if (immediate) {
+            cancelSync();
+            sync();
+        } else if (!mSyncScheduled) {
+            mSyncScheduled = true;
+            Choreographer.getInstance().postFrameCallback(mSyncCallback);
+        }
+    }
+
+    /**
+     * 控件停止变化，先同步尚未同步的变换，再通知其他控件变换停止
+     */
+    void onSettled(TransformativeImageView view) {
+        if (mSyncing || view != mSource) return;
+        if (mSyncScheduled) {
+            cancelSync();
+            sync();
+        }
+        for (int i = 0, size = mViews.size(); i < size; i++) {
+            TransformativeImageView other = mViews.get(i);
+            if (other != view) other.onGroupSettled();
+        }
+    }
+
+    /**
+     * 手指在控件上按下，停止所有控件的回弹和惯性滑动，避免与新的手势争夺来源
+     */
+    void onTouchDown(TransformativeImageView view) {
+        for (int i = 0, size = mViews.size(); i < size; i++) {
+            TransformativeImageView other = mViews.get(i);
+            if (other != view) other.stopTransformAnimations();
+        }
+    }
+
+    /**
+     * @return 控件是否正在跟随其他控件变化
+     */
+    boolean isFollowing(TransformativeImageView view) {
+        return mSource != null && mSource != view && mSource.isMoving();
+    }
+
+    /**
+     * 控件的图片初始化完成，按组当前的变换设置其变换，不会触发同步
+     */
+    void adoptTransform(TransformativeImageView view) {
+        TransformativeImageView source = findSource(view);
+        if (source != null) view.getEngine().setTransform(source.getEngine(), mNormalize);
+    }
+
+    /**
+     * 查找可以作为view变换来源的控件：优先使用最近变化的控件，其次是第一个已显示图片的控件
+     */
+    private TransformativeImageView findSource(TransformativeImageView view) {
+        if (mSource != null && mSource != view && mSource.hasLaidOutImage()) return mSource;
+        for (int i = 0, size = mViews.size(); i < size; i++) {
+            TransformativeImageView other = mViews.get(i);
+            if (other != view && other.hasLaidOutImage()) return other;
+        }
+        return null;
+    }
+
+    private void cancelSync() {
+        if (!mSyncScheduled) return;
+        mSyncScheduled = false;
+        Choreographer.getInstance().removeFrameCallback(mSyncCallback);
+    }
+
+    /**
+     * 把来源的变换同步到其他控件，每个控件只更新一次矩阵并请求一次重绘
+     */
+    private void sync() {
+        TransformativeImageView source = mSource;
+        if (source == null || !source.hasLaidOutImage()) return;
+        mSyncing = true;
+        for (int i = 0, size = mViews.size(); i < size; i++) {
+            TransformativeImageView view = mViews.get(i);
+            if (view != source) view.followTransform(source, mNormalize);
+        }
+        mSyncing = false;
+    }
+}
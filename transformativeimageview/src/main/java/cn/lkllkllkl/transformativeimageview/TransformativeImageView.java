@@ -1,8 +1,5 @@
 package cn.lkllkllkl.transformativeimageview;
 
-import android.animation.Animator;
-import android.animation.AnimatorListenerAdapter;
-import android.animation.ValueAnimator;
 import android.content.Context;
 import android.content.res.TypedArray;
 import android.graphics.Canvas;
@@ -10,42 +7,82 @@ import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.PaintFlagsDrawFilter;
 import android.graphics.PointF;
+import android.graphics.Rect;
 import android.graphics.RectF;
+import android.graphics.drawable.Animatable;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.os.SystemClock;
 import android.support.annotation.Nullable;
 import android.support.v7.widget.AppCompatImageView;
 import android.util.AttributeSet;
+import android.util.DisplayMetrics;
+import android.view.Choreographer;
 import android.view.MotionEvent;
+import android.view.SurfaceView;
+import android.view.TextureView;
+import android.view.View;
+import android.view.VelocityTracker;
+import android.view.ViewConfiguration;
+import android.view.ViewParent;
+import android.view.ViewTreeObserver;
+import android.view.WindowManager;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import cn.lkllkllkl.transformativeimageview.core.Fling;
+import cn.lkllkllkl.transformativeimageview.core.FloatRect;
+import cn.lkllkllkl.transformativeimageview.core.GestureTransformer;
+import cn.lkllkllkl.transformativeimageview.core.TransformAnimation;
+import cn.lkllkllkl.transformativeimageview.core.TransformEngine;
+import cn.lkllkllkl.transformativeimageview.core.TransformStateCache;
 
 
 /**
- * 多点触控加Matrix类实现图片的旋转、缩放、平移
+ * 多点触控加Matrix类实现图片的旋转、缩放、平移，
+ * 变换和回弹的计算由与平台无关的{@link TransformEngine}完成
  *
  * @attr R.styleable#TransformativeImageView_max_scale
  * @attr R.styleable#TransformativeImageView_min_scale
  * @attr R.styleable#TransformativeImageView_revert_duration
+ * @attr R.styleable#TransformativeImageView_revert_spring
  * @attr R.styleable#TransformativeImageView_revert
  * @attr R.styleable#TransformativeImageView_scale_center
+ * @attr R.styleable#TransformativeImageView_open_fling
+ * @attr R.styleable#TransformativeImageView_coalesce_touch
+ * @attr R.styleable#TransformativeImageView_touch_prediction
+ * @attr R.styleable#TransformativeImageView_render_quality
+ * @attr R.styleable#TransformativeImageView_pager_mode
+ * @attr R.styleable#TransformativeImageView_vector_rasterization
+ * @attr R.styleable#TransformativeImageView_minimap
  */
 
 public class TransformativeImageView extends AppCompatImageView {
     private static final String TAG = TransformativeImageView.class.getSimpleName();
     private static final float MAX_SCALE_FACTOR = 2.0f; // 默认最大缩放比例为2
-    private static final float UNSPECIFIED_SCALE_FACTOR = -1f; // 未指定缩放比例
-    private static final float MIN_SCALE_FACTOR = 1.0f; // 默认最小缩放比例为0.3
-    private static final float INIT_SCALE_FACTOR = 1.2f; // 默认适应控件大小后的初始化缩放比例
     private static final int DEFAULT_REVERT_DURATION = 300;
+    public static final int RENDER_QUALITY_HIGH = 0; // 始终使用高质量过滤
+    public static final int RENDER_QUALITY_ADAPTIVE = 1; // 变换过程中使用最近邻采样，停止后使用高质量过滤
+    public static final int RENDER_QUALITY_FAST = 2; // 始终使用最近邻采样
 
     private int mRevertDuration = DEFAULT_REVERT_DURATION; // 回弹动画时间
-    private float mMaxScaleFactor = MAX_SCALE_FACTOR; // 最大缩放比例
-    private float mMinScaleFactor = UNSPECIFIED_SCALE_FACTOR; // 此最小缩放比例优先级高于下面两个
-    private float mVerticalMinScaleFactor = MIN_SCALE_FACTOR; // 图片最初的最小缩放比例
-    private float mHorizontalMinScaleFactor = MIN_SCALE_FACTOR; // 图片旋转90（或-90）度后的的最小缩放比例
-    protected Matrix mMatrix = new Matrix(); // 用于图片旋转、平移、缩放的矩阵
+    private TransformEngine mEngine = new TransformEngine(); // 图片变换计算
+    private float[] mMatrixValues = new float[9]; // 用于从mEngine同步矩阵的值到mMatrix
+    private float[] mSyncedMatrixValues = new float[9]; // 最近一次同步到mMatrix的值
+    protected Matrix mMatrix = new Matrix(); // 用于图片旋转、平移、缩放的矩阵，其值与mEngine同步
     protected RectF mImageRect = new RectF(); // 保存图片所在区域矩形，坐标为相对于本View的坐标
     private boolean mOpenScaleRevert = false; // 是否开启缩放回弹
     private boolean mOpenRotateRevert = false; // 是否开启旋转回弹
     private boolean mOpenTranslateRevert = false; // 是否开启平移回弹
     private boolean mOpenAnimator = false; // 是否开启动画
+    private boolean mRevertSpring = false; // 回弹动画是否使用弹簧动力学
+    private boolean mOpenFling = false; // 是否开启惯性滑动
 
 
     public TransformativeImageView(Context context) {
@@ -68,10 +105,11 @@ public class TransformativeImageView extends AppCompatImageView {
 
         TypedArray typedArray = getContext()
                 .obtainStyledAttributes(attrs, R.styleable.TransformativeImageView);
-        mMaxScaleFactor = typedArray.getFloat(
-                R.styleable.TransformativeImageView_max_scale, MAX_SCALE_FACTOR);
-        mMinScaleFactor = typedArray.getFloat(
-                R.styleable.TransformativeImageView_min_scale, UNSPECIFIED_SCALE_FACTOR);
+        mEngine.setMaxScaleFactor(typedArray.getFloat(
+                R.styleable.TransformativeImageView_max_scale, MAX_SCALE_FACTOR));
+        mEngine.setMinScaleFactor(typedArray.getFloat(
+                R.styleable.TransformativeImageView_min_scale,
+                TransformEngine.UNSPECIFIED_SCALE_FACTOR));
         mRevertDuration = typedArray.getInteger(
                 R.styleable.TransformativeImageView_revert_duration, DEFAULT_REVERT_DURATION);
         mOpenScaleRevert = typedArray.getBoolean(
@@ -82,8 +120,25 @@ public class TransformativeImageView extends AppCompatImageView {
                 R.styleable.TransformativeImageView_open_translate_revert, false);
         mOpenAnimator = typedArray.getBoolean(
                 R.styleable.TransformativeImageView_open_animator, true);
-        mScaleBy = typedArray.getInt(
-                R.styleable.TransformativeImageView_scale_center, SCALE_BY_IMAGE_CENTER);
+        mRevertSpring = typedArray.getBoolean(
+                R.styleable.TransformativeImageView_revert_spring, false);
+        mOpenFling = typedArray.getBoolean(
+                R.styleable.TransformativeImageView_open_fling, false);
+        mCoalesceTouch = typedArray.getBoolean(
+                R.styleable.TransformativeImageView_coalesce_touch, false);
+        mTouchPrediction = typedArray.getBoolean(
+                R.styleable.TransformativeImageView_touch_prediction, false);
+        mRenderQuality = typedArray.getInt(
+                R.styleable.TransformativeImageView_render_quality, RENDER_QUALITY_HIGH);
+        mPagerMode = typedArray.getBoolean(
+                R.styleable.TransformativeImageView_pager_mode, false);
+        mVectorRasterization = typedArray.getBoolean(
+                R.styleable.TransformativeImageView_vector_rasterization, false);
+        boolean minimap = typedArray.getBoolean(R.styleable.TransformativeImageView_minimap, false);
+        if (minimap) mMinimap = new Minimap(mMinimapCallback, getResources().getDisplayMetrics().density);
+        mEngine.setScaleBy(typedArray.getInt(
+                R.styleable.TransformativeImageView_scale_center,
+                TransformEngine.SCALE_BY_IMAGE_CENTER));
         typedArray.recycle();
     }
 
@@ -91,440 +146,2004 @@ public class TransformativeImageView extends AppCompatImageView {
         // FIXME 修复图片锯齿,关闭硬件加速ANTI_ALIAS_FLAG才能生效
 //        setLayerType(View.LAYER_TYPE_SOFTWARE, null);
         setScaleType(ScaleType.MATRIX);
+        mFilterBitmap = selectFilterBitmap();
         mRevertAnimator.setDuration(mRevertDuration);
+        mRevertAnimator.setSpring(mRevertSpring);
+        ViewConfiguration configuration = ViewConfiguration.get(getContext());
+        mMinFlingVelocity = configuration.getScaledMinimumFlingVelocity();
+        WindowManager windowManager =
+                (WindowManager) getContext().getSystemService(Context.WINDOW_SERVICE);
+        float refreshRate = windowManager.getDefaultDisplay().getRefreshRate();
+        if (refreshRate > 0) mFrameIntervalNanos = (long) (1e9f / refreshRate);
+        mMaxFlingVelocity = configuration.getScaledMaximumFlingVelocity();
+        mTouchSlop = configuration.getScaledTouchSlop();
     }
 
+    private Drawable mLaidOutDrawable; // 最近一次初始化位置和大小时的图片
+    private int mLaidOutImageWidth; // 最近一次初始化时图片的宽度
+    private int mLaidOutImageHeight; // 最近一次初始化时图片的高度
+    private SavedState mPendingState; // 等待图片设置后恢复的状态
+
     @Override
     protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
         super.onLayout(changed, left, top, right, bottom);
-        initImgPositionAndSize();
+        Drawable drawable = getDrawable();
+        if (drawable == null) return;
+        Rect bounds = drawable.getBounds();
+        if (drawable != mLaidOutDrawable || bounds.width() != mLaidOutImageWidth
+                || bounds.height() != mLaidOutImageHeight) {
+            // 图片发生变化，重新初始化
+            initImgPositionAndSize();
+        } else if (getWidth() != mEngine.getViewWidth() || getHeight() != mEngine.getViewHeight()) {
+            // 只有控件大小发生变化，按比例保留当前变换
+            mRevertAnimator.cancel();
+            mFlingAnimator.cancel();
+            mEngine.resize(getWidth(), getHeight());
+            applyMatrix();
+        }
+        // 其他情况（如界面中其他控件引起的重新布局）保留用户当前的变换
     }
 
     /**
-     * 初始化图片位置和大小
+     * 初始化图片位置和大小，有等待恢复的状态且图片大小一致时恢复该状态
      */
     private void initImgPositionAndSize() {
-        mMatrix.reset();
-        // 初始化ImageRect
-        refreshImageRect();
-
-        // 计算缩放比例，使图片适应控件大小
-        mHorizontalMinScaleFactor = Math.min(getWidth() / mImageRect.width(),
-                getHeight() / mImageRect.height());
-        mVerticalMinScaleFactor = Math.min(getHeight() / mImageRect.width(),
-                getWidth() / mImageRect.height());
-
-        float scaleFactor = mHorizontalMinScaleFactor;
-
-        // 初始图片缩放比例比最小缩放比例稍大
-        scaleFactor *= INIT_SCALE_FACTOR;
-        mScaleFactor = scaleFactor;
-        mMatrix.postScale(scaleFactor, scaleFactor, mImageRect.centerX(), mImageRect.centerY());
-        refreshImageRect();
-        // 移动图片到中心
-        mMatrix.postTranslate((getRight() - getLeft()) / 2 - mImageRect.centerX(),
-                (getBottom() - getTop()) / 2 - mImageRect.centerY());
+        Drawable drawable = getDrawable();
+        if (drawable == null) return;
+        Rect bounds = drawable.getBounds();
+        mLaidOutDrawable = drawable;
+        mLaidOutImageWidth = bounds.width();
+        mLaidOutImageHeight = bounds.height();
+        mRevertAnimator.cancel();
+        mFlingAnimator.cancel();
+        SavedState state = mPendingState;
+        if (state != null && state.imageWidth == bounds.width()
+                && state.imageHeight == bounds.height()) {
+            mPendingState = null;
+            // 先按保存时的控件大小恢复变换，再按比例映射到当前控件大小
+            mEngine.init(bounds.width(), bounds.height(), state.viewWidth, state.viewHeight);
+            mEngine.setTransform(state.scale, state.rotation, state.centerX, state.centerY);
+            mEngine.resize(getWidth(), getHeight());
+        } else if (mStateCache == null || !mStateCache.restore(mStateKey, mEngine,
+                bounds.width(), bounds.height(), getWidth(), getHeight())) {
+            mEngine.init(bounds.width(), bounds.height(), getWidth(), getHeight());
+        }
+        mSavedVersion = mEngine.getVersion();
+        // 联动组中已有其他图片时与其保持一致
+        if (mTransformGroup != null) mTransformGroup.adoptTransform(this);
+        updateRasterizer();
+        applyFilterBitmap();
+        if (mMinimap != null) mMinimap.setSource(drawable);
         applyMatrix();
+    }
+
+    //-----Gallery---------------------
+
+    private boolean mPagerMode = false; // 翻页模式，拖动到图片边界后由父控件接管事件
+    private TransformStateCache mStateCache; // 按条目id保存变换状态，为null时不保存
+    private long mStateKey; // 当前显示的条目id
+    private int mSavedVersion; // 最近一次初始化、恢复或保存时变换的版本号，没有变化则不需要保存
+
+    /**
+     * 绑定显示的条目，用于相册、翻页等复用控件的场景：
+     * 先把当前条目的变换状态保存到缓存，新图片初始化时若缓存中有该条目的状态则直接恢复
+     *
+     * @param cache 为null时不再保存和恢复
+     * @param key 条目id
+     */
+    public void bindTransformState(@Nullable TransformStateCache cache, long key) {
+        if (cache == mStateCache && key == mStateKey) return;
+        saveTransformState();
+        mStateCache = cache;
+        mStateKey = key;
+        mPendingState = null;
+        // 下一次布局时按新的条目重新初始化
+        mLaidOutDrawable = null;
+        if (getDrawable() != null) requestLayout();
+    }
+
+    /**
+     * 把当前条目的变换状态保存到{@link #bindTransformState(TransformStateCache, long)}绑定的缓存，
+     * 变换自初始化或上次保存后没有变化时不保存，避免占位图等覆盖已保存的状态。
+     * 控件从窗口移除时会自动调用
+     */
+    public void saveTransformState() {
+        if (mStateCache == null || mLaidOutDrawable == null
+                || mEngine.getVersion() == mSavedVersion) {
+            return;
+        }
+        if (mRevertAnimator.isRunning()) {
+            // 回弹动画进行中则保存动画的结束值
+            mRevertAnimator.putTarget(mStateCache, mStateKey);
+        } else {
+            mStateCache.put(mStateKey, mEngine);
+        }
+        mSavedVersion = mEngine.getVersion();
+    }
+
+    @Nullable
+    public TransformStateCache getTransformStateCache() {
+        return mStateCache;
+    }
+
+    public long getTransformStateKey() {
+        return mStateKey;
+    }
+
+    /**
+     * 设置翻页模式：单指拖动到图片边界后，继续向外拖动的事件交给父控件（如ViewPager）翻页，
+     * 多指缩放、旋转时父控件不会拦截
+     */
+    public void setPagerMode(boolean pagerMode) {
+        mPagerMode = pagerMode;
+    }
+
+    public boolean isPagerMode() {
+        return mPagerMode;
+    }
+
+    @Override
+    public boolean canScrollHorizontally(int direction) {
+        return mLaidOutDrawable != null && mEngine.canScrollHorizontally(direction);
+    }
 
-        // 如果用户有指定最小缩放比例则使用用户指定的
-        if (mMinScaleFactor != UNSPECIFIED_SCALE_FACTOR) {
-            mHorizontalMinScaleFactor = mMinScaleFactor;
-            mVerticalMinScaleFactor = mMinScaleFactor;
+    @Override
+    public boolean canScrollVertically(int direction) {
+        return mLaidOutDrawable != null && mEngine.canScrollVertically(direction);
+    }
+
+    /**
+     * 单指拖动时判断图片在拖动方向上是否已到达边界，到达后允许父控件拦截事件
+     */
+    private void handOffDragAtBorder(MotionEvent event) {
+        float dx = event.getX() - mLastMidPoint.x;
+        float dy = event.getY() - mLastMidPoint.y;
+        boolean atBorder;
+        if (Math.abs(dx) >= Math.abs(dy)) {
+            atBorder = dx != 0f && !mEngine.canScrollHorizontally(dx > 0 ? -1 : 1);
+        } else {
+            atBorder = !mEngine.canScrollVertically(dy > 0 ? -1 : 1);
+        }
+        if (atBorder) requestParentDisallowIntercept(false);
+    }
+
+    private void requestParentDisallowIntercept(boolean disallow) {
+        ViewParent parent = getParent();
+        if (parent != null) parent.requestDisallowInterceptTouchEvent(disallow);
+    }
+
+    @Override
+    protected Parcelable onSaveInstanceState() {
+        SavedState state = new SavedState(super.onSaveInstanceState());
+        if (mLaidOutDrawable == null) {
+            // 还未初始化，保留尚未恢复的状态
+            if (mPendingState != null) state.copyTransform(mPendingState);
+            return state;
+        }
+        state.imageWidth = mLaidOutImageWidth;
+        state.imageHeight = mLaidOutImageHeight;
+        state.viewWidth = mEngine.getViewWidth();
+        state.viewHeight = mEngine.getViewHeight();
+        if (mRevertAnimator.isRunning()) {
+            // 回弹动画进行中则保存动画的结束值
+            mRevertAnimator.getTarget(state);
+        } else {
+            state.scale = mEngine.getScaleFactor();
+            state.rotation = mEngine.getCurrentRotateDegree();
+            state.centerX = mEngine.getImageCenterX();
+            state.centerY = mEngine.getImageCenterY();
+        }
+        return state;
+    }
+
+    @Override
+    protected void onRestoreInstanceState(Parcelable state) {
+        if (!(state instanceof SavedState)) {
+            super.onRestoreInstanceState(state);
+            return;
+        }
+        SavedState savedState = (SavedState) state;
+        super.onRestoreInstanceState(savedState.getSuperState());
+        if (savedState.imageWidth <= 0 || savedState.imageHeight <= 0) return;
+        mPendingState = savedState;
+        // 图片已经初始化过（如恢复发生在布局之后）则立即恢复
+        if (mLaidOutDrawable != null) initImgPositionAndSize();
+    }
+
+    /**
+     * 保存的变换分量以及保存时的图片和控件大小，
+     * 恢复时只需在图片大小一致时直接设置变换，不需要重新解码或计算适应控件的缩放
+     */
+    static class SavedState extends BaseSavedState {
+        int imageWidth;
+        int imageHeight;
+        float viewWidth;
+        float viewHeight;
+        float scale;
+        float rotation;
+        float centerX;
+        float centerY;
+
+        SavedState(Parcelable superState) {
+            super(superState);
+        }
+
+        private SavedState(Parcel in) {
+            super(in);
+            imageWidth = in.readInt();
+            imageHeight = in.readInt();
+            viewWidth = in.readFloat();
+            viewHeight = in.readFloat();
+            scale = in.readFloat();
+            rotation = in.readFloat();
+            centerX = in.readFloat();
+            centerY = in.readFloat();
+        }
+
+        void copyTransform(SavedState src) {
+            imageWidth = src.imageWidth;
+            imageHeight = src.imageHeight;
+            viewWidth = src.viewWidth;
+            viewHeight = src.viewHeight;
+            scale = src.scale;
+            rotation = src.rotation;
+            centerX = src.centerX;
+            centerY = src.centerY;
+        }
+
+        @Override
+        public void writeToParcel(Parcel out, int flags) {
+            super.writeToParcel(out, flags);
+            out.writeInt(imageWidth);
+            out.writeInt(imageHeight);
+            out.writeFloat(viewWidth);
+            out.writeFloat(viewHeight);
+            out.writeFloat(scale);
+            out.writeFloat(rotation);
+            out.writeFloat(centerX);
+            out.writeFloat(centerY);
         }
+
+        public static final Parcelable.Creator<SavedState> CREATOR =
+                new Parcelable.Creator<SavedState>() {
+                    @Override
+                    public SavedState createFromParcel(Parcel in) {
+                        return new SavedState(in);
+                    }
+
+                    @Override
+                    public SavedState[] newArray(int size) {
+                        return new SavedState[size];
+                    }
+                };
     }
 
+    // 硬件加速的canvas在API 28以下忽略DrawFilter，DrawFilter只用于软件绘制
     private PaintFlagsDrawFilter mDrawFilter =
             new PaintFlagsDrawFilter(0, Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
+    private PaintFlagsDrawFilter mFastDrawFilter = // 去掉抗锯齿和双线性过滤，使用最近邻采样
+            new PaintFlagsDrawFilter(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG, 0);
+    private boolean mFilterBitmap = true; // 当前是否使用双线性过滤
+    private Drawable mUnfilteredDrawable; // 已关闭双线性过滤的图片，恢复过滤或图片被替换时重新开启
+    private int mRenderQuality = RENDER_QUALITY_HIGH; // 绘制质量策略
+
+    /**
+     * 根据绘制质量策略和当前是否正在变换判断是否使用双线性过滤
+     */
+    private boolean selectFilterBitmap() {
+        switch (mRenderQuality) {
+            case RENDER_QUALITY_FAST:
+                return false;
+            case RENDER_QUALITY_ADAPTIVE:
+                return !isMoving();
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * 变换开始或停止后检查是否需要切换过滤方式，切换后重绘整个View
+     */
+    private void updateRenderQuality() {
+        boolean filterBitmap = selectFilterBitmap();
+        if (filterBitmap != mFilterBitmap) {
+            mFilterBitmap = filterBitmap;
+            applyFilterBitmap();
+            invalidate();
+            if (mRenderer != null) publishRenderFrame();
+        }
+        updateSettled(false);
+    }
+
+    /**
+     * 通过实际绘制图片的Paint切换双线性过滤，硬件加速时同样生效：
+     * BitmapDrawable使用自身的Paint，分块解码和动图模式由TileManager、AnimationDecoder的Paint绘制，
+     * 光栅化的矢量图由VectorRasterizer的Paint绘制
+     */
+    private void applyFilterBitmap() {
+        Drawable target = mFilterBitmap ? null : getDrawable(); // 需要关闭过滤的图片
+        if (mUnfilteredDrawable != target) {
+            if (mUnfilteredDrawable != null) mUnfilteredDrawable.setFilterBitmap(true);
+            // mutate后只修改此Drawable的Paint，不影响共享同一ConstantState的其他Drawable
+            if (target != null) target.mutate().setFilterBitmap(false);
+            mUnfilteredDrawable = target;
+        }
+        if (mRasterizer != null) mRasterizer.setFilterBitmap(mFilterBitmap);
+    }
+
+    /**
+     * @return 图片是否正在跟随手指、动画或联动组中的其他控件变化
+     */
+    boolean isMoving() {
+        return isTransforming || mRevertAnimator.isRunning() || mFlingAnimator.isRunning()
+                || (mTransformGroup != null && mTransformGroup.isFollowing(this));
+    }
 
+    /**
+     * 直接使用mMatrix绘制图片，不经过ImageView的矩阵，
+     * 使矩阵变化时可以只重绘图片变化的区域，见{@link #invalidateImageRect()}
+     */
     @Override
     protected void onDraw(Canvas canvas) {
-        canvas.setDrawFilter(mDrawFilter);
-        super.onDraw(canvas);
+        Drawable drawable = getDrawable();
+        if (drawable == null) return;
+        // 软件绘制时Paint之外的绘制也按DrawFilter过滤，canvas已使用相同的DrawFilter时不再重复设置
+        if (!canvas.isHardwareAccelerated()) {
+            PaintFlagsDrawFilter drawFilter = mFilterBitmap ? mDrawFilter : mFastDrawFilter;
+            if (canvas.getDrawFilter() != drawFilter) canvas.setDrawFilter(drawFilter);
+        }
+        int saveCount = canvas.save();
+        if (getCropToPadding()) {
+            canvas.clipRect(getScrollX() + getPaddingLeft(), getScrollY() + getPaddingTop(),
+                    getScrollX() + getWidth() - getPaddingRight(),
+                    getScrollY() + getHeight() - getPaddingBottom());
+        }
+        canvas.translate(getPaddingLeft(), getPaddingTop());
+        // 渲染线程模式下图片绘制在渲染目标上，这里只绘制标记层
+        boolean offThread = isRenderedOffThread(drawable);
+        if (mOverlay == null) {
+            if (!offThread) {
+                canvas.concat(mMatrix);
+                drawImage(canvas, drawable);
+            }
+        } else {
+            if (!offThread) {
+                int imageSaveCount = canvas.save();
+                canvas.concat(mMatrix);
+                drawImage(canvas, drawable);
+                canvas.restoreToCount(imageSaveCount);
+            }
+            // 标记层在屏幕坐标中绘制，圆点大小和线宽不随图片缩放
+            if (ensureInverseMatrix()) {
+                mOverlay.draw(canvas, mMatrix, mInverseMatrix, getWidth(), getHeight(),
+                        mEngine.getScaleFactor());
+            }
+        }
+        canvas.restoreToCount(saveCount);
+        if (isMinimapShown() && mapViewCorners(mMinimapCorners)) {
+            mMinimap.draw(canvas, mMinimapCorners);
+        }
+    }
+
+    /**
+     * 在图片原始坐标系中绘制图片，开启矢量图光栅化时由mRasterizer绘制
+     */
+    private void drawImage(Canvas canvas, Drawable drawable) {
+        if (mRasterizer != null) {
+            mRasterizer.draw(canvas, drawable);
+        } else {
+            drawable.draw(canvas);
+        }
+    }
+
+    //-----Overlay---------------------
+
+    private MarkerOverlay mOverlay; // 标记层
+    private boolean mTapCandidate = false; // 本次触摸是否可能是点击
+    private float mTapDownX; // 手指按下的位置
+    private float mTapDownY;
+    private int mTouchSlop;
+    private float[] mTapPoint = new float[2]; // 点击位置映射到图片原始坐标
+
+    /**
+     * 设置显示在图片上方的标记层
+     *
+     * @param overlay 为null时移除标记层
+     */
+    public void setMarkerOverlay(@Nullable MarkerOverlay overlay) {
+        if (mOverlay != null) mOverlay.setHost(null);
+        mOverlay = overlay;
+        if (overlay != null) overlay.setHost(this);
+        invalidate();
+    }
+
+    @Nullable
+    public MarkerOverlay getMarkerOverlay() {
+        return mOverlay;
+    }
+
+    /**
+     * 把点击位置映射到图片原始坐标，交给标记层检测是否点中了条目
+     */
+    private void performOverlayClick(float x, float y) {
+        if (mOverlay == null || mOverlay.getOnItemClickListener() == null) return;
+        mTapPoint[0] = x;
+        mTapPoint[1] = y;
+        if (!mapViewToImage(mTapPoint)) return;
+        mOverlay.performClick(mTapPoint[0], mTapPoint[1], mTouchSlop, mEngine.getScaleFactor());
     }
 
-    private PointF mLastPoint1 = new PointF(); // 上次事件的第一个触点
-    private PointF mLastPoint2 = new PointF(); // 上次事件的第二个触点
-    private PointF mCurrentPoint1 = new PointF(); // 本次事件的第一个触点
-    private PointF mCurrentPoint2 = new PointF(); // 本次事件的第二个触点
-    private float mScaleFactor = 1.0f; // 当前的缩放倍数
+    private final GestureTransformer mGesture = new GestureTransformer(mEngine); // 把触点转换为变换
+    private int[] mPointerIds = new int[2]; // 一组触点的id，触点更多时扩容
+    private float[] mPointerX = new float[2]; // 一组触点的x坐标
+    private float[] mPointerY = new float[2]; // 一组触点的y坐标
     private boolean mCanScale = false; // 是否可以缩放
 
     protected PointF mLastMidPoint = new PointF(); // 图片平移时记录上一次ACTION_MOVE的点
-    private PointF mCurrentMidPoint = new PointF(); // 当前各触点的中点
     protected boolean mCanDrag = false; // 是否可以平移
-
-    private PointF mLastVector = new PointF(); // 记录上一次触摸事件两指所表示的向量
-    private PointF mCurrentVector = new PointF(); // 记录当前触摸事件两指所表示的向量
     private boolean mCanRotate = false; // 判断是否可以旋转
 
-    private MatrixRevertAnimator mRevertAnimator = new MatrixRevertAnimator(); // 回弹动画
-    private float[] mFromMatrixValue = new float[9]; // 动画初始时矩阵值
-    private float[] mToMatrixValue = new float[9]; // 动画终结时矩阵值
+    private RevertAnimator mRevertAnimator = new RevertAnimator(); // 回弹动画
 
     protected boolean isTransforming = false; // 图片是否正在变化
+    private int mTouchDownVersion; // 手指落下时变换的版本号，用于判断图片是否发生了变换
+    private GestureTraceRecorder mTraceRecorder; // 触摸轨迹记录，为null时不记录
 
     @Override
     public boolean onTouchEvent(MotionEvent event) {
-        PointF midPoint = getMidPointOfFinger(event);
+        if (mMinimap != null && onMinimapTouch(event)) return true;
+        if (mTraceRecorder != null) mTraceRecorder.record(event, mEngine, mOpenRotateRevert,
+                mOpenScaleRevert, mOpenTranslateRevert, mCoalesceTouch);
+        if (mOpenFling) {
+            if (mVelocityTracker == null) mVelocityTracker = VelocityTracker.obtain();
+            mVelocityTracker.addMovement(event);
+        }
         switch (event.getActionMasked()) {
             case MotionEvent.ACTION_DOWN:
             case MotionEvent.ACTION_POINTER_DOWN:
-                // 每次触摸事件开始都初始化mLastMidPonit
-                mLastMidPoint.set(midPoint);
+                // 新手指落下则需要重新判断是否可以对图片进行变换
+                readPointers(event, CURRENT_SAMPLE);
+                mGesture.down(mPointerIds, mPointerX, mPointerY, event.getPointerCount());
+                syncGestureState();
+                // 翻页模式下先阻止父控件拦截，拖动到边界后再交给父控件
+                if (mPagerMode) requestParentDisallowIntercept(true);
                 isTransforming = false;
+                mTouchDownVersion = mEngine.getVersion();
                 mRevertAnimator.cancel();
-                // 新手指落下则需要重新判断是否可以对图片进行变换
-                mCanRotate = false;
-                mCanScale = false;
-                mCanDrag = false;
-                if (event.getPointerCount() == 2) {
-                    // 旋转、平移、缩放分别使用三个判断变量，避免后期某个操作执行条件改变
-                    mCanScale = true;
-                    mLastPoint1.set(event.getX(0), event.getY(0));
-                    mLastPoint2.set(event.getX(1), event.getY(1));
-                    mCanRotate = true;
-                    mLastVector.set(event.getX(1) - event.getX(0),
-                            event.getY(1) - event.getY(0));
-                } else if(event.getPointerCount() == 1) {
-                    mCanDrag = true;
-                }
-
+                mFlingAnimator.cancel();
+                if (mTransformGroup != null) mTransformGroup.onTouchDown(this);
+                resetTouchVelocity(mLastMidPoint, event.getEventTime());
+                // 只有单指按下后没有移动超过touchSlop才算点击
+                mTapCandidate = event.getActionMasked() == MotionEvent.ACTION_DOWN;
+                mTapDownX = event.getX();
+                mTapDownY = event.getY();
                 break;
             case MotionEvent.ACTION_MOVE:
-                if (mCanDrag) translate(midPoint);
-                if (mCanScale) scale(event);
-                if (mCanRotate) rotate(event);
+                if (mTapCandidate && (Math.abs(event.getX() - mTapDownX) > mTouchSlop
+                        || Math.abs(event.getY() - mTapDownY) > mTouchSlop)) {
+                    mTapCandidate = false;
+                }
+                if (mPagerMode && event.getPointerCount() == 1) handOffDragAtBorder(event);
+                if (mCoalesceTouch) {
+                    // 依次处理两次事件之间批量的历史触点，不丢失采样精度
+                    for (int pos = 0, size = event.getHistorySize(); pos < size; pos++) {
+                        transform(event, pos);
+                    }
+                }
+                transform(event, CURRENT_SAMPLE);
                 // 判断图片是否发生了变换
-                if (!getImageMatrix().equals(mMatrix)) isTransforming = true;
-                if (mCanDrag || mCanScale || mCanRotate) applyMatrix();
+                if (mEngine.getVersion() != mTouchDownVersion) isTransforming = true;
+                if (mCanDrag || mCanScale || mCanRotate) {
+                    if (mMetrics != null) {
+                        mMetrics.recordMoveEvent();
+                        if (mPendingMoveTime == 0) mPendingMoveTime = event.getEventTime();
+                    }
+                    if (mCoalesceTouch) {
+                        scheduleMatrixCommit();
+                    } else {
+                        // 一帧内可能有多个事件，联动的控件在下一个vsync只同步一次
+                        mDeferGroupSync = true;
+                        applyMatrix();
+                        mDeferGroupSync = false;
+                    }
+                }
                 break;
             case MotionEvent.ACTION_UP:
             case MotionEvent.ACTION_CANCEL:
+                flushMatrixCommit();
+                if (mTapCandidate && event.getActionMasked() == MotionEvent.ACTION_UP
+                        && event.getEventTime() - event.getDownTime()
+                        < ViewConfiguration.getLongPressTimeout()) {
+                    performOverlayClick(event.getX(), event.getY());
+                }
+                mTapCandidate = false;
+                // 单指拖动抬起时速度足够大则惯性滑动
+                boolean fling = mOpenFling && mCanDrag
+                        && event.getActionMasked() == MotionEvent.ACTION_UP
+                        && computeFlingVelocity(event);
                 // 检测是否需要回弹
                 if(mOpenRotateRevert || mOpenScaleRevert || mOpenTranslateRevert) {
-                    mMatrix.getValues(mFromMatrixValue);/*设置矩阵动画初始值*/
-                    /* 旋转和缩放都会影响矩阵，进而影响后续需要使用到ImageRect的地方，
-                     * 所以检测顺序不能改变
-                     */
-                    if(mOpenRotateRevert) checkRotation();
-                    if(mOpenScaleRevert) checkScale();
-                    if(mOpenTranslateRevert) checkBorder();
-                    mMatrix.getValues(mToMatrixValue);/*设置矩阵动画结束值*/
-                    if(mOpenAnimator) {
+                    mRevertAnimator.setFrom();/*设置动画初始值*/
+                    // 直接由变换的各分量计算回弹结束值
+                    revert();
+                    mRevertAnimator.setTo();/*设置动画结束值*/
+                    if (fling && mRevertAnimator.isSettled()) {
+                        // 不需要回弹时才惯性滑动，滑动中遇到边界由mFlingAnimator处理
+                        mFlingAnimator.start(mFlingVelocityX, mFlingVelocityY);
+                    } else if(mOpenAnimator) {
                         // 启动回弹动画
-                        mRevertAnimator.setMatrixValue(mFromMatrixValue, mToMatrixValue);
-                        mRevertAnimator.cancel();
                         mRevertAnimator.start();
                     } else {
                         applyMatrix();
                     }
+                } else if (fling) {
+                    mFlingAnimator.start(mFlingVelocityX, mFlingVelocityY);
                 }
+                if (mVelocityTracker != null) mVelocityTracker.clear();
+                // 手指全部抬起，图片不再跟随手指变化
+                isTransforming = false;
+                mGesture.up();
+                syncGestureState();
+                break;
             case MotionEvent.ACTION_POINTER_UP:
-                mCanScale = false;
-                mCanDrag = false;
-                mCanRotate = false;
+                // 去掉抬起的触点，其他手指继续变换图片
+                flushMatrixCommit();
+                readPointers(event, CURRENT_SAMPLE);
+                mGesture.pointerUp(mPointerIds, mPointerX, mPointerY, event.getPointerCount(),
+                        event.getActionIndex());
+                syncGestureState();
+                // 剩余触点的中点与之前不同，重新计算触点速度
+                resetTouchVelocity(mLastMidPoint, event.getEventTime());
                 break;
         }
+        updateRenderQuality();
         super.onTouchEvent(event);
         return true;
     }
 
-    private void rotate(MotionEvent event) {
-        // 计算当前两指触点所表示的向量
-        mCurrentVector.set(event.getX(1) - event.getX(0),
-                event.getY(1) - event.getY(0));
-        // 获取旋转角度
-        float degree = getRotateDegree(mLastVector, mCurrentVector);
-        mMatrix.postRotate(degree, mImageRect.centerX(), mImageRect.centerY());
-        mLastVector.set(mCurrentVector);
+    /**
+     * 使用一组触点对图片进行平移、缩放、旋转
+     *
+     * @param pos 历史触点的下标，为{@link #CURRENT_SAMPLE}时使用当前触点
+     */
+    private void transform(MotionEvent event, int pos) {
+        readPointers(event, pos);
+        mGesture.move(mPointerIds, mPointerX, mPointerY, event.getPointerCount());
+        mLastMidPoint.set(mGesture.getLastMidX(), mGesture.getLastMidY());
+        if (mCanDrag && mTouchPrediction) updateTouchVelocity(getEventTime(event, pos));
+    }
+
+    /**
+     * 把mGesture中的状态同步到可供子类读取的字段
+     */
+    private void syncGestureState() {
+        mCanDrag = mGesture.canDrag();
+        mCanScale = mGesture.canScale();
+        mCanRotate = mGesture.canRotate();
+        mLastMidPoint.set(mGesture.getLastMidX(), mGesture.getLastMidY());
     }
 
     /**
-     * 使用Math#atan2(double y, double x)方法求上次触摸事件两指所示向量与x轴的夹角，
-     * 再求出本次触摸事件两指所示向量与x轴夹角，最后求出两角之差即为图片需要转过的角度
+     * 把一组触点的id和坐标读取到mPointerIds、mPointerX、mPointerY中
      *
-     * @param lastVector 上次触摸事件两指间连线所表示的向量
-     * @param currentVector 本次触摸事件两指间连线所表示的向量
-     * @return 两向量夹角，单位“度”，顺时针旋转时为正数，逆时针旋转时返回负数
+     * @param pos 历史触点的下标，为{@link #CURRENT_SAMPLE}时使用当前触点
      */
-    private float getRotateDegree(PointF lastVector, PointF currentVector) {
-        //上次触摸事件向量与x轴夹角
-        double lastRad = Math.atan2(lastVector.y, lastVector.x);
-        //当前触摸事件向量与x轴夹角
-        double currentRad = Math.atan2(currentVector.y, currentVector.x);
-        // 两向量与x轴夹角之差即为需要旋转的角度
-        double rad = currentRad - lastRad;
-        //“弧度”转“度”
-        return (float) Math.toDegrees(rad);
+    private void readPointers(MotionEvent event, int pos) {
+        int pointerCount = event.getPointerCount();
+        if (mPointerX.length < pointerCount) {
+            mPointerIds = new int[pointerCount];
+            mPointerX = new float[pointerCount];
+            mPointerY = new float[pointerCount];
+        }
+        for (int i = 0; i < pointerCount; i++) {
+            mPointerIds[i] = event.getPointerId(i);
+            mPointerX[i] = getX(event, i, pos);
+            mPointerY[i] = getY(event, i, pos);
+        }
+    }
+
+    private static final int CURRENT_SAMPLE = -1; // 表示使用当前触点而不是历史触点
+
+    private static float getX(MotionEvent event, int pointerIndex, int pos) {
+        return pos == CURRENT_SAMPLE ? event.getX(pointerIndex) : event.getHistoricalX(pointerIndex, pos);
+    }
+
+    private static float getY(MotionEvent event, int pointerIndex, int pos) {
+        return pos == CURRENT_SAMPLE ? event.getY(pointerIndex) : event.getHistoricalY(pointerIndex, pos);
+    }
+
+    private static long getEventTime(MotionEvent event, int pos) {
+        return pos == CURRENT_SAMPLE ? event.getEventTime() : event.getHistoricalEventTime(pos);
     }
 
     protected void translate(PointF midPoint) {
-        float dx = midPoint.x - mLastMidPoint.x;
-        float dy = midPoint.y - mLastMidPoint.y;
-        mMatrix.postTranslate(dx, dy);
+        mGesture.translateTo(midPoint.x, midPoint.y);
         mLastMidPoint.set(midPoint);
     }
 
     /**
-     * 计算所有触点的中点
-     * @param event 当前触摸事件
-     * @return 本次触摸事件所有触点的中点
+     * 计算抬起手指时的滑动速度，保存到mFlingVelocityX、mFlingVelocityY
+     *
+     * @return 速度是否足够大，可以惯性滑动
      */
-    private PointF getMidPointOfFinger(MotionEvent event) {
-        // 初始化mCurrentMidPoint
-        mCurrentMidPoint.set(0f, 0f);
-        int pointerCount = event.getPointerCount();
-        for (int i = 0; i < pointerCount; i++) {
-            mCurrentMidPoint.x += event.getX(i);
-            mCurrentMidPoint.y += event.getY(i);
+    private boolean computeFlingVelocity(MotionEvent event) {
+        if (mVelocityTracker == null) return false;
+        mVelocityTracker.computeCurrentVelocity(1000, mMaxFlingVelocity);
+        int pointerId = event.getPointerId(0);
+        mFlingVelocityX = mVelocityTracker.getXVelocity(pointerId);
+        mFlingVelocityY = mVelocityTracker.getYVelocity(pointerId);
+        return Math.abs(mFlingVelocityX) >= mMinFlingVelocity
+                || Math.abs(mFlingVelocityY) >= mMinFlingVelocity;
+    }
+
+    private static final long NANOS_PER_MILLI = 1000000L;
+    private PerformanceMetrics mMetrics; // 性能统计，为null时不统计
+    private long mPendingMoveTime = 0; // 最早一个尚未提交的ACTION_MOVE事件时间，0表示没有
+    private long mFrameIntervalNanos = 16666667L; // 屏幕刷新周期，用于统计丢帧
+
+    /**
+     * 计算回弹后的变换，开启性能统计时分别记录各项检查的耗时
+     */
+    private void revert() {
+        float midX = mLastMidPoint.x;
+        float midY = mLastMidPoint.y;
+        if (mMetrics == null) {
+            mEngine.revert(mOpenRotateRevert, mOpenScaleRevert, mOpenTranslateRevert, midX, midY);
+            return;
+        }
+        // 与TransformEngine.revert的顺序一致
+        long start = System.nanoTime();
+        if (mOpenRotateRevert) {
+            mEngine.checkRotation();
+            long end = System.nanoTime();
+            mMetrics.getCheckRotationTime().record(end - start);
+            start = end;
+        }
+        if (mOpenScaleRevert) {
+            mEngine.checkScale(midX, midY);
+            long end = System.nanoTime();
+            mMetrics.getCheckScaleTime().record(end - start);
+            start = end;
+        }
+        if (mOpenTranslateRevert) {
+            mEngine.checkBorder();
+            mMetrics.getCheckBorderTime().record(System.nanoTime() - start);
         }
-        mCurrentMidPoint.x /= pointerCount;
-        mCurrentMidPoint.y /= pointerCount;
-        return mCurrentMidPoint;
     }
 
-    private static final int SCALE_BY_IMAGE_CENTER = 0; // 以图片中心为缩放中心
-    private static final int SCALE_BY_FINGER_MID_POINT = 1; // 以所有手指的中点为缩放中心
-    private int mScaleBy = SCALE_BY_IMAGE_CENTER;
-    private PointF scaleCenter = new PointF();
+    /**
+     * 更新图片所在区域，并将矩阵应用到图片
+     */
+    protected void applyMatrix() {
+        if (mMetrics != null && mPendingMoveTime != 0) {
+            mMetrics.recordMatrixCommit(
+                    (SystemClock.uptimeMillis() - mPendingMoveTime) * NANOS_PER_MILLI);
+            mPendingMoveTime = 0;
+        }
+        mPredictionApplied = false;
+        boolean changed = syncMatrix(mEngine);
+        invalidateImageRect();
+        updateTiles();
+        if (changed) {
+            if (mTransformGroup != null) mTransformGroup.onTransformChanged(this, !mDeferGroupSync);
+            dispatchTransformChanged();
+            updateSettled(true);
+        }
+    }
 
     /**
-     * 获取图片的缩放中心，该属性可在外部设置，或通过xml文件设置
-     * 默认中心点为图片中心
-     * @return 图片的缩放中心点
+     * 将engine中的矩阵和图片所在区域同步到mMatrix和mImageRect，
+     * 同步前的图片所在区域保存在mPreviousImageRect中
      */
-    private PointF getScaleCenter() {
-        // 使用全局变量避免频繁创建变量
-        switch (mScaleBy) {
-            case SCALE_BY_IMAGE_CENTER:
-                scaleCenter.set(mImageRect.centerX(), mImageRect.centerY());
-                break;
-            case SCALE_BY_FINGER_MID_POINT:
-                scaleCenter.set(mLastMidPoint.x, mLastMidPoint.y);
-                break;
+    private boolean syncMatrix(TransformEngine engine) {
+        mPreviousImageRect.set(mImageRect);
+        engine.getMatrixValues(mMatrixValues);
+        boolean changed = !Arrays.equals(mMatrixValues, mSyncedMatrixValues);
+        if (changed) {
+            // 变换确实发生变化才更新矩阵，逆矩阵在下次使用时再计算
+            System.arraycopy(mMatrixValues, 0, mSyncedMatrixValues, 0, 9);
+            mMatrix.setValues(mMatrixValues);
+            mInverseDirty = true;
         }
-        return scaleCenter;
+        FloatRect imageRect = engine.getImageRect();
+        mImageRect.set(imageRect.left, imageRect.top, imageRect.right, imageRect.bottom);
+        return changed;
     }
 
-    private void scale(MotionEvent event) {
-        PointF scaleCenter = getScaleCenter();
+    //-----Transform listeners---------
+
+    /**
+     * 图片变换的监听，回调都在主线程中
+     */
+    public interface OnTransformChangeListener {
+        /**
+         * 显示的矩阵发生变化，手势和动画过程中每帧最多回调一次
+         */
+        void onTransformChanged(TransformativeImageView view);
+
+        /**
+         * 变换停止：手指抬起且回弹、惯性滑动结束，或者不在手势和动画过程中直接修改了变换
+         */
+        void onTransformSettled(TransformativeImageView view);
+    }
 
-        // 初始化当前两指触点
-        mCurrentPoint1.set(event.getX(0), event.getY(0));
-        mCurrentPoint2.set(event.getX(1), event.getY(1));
-        // 计算缩放比例
-        float scaleFactor = distance(mCurrentPoint1, mCurrentPoint2)
-                / distance(mLastPoint1, mLastPoint2);
+    private List<OnTransformChangeListener> mTransformListeners = new ArrayList<>();
+    private boolean mMoving = false; // 上次通知时图片是否正在变化
 
-        // 更新当前图片的缩放比例
-        mScaleFactor *= scaleFactor;
+    public void addOnTransformChangeListener(OnTransformChangeListener listener) {
+        if (!mTransformListeners.contains(listener)) mTransformListeners.add(listener);
+    }
 
-        mMatrix.postScale(scaleFactor, scaleFactor,
-                scaleCenter.x, scaleCenter.y);
-        mLastPoint1.set(mCurrentPoint1);
-        mLastPoint2.set(mCurrentPoint2);
+    public void removeOnTransformChangeListener(OnTransformChangeListener listener) {
+        mTransformListeners.remove(listener);
     }
 
     /**
-     * 获取两点间距离
+     * @return 图片是否没有在跟随手指或动画变化
      */
-    private float distance(PointF point1, PointF point2) {
-        float dx = point2.x - point1.x;
-        float dy = point2.y - point1.y;
-        return (float) Math.sqrt(dx * dx + dy * dy);
+    public boolean isTransformSettled() {
+        return !isMoving();
+    }
+
+    private void dispatchTransformChanged() {
+        for (int i = mTransformListeners.size() - 1; i >= 0; i--) {
+            mTransformListeners.get(i).onTransformChanged(this);
+        }
     }
 
     /**
-     * 根据当前图片旋转的角度，判断是否回弹
+     * 从变化中变为停止，或者停止状态下变换发生了变化，则通知变换停止
+     *
+     * @param changed 变换是否刚刚发生了变化
      */
-    private void checkRotation() {
-        float currentDegree = getCurrentRotateDegree();
-        float degree = currentDegree;
-        // 根据当前图片旋转的角度值所在区间，判断要转到几度
-        degree = Math.abs(degree);
-        if (degree > 45 && degree <= 135) {
-            degree = 90;
-        } else if(degree > 135 && degree <= 225) {
-            degree = 180;
-        } else if(degree > 225 && degree <= 315) {
-            degree = 270;
-        } else {
-            degree = 0;
+    private void updateSettled(boolean changed) {
+        boolean moving = isMoving();
+        boolean settled = !moving && (mMoving || changed);
+        mMoving = moving;
+        if (!settled) return;
+        requestRaster();
+        for (int i = mTransformListeners.size() - 1; i >= 0; i--) {
+            mTransformListeners.get(i).onTransformSettled(this);
         }
-        // 判断顺时针还是逆时针旋转
-        degree = currentDegree < 0 ? -degree : degree;
-        mMatrix.postRotate(degree - currentDegree, mImageRect.centerX(), mImageRect.centerY());
+        if (mTransformGroup != null) mTransformGroup.onSettled(this);
     }
 
-    private float[] xAxis = new float[]{1f, 0f}; // 表示与x轴同方向的向量
+    //-----Transform group-------------
+
+    private TransformGroup mTransformGroup; // 所在的联动组，为null时不联动
+    private boolean mDeferGroupSync = false; // 本次变化由触摸事件引起，联动的控件推迟到下一个vsync同步
+
     /**
-     * 获取当前图片旋转角度
-     * @return 图片当前的旋转角度
+     * @return 所在的联动组，通过{@link TransformGroup#add(TransformativeImageView)}加入
      */
-    private float getCurrentRotateDegree() {
-        // 每次重置初始向量的值为与x轴同向
-        xAxis[0] = 1f;
-        xAxis[1] = 0f;
-        // 初始向量通过矩阵变换后的向量
-        mMatrix.mapVectors(xAxis);
-        // 变换后向量与x轴夹角
-        double rad = Math.atan2(xAxis[1], xAxis[0]);
-        return (float) Math.toDegrees(rad);
+    @Nullable
+    public TransformGroup getTransformGroup() {
+        return mTransformGroup;
+    }
+
+    void setTransformGroup(@Nullable TransformGroup group) {
+        mTransformGroup = group;
+    }
 
+    TransformEngine getEngine() {
+        return mEngine;
     }
 
     /**
-     * 检查图片缩放比例是否超过设置的大小
+     * @return 是否已按当前图片初始化了变换
      */
-    private void checkScale() {
-        PointF scaleCenter = getScaleCenter();
+    boolean hasLaidOutImage() {
+        return mLaidOutDrawable != null && getDrawable() != null;
+    }
 
-        float scaleFactor = 1.0f;
+    /**
+     * 按联动组中来源控件的变换更新此控件，停止此控件自己的动画
+     */
+    void followTransform(TransformativeImageView source, boolean normalize) {
+        if (!hasLaidOutImage()) return;
+        stopTransformAnimations();
+        mEngine.setTransform(source.mEngine, normalize);
+        applyMatrix();
+        updateRenderQuality();
+    }
 
-        // 获取图片当前是水平还是垂直
-        int imgOrientation = imgOrientation();
-        // 超过设置的上限或下限则回弹到设置的限制值
-        // 除以当前图片缩放比例mScaleFactor，postScale()方法执行后的图片的缩放比例即为被除数大小
-        if (imgOrientation == HORIZONTAL
-                && mScaleFactor < mHorizontalMinScaleFactor) {
-            scaleFactor = mHorizontalMinScaleFactor / mScaleFactor;
-        } else if (imgOrientation == VERTICAL
-                && mScaleFactor < mVerticalMinScaleFactor) {
-            scaleFactor = mVerticalMinScaleFactor / mScaleFactor;
-        }else if(mScaleFactor > mMaxScaleFactor) {
-            scaleFactor = mMaxScaleFactor / mScaleFactor;
-        }
+    void stopTransformAnimations() {
+        mRevertAnimator.cancel();
+        mFlingAnimator.cancel();
+    }
 
-        mMatrix.postScale(scaleFactor, scaleFactor, scaleCenter.x, scaleCenter.y);
-        mScaleFactor *= scaleFactor;
+    /**
+     * 联动组的来源控件停止变化
+     */
+    void onGroupSettled() {
+        updateRenderQuality();
     }
 
-    private static final int HORIZONTAL = 0;
-    private static final int VERTICAL = 1;
+    //-----Coordinate mapping----------
+
+    private Matrix mInverseMatrix = new Matrix(); // mMatrix的逆矩阵，用于将控件坐标映射回图片原始坐标
+    private boolean mInverseDirty = true; // mMatrix变化后逆矩阵需要重新计算
+    private boolean mInverseValid = false; // mMatrix是否可逆
+    private Matrix mViewMatrix = new Matrix(); // 图片原始坐标到控件坐标，包含padding
+    private Matrix mViewInverseMatrix = new Matrix(); // 控件坐标到图片原始坐标，包含padding
+    private int mMappedPaddingLeft; // 计算mViewMatrix时的padding
+    private int mMappedPaddingTop;
 
     /**
-     * 判断图片当前是水平还是垂直
-     * @return 水平则返回 {@code HORIZONTAL}，垂直则返回 {@code VERTICAL}
+     * 只在mMatrix或padding变化后重新计算逆矩阵
+     *
+     * @return mMatrix是否可逆
      */
-    private int imgOrientation() {
-        float degree = Math.abs(getCurrentRotateDegree());
-        int orientation = HORIZONTAL;
-        if (degree > 45f && degree <= 135f) {
-            orientation = VERTICAL;
+    private boolean ensureInverseMatrix() {
+        int paddingLeft = getPaddingLeft();
+        int paddingTop = getPaddingTop();
+        if (!mInverseDirty && paddingLeft == mMappedPaddingLeft && paddingTop == mMappedPaddingTop) {
+            return mInverseValid;
         }
-        return orientation;
+        mInverseDirty = false;
+        mMappedPaddingLeft = paddingLeft;
+        mMappedPaddingTop = paddingTop;
+        mInverseValid = mMatrix.invert(mInverseMatrix);
+        // 绘制时先平移padding再应用mMatrix，控件坐标与触摸事件的坐标一致
+        mViewMatrix.set(mMatrix);
+        mViewMatrix.postTranslate(paddingLeft, paddingTop);
+        mViewInverseMatrix.set(mInverseMatrix);
+        mViewInverseMatrix.preTranslate(-paddingLeft, -paddingTop);
+        return mInverseValid;
     }
 
     /**
-     * 将图片移回控件中心
+     * 把控件坐标原地映射为图片原始坐标，控件坐标与触摸事件的坐标一致。
+     * 使用缓存的逆矩阵，只在变换发生变化后才重新求逆，适合每帧映射大量的点
+     *
+     * @param pts 依次存放的点[x0, y0, x1, y1, ...]
+     * @return 当前矩阵不可逆（如图片缩放为0）时返回false，pts不变
      */
-    private void checkBorder() {
-        // 由于旋转回弹与缩放回弹会影响图片所在位置，所以此处需要更新ImageRect的值
-        refreshImageRect();
-        // 默认不移动
-        float dx = 0f;
-        float dy = 0f;
+    public boolean mapViewToImage(float[] pts) {
+        return mapViewToImage(pts, 0, pts.length >> 1);
+    }
 
-        // mImageRect中的坐标值为相对View的值
-        // 图片宽大于控件时图片与控件之间不能有白边
-        if (mImageRect.width() > getWidth()) {
-            if (mImageRect.left > 0) {/*判断图片左边界与控件之间是否有空隙*/
-                dx = -mImageRect.left;
-            } else if(mImageRect.right < getWidth()) {/*判断图片右边界与控件之间是否有空隙*/
-                dx = getWidth() - mImageRect.right;
-            }
-        } else {/*宽小于控件则移动到中心*/
-            dx = getWidth() / 2 - mImageRect.centerX();
-        }
+    /**
+     * @param offset pts中第一个点的下标
+     * @param pointCount 需要映射的点的个数
+     * @see #mapViewToImage(float[])
+     */
+    public boolean mapViewToImage(float[] pts, int offset, int pointCount) {
+        if (!ensureInverseMatrix()) return false;
+        mViewInverseMatrix.mapPoints(pts, offset, pts, offset, pointCount);
+        return true;
+    }
 
-        // 图片高大于控件时图片与控件之间不能有白边
-        if (mImageRect.height() > getHeight()) {
-            if (mImageRect.top > 0) {/*判断图片上边界与控件之间是否有空隙*/
-                dy = -mImageRect.top;
-            } else if(mImageRect.bottom < getHeight()) {/*判断图片下边界与控件之间是否有空隙*/
-                dy = getHeight() - mImageRect.bottom;
-            }
-        } else {/*高小于控件则移动到中心*/
-            dy = getHeight() / 2 - mImageRect.centerY();
-        }
-        mMatrix.postTranslate(dx, dy);
+    /**
+     * 把图片原始坐标原地映射为控件坐标
+     *
+     * @param pts 依次存放的点[x0, y0, x1, y1, ...]
+     */
+    public void mapImageToView(float[] pts) {
+        mapImageToView(pts, 0, pts.length >> 1);
     }
 
     /**
-     * 更新图片所在区域，并将矩阵应用到图片
+     * @param offset pts中第一个点的下标
+     * @param pointCount 需要映射的点的个数
+     * @see #mapImageToView(float[])
      */
-    protected void applyMatrix() {
-        refreshImageRect(); /*将矩阵映射到ImageRect*/
-        setImageMatrix(mMatrix);
+    public void mapImageToView(float[] pts, int offset, int pointCount) {
+        ensureInverseMatrix();
+        mViewMatrix.mapPoints(pts, offset, pts, offset, pointCount);
     }
 
     /**
-     * 图片使用矩阵变换后，刷新图片所对应的mImageRect所指示的区域
+     * 获取图片原始坐标到控件坐标的矩阵（包含padding），可用于在控件上绘制与图片对齐的内容
+     *
+     * @param out 保存结果的矩阵
      */
-    private void refreshImageRect() {
-        if (getDrawable() != null) {
-            mImageRect.set(getDrawable().getBounds());
-            mMatrix.mapRect(mImageRect, mImageRect);
-        }
+    public void getImageToViewMatrix(Matrix out) {
+        ensureInverseMatrix();
+        out.set(mViewMatrix);
     }
 
-    @Override
-    protected void onDetachedFromWindow() {
-        super.onDetachedFromWindow();
-        mRevertAnimator.cancel();
+    /**
+     * 获取控件坐标到图片原始坐标的矩阵（包含padding）
+     *
+     * @param out 保存结果的矩阵
+     * @return 当前矩阵是否可逆，不可逆时out不变
+     */
+    public boolean getViewToImageMatrix(Matrix out) {
+        if (!ensureInverseMatrix()) return false;
+        out.set(mViewInverseMatrix);
+        return true;
     }
 
-    //-----Aninmator-------------------
+    //-----Export----------------------
 
     /**
-     * 图片回弹动画
+     * 在后台线程中按原图分辨率导出当前可见的区域，即控件内容区域与图片所在区域的交集，
+     * 导出结果与控件中显示的方向一致。导出开始后图片的变换不影响导出结果
+     *
+     * @param sink 导出结果的接收者，如{@link BitmapExportSink}
+     * @param listener 导出结果回调，可为null
+     * @return 用于取消导出
+     * @throws IllegalStateException 图片尚未显示时
      */
-    private class MatrixRevertAnimator extends ValueAnimator
-            implements ValueAnimator.AnimatorUpdateListener{
-
-        private float[] mFromMatrixValue; // 动画初始时矩阵值
-        private float[] mToMatrixValue; // 动画终结时矩阵值
-        private float[] mInterpolateMatrixValue; // 动画执行过程中矩阵值
+    public ImageExporter exportVisibleRegion(ExportSink sink,
+                                             ImageExporter.OnExportListener listener) {
+        RectF region = new RectF(mImageRect);
+        region.offset(getPaddingLeft(), getPaddingTop());
+        if (!region.intersect(getPaddingLeft(), getPaddingTop(),
+                getWidth() - getPaddingRight(), getHeight() - getPaddingBottom())) {
+            region.setEmpty();
+        }
+        return exportRegion(region, sink, listener);
+    }
 
-        MatrixRevertAnimator() {
-            mInterpolateMatrixValue = new float[9];
-            setFloatValues(0f, 1f);
-            addUpdateListener(this);
+    /**
+     * 在后台线程中按原图分辨率导出控件中的一个区域，导出结果与控件中显示的方向一致，
+     * 大小为区域大小除以当前的缩放比例
+     *
+     * @param viewRect 导出的区域，坐标为控件坐标
+     * @see #exportVisibleRegion(ExportSink, ImageExporter.OnExportListener)
+     */
+    public ImageExporter exportRegion(RectF viewRect, ExportSink sink,
+                                      ImageExporter.OnExportListener listener) {
+        Drawable drawable = getDrawable();
+        if (!hasLaidOutImage() || !ensureInverseMatrix()) {
+            throw new IllegalStateException("image is not laid out");
         }
+        // 控件中的一个像素对应原图的像素数
+        float outputScale = ImageExporter.getSourceScale(drawable) / mEngine.getScaleFactor();
+        Matrix imageToOutput = new Matrix(mViewMatrix);
+        imageToOutput.postTranslate(-viewRect.left, -viewRect.top);
+        imageToOutput.postScale(outputScale, outputScale);
+        return startExport(drawable, imageToOutput, Math.round(viewRect.width() * outputScale),
+                Math.round(viewRect.height() * outputScale), sink, listener);
+    }
 
-        void setMatrixValue(float[] fromMatrixValue, final float[] toMatrixValue) {
-            mFromMatrixValue = fromMatrixValue;
-            mToMatrixValue = toMatrixValue;
+    /**
+     * 在后台线程中按原图分辨率导出原图的一个区域，与当前的变换无关
+     *
+     * @param imageRect 导出的区域，坐标为图片原始坐标
+     * @see #exportVisibleRegion(ExportSink, ImageExporter.OnExportListener)
+     */
+    public ImageExporter exportImageRegion(RectF imageRect, ExportSink sink,
+                                           ImageExporter.OnExportListener listener) {
+        Drawable drawable = getDrawable();
+        if (!hasLaidOutImage()) throw new IllegalStateException("image is not laid out");
+        float sourceScale = ImageExporter.getSourceScale(drawable);
+        Matrix imageToOutput = new Matrix();
+        imageToOutput.setTranslate(-imageRect.left, -imageRect.top);
+        imageToOutput.postScale(sourceScale, sourceScale);
+        return startExport(drawable, imageToOutput, Math.round(imageRect.width() * sourceScale),
+                Math.round(imageRect.height() * sourceScale), sink, listener);
+    }
 
-            addListener(new AnimatorListenerAdapter() {
-                @Override
-                public void onAnimationEnd(Animator animation) {
-                    mMatrix.setValues(toMatrixValue);
-                    applyMatrix();
-                }
-            });
-        }
+    private ImageExporter startExport(Drawable drawable, Matrix imageToOutput, int width,
+                                      int height, ExportSink sink,
+                                      ImageExporter.OnExportListener listener) {
+        ImageExporter exporter = new ImageExporter(drawable, imageToOutput, width, height,
+                sink, listener);
+        exporter.start();
+        return exporter;
+    }
 
-        @Override
-        public void onAnimationUpdate(ValueAnimator animation) {
-            if (mFromMatrixValue != null
-                    && mToMatrixValue != null && mInterpolateMatrixValue != null) {
-                // 根据动画当前进度设置矩阵的值
-                for (int i = 0; i < 9; i++) {
-                    float animatedValue = (float) animation.getAnimatedValue();
-                    mInterpolateMatrixValue[i] = mFromMatrixValue[i]
-                                    + (mToMatrixValue[i] - mFromMatrixValue[i]) * animatedValue;
-                }
-                mMatrix.setValues(mInterpolateMatrixValue);
-                applyMatrix();
-            }
+    //-----Invalidate------------------
+
+    private RectF mPreviousImageRect = new RectF(); // 上次绘制时图片所在区域
+    private RectF mDirtyRectF = new RectF(); // 需要重绘的区域
+    private Rect mDirtyRect = new Rect(); // 需要重绘的区域，取整后的值
+    private Matrix mDrawnMatrix = new Matrix(); // 上次请求重绘时的矩阵
+    private long mInvalidatedArea = 0; // 累计请求重绘的面积
+    private long mFullInvalidateArea = 0; // 每次都重绘整个View时累计的重绘面积
+
+    /**
+     * 矩阵变化时只重绘图片变化前后所在区域的并集，矩阵没有变化则不重绘。
+     * 软件绘制时只会重绘该区域，硬件加速时View会整体重新录制，但仍可减少父View需要合成的区域
+     */
+    private void invalidateImageRect() {
+        if (mDrawnMatrix.equals(mMatrix)) return;
+        mDrawnMatrix.set(mMatrix);
+        if (mRenderer != null) {
+            publishRenderFrame();
+            // 图片由渲染线程绘制，没有标记层和缩略图时控件本身不需要重绘
+            if (mOverlay == null && mMinimap == null && isRenderedOffThread(getDrawable())) return;
+        }
+        if (mOverlay != null) {
+            // 标记和标签可能超出图片所在区域，整个控件重绘
+            invalidate();
+            return;
         }
 
+        mDirtyRectF.set(mImageRect);
+        mDirtyRectF.union(mPreviousImageRect);
+        mDirtyRectF.offset(getPaddingLeft(), getPaddingTop());
+        // 缩略图上的可见区域随之变化
+        if (mMinimap != null) mDirtyRectF.union(mMinimap.getBounds());
+        mDirtyRectF.roundOut(mDirtyRect);
+        // 抗锯齿边缘可能超出图片区域一个像素
+        mDirtyRect.inset(-1, -1);
+        if (!mDirtyRect.intersect(0, 0, getWidth(), getHeight())) return;
+
+        mInvalidatedArea += (long) mDirtyRect.width() * mDirtyRect.height();
+        mFullInvalidateArea += (long) getWidth() * getHeight();
+        invalidate(mDirtyRect);
     }
 
-    //-------getter and setter---------
+    /**
+     * 矩阵变换累计请求重绘的面积，单位为像素
+     *
+     * @see #getFullInvalidateArea()
+     */
+    public long getInvalidatedArea() {
+        return mInvalidatedArea;
+    }
 
-    public void setmMaxScaleFactor(float mMaxScaleFactor) {
-        this.mMaxScaleFactor = mMaxScaleFactor;
+    /**
+     * 若每次矩阵变换都重绘整个View，累计需要重绘的面积，单位为像素。
+     * 与{@link #getInvalidatedArea()}比较即可得到局部重绘节省的比例
+     */
+    public long getFullInvalidateArea() {
+        return mFullInvalidateArea;
+    }
+
+    public void resetInvalidateStatistics() {
+        mInvalidatedArea = 0;
+        mFullInvalidateArea = 0;
+    }
+
+    /**
+     * 返回当前使用的矩阵，不应直接修改，修改请使用{@link #setImageMatrix(Matrix)}
+     */
+    @Override
+    public Matrix getImageMatrix() {
+        return mMatrix;
+    }
+
+    /**
+     * 设置图片的矩阵，矩阵应为不含错切的相似变换
+     */
+    @Override
+    public void setImageMatrix(Matrix matrix) {
+        if (mEngine == null) {
+            // 父类构造方法中调用时还未初始化
+            super.setImageMatrix(matrix);
+            return;
+        }
+        mFlingAnimator.cancel();
+        mRevertAnimator.cancel();
+        if (matrix == null) {
+            mMatrixValues[Matrix.MSCALE_X] = 1f;
+            mMatrixValues[Matrix.MSKEW_X] = 0f;
+            mMatrixValues[Matrix.MTRANS_X] = 0f;
+            mMatrixValues[Matrix.MSKEW_Y] = 0f;
+            mMatrixValues[Matrix.MSCALE_Y] = 1f;
+            mMatrixValues[Matrix.MTRANS_Y] = 0f;
+        } else {
+            matrix.getValues(mMatrixValues);
+        }
+        mEngine.setMatrixValues(mMatrixValues);
+        applyMatrix();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        saveTransformState();
+        mRevertAnimator.cancel();
+        mFlingAnimator.cancel();
+        cancelMatrixCommit();
+        if (mVelocityTracker != null) {
+            mVelocityTracker.recycle();
+            mVelocityTracker = null;
+        }
+        if (mTileManager != null) mTileManager.cancelPending();
+        if (mRasterizer != null) mRasterizer.cancelPending();
+        releaseRenderer();
+        mAttachedToWindow = false;
+        getViewTreeObserver().removeOnScrollChangedListener(mOnScreenListener);
+        getViewTreeObserver().removeGlobalOnLayoutListener(mOnScreenListener);
+        updateDrawableVisibility();
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        updateRenderer();
+        mAttachedToWindow = true;
+        getViewTreeObserver().addOnScrollChangedListener(mOnScreenListener);
+        getViewTreeObserver().addOnGlobalLayoutListener(mOnScreenListener);
+        updateDrawableVisibility();
+    }
+
+    //-----Touch coalescing------------
+
+    private static final long TOUCH_PREDICTION_MILLIS = 16; // 触点预测的时长，约为一帧
+    private static final float TOUCH_VELOCITY_SMOOTHING = 0.5f; // 触点速度的平滑系数
+    private boolean mCoalesceTouch = false; // 是否合并每帧的触摸事件，每帧只提交一次矩阵
+    private boolean mTouchPrediction = false; // 是否根据触点速度预测下一帧的位置
+    private boolean mCommitScheduled = false; // 是否已请求在下一帧提交矩阵
+    private boolean mPredictionApplied = false; // 当前显示的矩阵是否包含预测的位移
+    private TransformEngine mPredictedEngine = new TransformEngine(); // 包含预测位移的变换
+    private float mTouchVelocityX; // 触点中点x方向速度，单位像素每毫秒
+    private float mTouchVelocityY; // 触点中点y方向速度，单位像素每毫秒
+    private float mLastSampleX; // 上一个触点中点
+    private float mLastSampleY;
+    private long mLastSampleTime; // 上一个触点的时间
+
+    private Choreographer.FrameCallback mCommitCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mCommitScheduled = false;
+            commitMatrix();
+        }
+    };
+
+    /**
+     * 请求在下一个vsync提交矩阵，同一帧内多次请求只提交一次
+     */
+    private void scheduleMatrixCommit() {
+        if (mCommitScheduled) return;
+        mCommitScheduled = true;
+        Choreographer.getInstance().postFrameCallback(mCommitCallback);
+    }
+
+    private void cancelMatrixCommit() {
+        if (!mCommitScheduled) return;
+        mCommitScheduled = false;
+        Choreographer.getInstance().removeFrameCallback(mCommitCallback);
+    }
+
+    /**
+     * 手指抬起时立即提交未提交的矩阵，并去掉预测的位移
+     */
+    private void flushMatrixCommit() {
+        if (mCommitScheduled || mPredictionApplied) {
+            cancelMatrixCommit();
+            applyMatrix();
+        }
+    }
+
+    /**
+     * 提交矩阵，开启触点预测时在显示的矩阵上加上预测的位移，预测的位移不影响实际的变换
+     */
+    private void commitMatrix() {
+        if (!mTouchPrediction || !mCanDrag || (mTouchVelocityX == 0f && mTouchVelocityY == 0f)) {
+            applyMatrix();
+            return;
+        }
+        mPredictedEngine.set(mEngine);
+        mPredictedEngine.translate(mTouchVelocityX * TOUCH_PREDICTION_MILLIS,
+                mTouchVelocityY * TOUCH_PREDICTION_MILLIS);
+        boolean changed = syncMatrix(mPredictedEngine);
+        invalidateImageRect();
+        updateTiles();
+        mPredictionApplied = true;
+        if (changed) dispatchTransformChanged();
+    }
+
+    private void resetTouchVelocity(PointF midPoint, long eventTime) {
+        mTouchVelocityX = 0f;
+        mTouchVelocityY = 0f;
+        mLastSampleX = midPoint.x;
+        mLastSampleY = midPoint.y;
+        mLastSampleTime = eventTime;
+    }
+
+    /**
+     * 根据平移后的触点中点更新触点速度
+     */
+    private void updateTouchVelocity(long eventTime) {
+        long dt = eventTime - mLastSampleTime;
+        if (dt <= 0) return;
+        float velocityX = (mLastMidPoint.x - mLastSampleX) / dt;
+        float velocityY = (mLastMidPoint.y - mLastSampleY) / dt;
+        mTouchVelocityX += (velocityX - mTouchVelocityX) * TOUCH_VELOCITY_SMOOTHING;
+        mTouchVelocityY += (velocityY - mTouchVelocityY) * TOUCH_VELOCITY_SMOOTHING;
+        mLastSampleX = mLastMidPoint.x;
+        mLastSampleY = mLastMidPoint.y;
+        mLastSampleTime = eventTime;
+    }
+
+    //-----Tiles-----------------------
+
+    private TileManager mTileManager; // 分块解码模式下的图块管理器
+    private TileCache mTileCache; // 图块缓存，未指定时使用进程内共享的默认缓存
+    private int mTilePrefetchFrames = TileManager.DEFAULT_PREFETCH_FRAMES; // 图块预取的帧数
+    private RectF mVisibleRect = new RectF(); // 图片可见区域
+
+    private TileManager.Callback mTileCallback = new TileManager.Callback() {
+        @Override
+        public void onImageSizeReady(int width, int height) {
+            setImageDrawable(new TiledDrawable(mTileManager));
+        }
+
+        @Override
+        public void onTileLoaded() {
+            // 底图解码完成后才能生成缩略图
+            if (mMinimap != null && mLaidOutDrawable != null) mMinimap.setSource(getDrawable());
+            if (isRenderedOffThread(getDrawable())) {
+                publishRenderFrame();
+            } else {
+                invalidate();
+            }
+        }
+    };
+
+    /**
+     * 以分块解码模式显示图片文件，只解码可见区域内的图块，
+     * 采样率根据当前缩放比例选择，适用于无法完整解码到内存中的超大图片。
+     * 打开后先显示与屏幕大小相当的低分辨率底图，放大超过阈值后再逐级解码更清晰的图块，
+     * 因此也适用于需要快速打开大量普通图片的场景
+     *
+     * @param filePath 图片文件路径
+     */
+    public void setTiledImage(String filePath) {
+        setAnimationDecoder(null);
+        TileManager tileManager = new TileManager(mTileCallback, getScreenSize(), getTileCache());
+        setTileManager(tileManager);
+        tileManager.open(filePath);
+    }
+
+    /**
+     * 以分块解码模式显示图片输入流，输入流在图片显示前不能关闭
+     *
+     * @param inputStream 图片输入流
+     */
+    public void setTiledImage(InputStream inputStream) {
+        setAnimationDecoder(null);
+        TileManager tileManager = new TileManager(mTileCallback, getScreenSize(), getTileCache());
+        setTileManager(tileManager);
+        tileManager.open(inputStream);
+    }
+
+    /**
+     * 设置分块解码模式使用的图块缓存，在下一次调用{@link #setTiledImage(String)}时生效
+     *
+     * @param tileCache 图块缓存，为null时使用{@link TileCache#getDefault(Context)}
+     */
+    public void setTileCache(TileCache tileCache) {
+        mTileCache = tileCache;
+    }
+
+    public TileCache getTileCache() {
+        if (mTileCache == null) mTileCache = TileCache.getDefault(getContext());
+        return mTileCache;
+    }
+
+    /**
+     * 设置分块解码模式预取的帧数：根据平移和缩放的速度预测这么多帧后的可见区域，
+     * 提前在后台解码其中的图块，预取的优先级低于可见图块。
+     * 预取效果可通过{@link PerformanceMetrics#getPrefetchHitCount()}和
+     * {@link PerformanceMetrics#getPrefetchWastedCount()}评估
+     *
+     * @param frames 帧数，0为不预取
+     */
+    public void setTilePrefetchFrames(int frames) {
+        mTilePrefetchFrames = Math.max(0, frames);
+        if (mTileManager != null) mTileManager.setPrefetchFrames(mTilePrefetchFrames);
+    }
+
+    public int getTilePrefetchFrames() {
+        return mTilePrefetchFrames;
+    }
+
+    /**
+     * @return 分块解码模式下等待解码的图块数，不在分块解码模式时为0
+     */
+    public int getTileDecodeQueueDepth() {
+        return mTileManager == null ? 0 : mTileManager.getQueueDepth();
+    }
+
+    /**
+     * 获取屏幕较长边的长度
+     */
+    private int getScreenSize() {
+        DisplayMetrics metrics = getResources().getDisplayMetrics();
+        return Math.max(metrics.widthPixels, metrics.heightPixels);
+    }
+
+    private void setTileManager(TileManager tileManager) {
+        if (mTileManager != null) mTileManager.release();
+        mTileManager = tileManager;
+        if (tileManager != null) {
+            tileManager.setPerformanceMetrics(mMetrics);
+            tileManager.setPrefetchFrames(mTilePrefetchFrames);
+        }
+    }
+
+    @Override
+    public void setImageDrawable(@Nullable Drawable drawable) {
+        // 设置了其他图片则退出分块解码模式
+        if (mTileManager != null && !(drawable instanceof TiledDrawable
+                && ((TiledDrawable) drawable).getTileManager() == mTileManager)) {
+            setTileManager(null);
+        }
+        // 设置了其他图片则退出动图模式
+        if (mAnimationDecoder != null && !(drawable instanceof AnimatedDrawable
+                && ((AnimatedDrawable) drawable).getDecoder() == mAnimationDecoder)) {
+            setAnimationDecoder(null);
+        }
+        super.setImageDrawable(drawable);
+        // 图片大小不变时ImageView不会重新布局，这里主动请求以便初始化新图片的位置和大小
+        if (drawable != mLaidOutDrawable) requestLayout();
+        if (mRenderer != null) publishRenderFrame();
+        if (mAttachedToWindow) updateDrawableVisibility();
+    }
+
+    @Override
+    public void setImageResource(int resId) {
+        setTileManager(null);
+        setAnimationDecoder(null);
+        super.setImageResource(resId);
+    }
+
+    @Override
+    public void setImageURI(@Nullable Uri uri) {
+        setTileManager(null);
+        setAnimationDecoder(null);
+        super.setImageURI(uri);
+    }
+
+    /**
+     * 根据图片当前所在区域计算可见区域在原图中的位置，并更新需要解码的图块和动图帧的区域
+     */
+    private void updateTiles() {
+        if (mTileManager == null && mAnimationDecoder == null) return;
+        // 可见区域为控件区域与图片区域的交集，再通过逆矩阵映射回图片原始坐标
+        mVisibleRect.set(0, 0, getWidth(), getHeight());
+        if (mVisibleRect.intersect(mImageRect) && ensureInverseMatrix()) {
+            mInverseMatrix.mapRect(mVisibleRect);
+        } else {
+            mVisibleRect.setEmpty();
+        }
+        if (mTileManager != null) mTileManager.update(mVisibleRect, mEngine.getScaleFactor());
+        if (mAnimationDecoder != null) {
+            mAnimationDecoder.update(mVisibleRect, mEngine.getScaleFactor());
+        }
+    }
+
+    //-----Animated image--------------
+
+    private AnimationDecoder mAnimationDecoder; // 动图模式下的帧解码器
+    private boolean mAttachedToWindow = false;
+    private Rect mOnScreenRect = new Rect(); // 控件在屏幕上可见的区域
+
+    private AnimationDecoder.Callback mAnimationCallback = new AnimationDecoder.Callback() {
+        @Override
+        public void onImageSizeReady(int width, int height) {
+            setImageDrawable(new AnimatedDrawable(mAnimationDecoder));
+        }
+
+        @Override
+        public void onFrameReady() {
+            invalidate();
+        }
+    };
+
+    private OnScreenListener mOnScreenListener = new OnScreenListener();
+
+    /**
+     * 页面滚动或重新布局后控件可能移入或移出屏幕
+     */
+    private class OnScreenListener implements ViewTreeObserver.OnScrollChangedListener,
+            ViewTreeObserver.OnGlobalLayoutListener {
+        @Override
+        public void onScrollChanged() {
+            if (getDrawable() instanceof Animatable) updateDrawableVisibility();
+        }
+
+        @Override
+        public void onGlobalLayout() {
+            if (getDrawable() instanceof Animatable) updateDrawableVisibility();
+        }
+    }
+
+    /**
+     * 以动图模式显示GIF文件：在后台线程中解码每一帧，放大时只解码可见区域附近的部分，
+     * 缩小时按缩放比例降低采样率；控件离开窗口、不可见或移出屏幕时暂停解码。
+     * 显示后可通过{@link Animatable}接口停止和继续播放
+     *
+     * @param filePath 动图文件路径
+     */
+    public void setAnimatedImage(String filePath) {
+        setTileManager(null);
+        AnimationDecoder decoder = new AnimationDecoder(mAnimationCallback);
+        setAnimationDecoder(decoder);
+        decoder.open(filePath);
+    }
+
+    /**
+     * 以动图模式显示GIF输入流，输入流在图片显示前不能关闭
+     *
+     * @param inputStream 动图输入流
+     */
+    public void setAnimatedImage(InputStream inputStream) {
+        setTileManager(null);
+        AnimationDecoder decoder = new AnimationDecoder(mAnimationCallback);
+        setAnimationDecoder(decoder);
+        decoder.open(inputStream);
+    }
+
+    private void setAnimationDecoder(AnimationDecoder decoder) {
+        if (mAnimationDecoder != null) mAnimationDecoder.release();
+        mAnimationDecoder = decoder;
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        updateDrawableVisibility();
+    }
+
+    @Override
+    protected void onVisibilityChanged(View changedView, int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        // 构造过程中也会回调，此时字段尚未初始化
+        if (mOnScreenRect != null) updateDrawableVisibility();
+    }
+
+    /**
+     * 控件在窗口中、可见并且有部分在屏幕上时图片才可见，不可见时动图暂停解码。
+     * 可见性通过{@link Drawable#setVisible(boolean, boolean)}通知图片，
+     * 响应该方法的其他动图（如AnimationDrawable）也会随之暂停
+     */
+    private void updateDrawableVisibility() {
+        Drawable drawable = getDrawable();
+        if (drawable == null) return;
+        boolean visible = mAttachedToWindow && getWindowVisibility() == VISIBLE && isShown()
+                && getGlobalVisibleRect(mOnScreenRect);
+        drawable.setVisible(visible, false);
+    }
+
+    //-----Render thread---------------
+
+    private TextureView mRenderTextureView; // 渲染线程模式的绘制目标
+    private SurfaceView mRenderSurfaceView;
+    private SurfaceRenderer mRenderer; // 渲染线程，设置了绘制目标且控件在窗口中时才存在
+
+    private SurfaceRenderer.Callback mRendererCallback = new SurfaceRenderer.Callback() {
+        @Override
+        public void onSurfaceChanged() {
+            publishRenderFrame();
+        }
+    };
+
+    /**
+     * 开启渲染线程模式：Bitmap图片和分块解码的图块在专用的渲染线程中绘制到textureView上，
+     * 主线程只计算手势和变换，绘制耗时不再占用主线程。
+     * textureView应与此控件位置、大小相同并位于其下方，此控件的背景应为透明；
+     * 此控件继续绘制标记层，其他类型的图片（如矢量图）仍在此控件中绘制
+     *
+     * @param textureView 为null时关闭渲染线程模式
+     */
+    public void setRenderTarget(@Nullable TextureView textureView) {
+        mRenderTextureView = textureView;
+        mRenderSurfaceView = null;
+        releaseRenderer();
+        updateRenderer();
+        invalidate();
+    }
+
+    /**
+     * 以SurfaceView作为渲染线程模式的绘制目标，SurfaceView默认位于窗口下方，
+     * 其上方的控件和窗口背景需要透明
+     *
+     * @param surfaceView 为null时关闭渲染线程模式
+     * @see #setRenderTarget(TextureView)
+     */
+    public void setRenderTarget(@Nullable SurfaceView surfaceView) {
+        mRenderSurfaceView = surfaceView;
+        mRenderTextureView = null;
+        releaseRenderer();
+        updateRenderer();
+        invalidate();
+    }
+
+    /**
+     * 控件在窗口中且设置了绘制目标时启动渲染线程
+     */
+    private void updateRenderer() {
+        if (mRenderer != null || getWindowToken() == null) return;
+        if (mRenderTextureView == null && mRenderSurfaceView == null) return;
+        mRenderer = new SurfaceRenderer(mRendererCallback);
+        if (mRenderTextureView != null) {
+            mRenderer.attach(mRenderTextureView);
+        } else {
+            mRenderer.attach(mRenderSurfaceView);
+        }
+    }
+
+    private void releaseRenderer() {
+        if (mRenderer == null) return;
+        mRenderer.release();
+        mRenderer = null;
+    }
+
+    /**
+     * @return 图片是否由渲染线程绘制，只有Bitmap图片和分块解码的图块可以在其他线程中绘制
+     */
+    private boolean isRenderedOffThread(Drawable drawable) {
+        return mRenderer != null && (drawable instanceof TiledDrawable
+                || (drawable instanceof BitmapDrawable
+                && ((BitmapDrawable) drawable).getBitmap() != null));
+    }
+
+    /**
+     * 把当前的矩阵和需要绘制的Bitmap提交给渲染线程，不支持的图片提交空白帧
+     */
+    private void publishRenderFrame() {
+        if (mRenderer == null) return;
+        SurfaceRenderer.Frame frame = mRenderer.obtainFrame();
+        frame.setMatrix(mMatrix, getPaddingLeft(), getPaddingTop());
+        frame.setFilter(mFilterBitmap);
+        frame.setAlpha(255);
+        Drawable drawable = getDrawable();
+        if (isRenderedOffThread(drawable)) {
+            if (drawable instanceof TiledDrawable) {
+                ((TiledDrawable) drawable).getTileManager().fillFrame(frame);
+            } else {
+                BitmapDrawable bitmapDrawable = (BitmapDrawable) drawable;
+                frame.setAlpha(bitmapDrawable.getPaint().getAlpha());
+                frame.add(bitmapDrawable.getBitmap(), bitmapDrawable.getBounds(), null, null);
+            }
+        }
+        mRenderer.post(frame);
+    }
+
+    //-----Minimap---------------------
+
+    private Minimap mMinimap; // 缩略图导航，未开启时为null
+    private boolean mMinimapDragging = false; // 本次触摸是否从缩略图开始
+    private float[] mMinimapCorners = new float[8]; // 控件四个角在图片原始坐标中的位置
+    private float[] mMinimapPoint = new float[2]; // 缩略图上点中的位置，映射为图片原始坐标
+    private TransformEngine mMinimapEngine = new TransformEngine(); // 用于计算跳转的目标
+
+    private Minimap.Callback mMinimapCallback = new Minimap.Callback() {
+        @Override
+        public void onThumbnailReady() {
+            if (isMinimapShown()) invalidate();
+        }
+    };
+
+    /**
+     * 设置是否开启缩略图导航：图片放大到超出控件后，在控件右上角显示整张图片的缩略图和当前可见区域，
+     * 点击或拖动缩略图以一次动画跳转到对应的位置。缩略图每张图片只在后台线程中生成一次
+     */
+    public void setMinimapEnabled(boolean enabled) {
+        if (enabled == (mMinimap != null)) return;
+        if (enabled) {
+            mMinimap = new Minimap(mMinimapCallback, getResources().getDisplayMetrics().density);
+            if (mLaidOutDrawable != null) mMinimap.setSource(getDrawable());
+        } else {
+            mMinimap.release();
+            mMinimap = null;
+            mMinimapDragging = false;
+        }
+        invalidate();
+    }
+
+    public boolean isMinimapEnabled() {
+        return mMinimap != null;
+    }
+
+    /**
+     * @return 是否显示缩略图：开启了缩略图导航且图片超出了控件
+     */
+    private boolean isMinimapShown() {
+        if (mMinimap == null || mLaidOutDrawable == null || !mMinimap.hasSource()) return false;
+        mMinimap.layout(getWidth());
+        return mEngine.canScrollHorizontally(-1) || mEngine.canScrollHorizontally(1)
+                || mEngine.canScrollVertically(-1) || mEngine.canScrollVertically(1);
+    }
+
+    /**
+     * 把控件的四个角映射到图片原始坐标
+     */
+    private boolean mapViewCorners(float[] corners) {
+        int width = getWidth();
+        int height = getHeight();
+        corners[0] = 0f;
+        corners[1] = 0f;
+        corners[2] = width;
+        corners[3] = 0f;
+        corners[4] = width;
+        corners[5] = height;
+        corners[6] = 0f;
+        corners[7] = height;
+        return mapViewToImage(corners);
+    }
+
+    /**
+     * 处理从缩略图开始的触摸，按下和拖动时跳转到对应的位置
+     *
+     * @return 事件是否由缩略图处理
+     */
+    private boolean onMinimapTouch(MotionEvent event) {
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                mMinimapDragging = isMinimapShown()
+                        && mMinimap.contains(event.getX(), event.getY());
+                if (mMinimapDragging) {
+                    if (mPagerMode) requestParentDisallowIntercept(true);
+                    jumpToMinimapPoint(event.getX(), event.getY());
+                }
+                return mMinimapDragging;
+            case MotionEvent.ACTION_MOVE:
+                if (mMinimapDragging) jumpToMinimapPoint(event.getX(), event.getY());
+                return mMinimapDragging;
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                boolean dragging = mMinimapDragging;
+                mMinimapDragging = false;
+                return dragging;
+            default:
+                return mMinimapDragging;
+        }
+    }
+
+    /**
+     * 以动画平移图片，使缩略图上点中的位置位于控件中心，缩放和旋转不变。
+     * 动画进行中再次调用时平滑地转向新的位置，拖动缩略图始终只有一个动画
+     */
+    private void jumpToMinimapPoint(float x, float y) {
+        mMinimap.mapToImage(x, y, mMinimapPoint);
+        // 该点目前在控件中的位置，平移后应位于控件中心
+        mEngine.getMatrix().mapPoints(mMinimapPoint);
+        mMinimapEngine.set(mEngine);
+        mMinimapEngine.translate(mEngine.getViewWidth() / 2 - mMinimapPoint[0],
+                mEngine.getViewHeight() / 2 - mMinimapPoint[1]);
+        if (mOpenTranslateRevert) {
+            // 开启平移回弹时停在边界内
+            mMinimapEngine.translate(mMinimapEngine.getBorderOffsetX(),
+                    mMinimapEngine.getBorderOffsetY());
+        }
+        animateTo(mMinimapEngine.getScaleFactor(), mMinimapEngine.getCurrentRotateDegree(),
+                mMinimapEngine.getImageCenterX(), mMinimapEngine.getImageCenterY());
+    }
+
+    //-----Vector rasterization--------
+
+    private boolean mVectorRasterization = false; // 是否按当前缩放比例重新光栅化矢量图
+    private VectorRasterizer mRasterizer; // 矢量图光栅化，图片不是矢量图时为null
+    private RectF mRasterRect = new RectF(); // 需要光栅化的区域
+
+    private VectorRasterizer.Callback mRasterCallback = new VectorRasterizer.Callback() {
+        @Override
+        public void onRasterReady() {
+            invalidate();
+        }
+    };
+
+    /**
+     * 设置是否在变换停止后按当前缩放比例重新光栅化矢量图（VectorDrawable、PictureDrawable等）的可见区域，
+     * 使放大后的矢量图保持清晰，对位图和分块解码的图片无效
+     */
+    public void setVectorRasterization(boolean vectorRasterization) {
+        mVectorRasterization = vectorRasterization;
+        updateRasterizer();
+        requestRaster();
+    }
+
+    public boolean isVectorRasterization() {
+        return mVectorRasterization;
+    }
+
+    /**
+     * 图片初始化或设置变化后根据当前图片创建或释放mRasterizer
+     */
+    private void updateRasterizer() {
+        Drawable drawable = getDrawable();
+        if (!mVectorRasterization || mLaidOutDrawable == null
+                || !VectorRasterizer.isSupported(drawable)) {
+            if (mRasterizer != null) {
+                mRasterizer.release();
+                mRasterizer = null;
+                invalidate();
+            }
+            return;
+        }
+        if (mRasterizer == null) {
+            mRasterizer = new VectorRasterizer(mRasterCallback);
+            mRasterizer.setFilterBitmap(mFilterBitmap);
+        }
+        mRasterizer.setSource(drawable);
+    }
+
+    /**
+     * 请求按当前缩放比例光栅化可见区域
+     */
+    private void requestRaster() {
+        if (mRasterizer == null) return;
+        mRasterRect.set(0, 0, getWidth(), getHeight());
+        if (mRasterRect.intersect(mImageRect) && ensureInverseMatrix()) {
+            mInverseMatrix.mapRect(mRasterRect);
+            mRasterizer.request(mRasterRect, mEngine.getScaleFactor(), getWidth() * getHeight());
+        }
+    }
+
+    //-----Aninmator-------------------
+
+    /**
+     * 图片回弹动画，将变换分解为缩放、旋转、位置分别插值，可选弹簧动力学。
+     * 整个View只使用这一个实例，每个vsync通过Choreographer更新一次矩阵，
+     * 每帧工作量固定，不会随手势次数增加
+     */
+    private class RevertAnimator implements Choreographer.FrameCallback {
+        private final TransformAnimation mAnimation = new TransformAnimation();
+        private long mLastFrameTimeNanos; // 上一帧时间
+        private boolean mRunning = false;
+
+        void setDuration(int durationMillis) {
+            mAnimation.setDuration(durationMillis / 1000f);
+        }
+
+        void setSpring(boolean spring) {
+            mAnimation.setSpring(spring);
+        }
+
+        /**
+         * 以图片当前的变换作为动画初始值
+         */
+        void setFrom() {
+            mAnimation.setCurrent(mEngine.getScaleFactor(), mEngine.getCurrentRotateDegree(),
+                    mEngine.getImageCenterX(), mEngine.getImageCenterY());
+        }
+
+        /**
+         * 以图片当前的变换作为动画结束值
+         */
+        void setTo() {
+            mAnimation.setTarget(mEngine.getScaleFactor(), mEngine.getCurrentRotateDegree(),
+                    mEngine.getImageCenterX(), mEngine.getImageCenterY());
+        }
+
+        boolean isSettled() {
+            return mAnimation.isSettled();
+        }
+
+        /**
+         * 把动画结束值写入保存的状态
+         */
+        void getTarget(SavedState state) {
+            state.scale = mAnimation.getTargetScale();
+            state.rotation = mAnimation.getTargetRotation();
+            state.centerX = mAnimation.getTargetCenterX();
+            state.centerY = mAnimation.getTargetCenterY();
+        }
+
+        /**
+         * 把动画结束值保存到条目的变换状态缓存
+         */
+        void putTarget(TransformStateCache cache, long key) {
+            cache.put(key, mEngine, mAnimation.getTargetScale(), mAnimation.getTargetRotation(),
+                    mAnimation.getTargetCenterX(), mAnimation.getTargetCenterY());
+        }
+
+        /**
+         * 从初始值开始动画，动画进行中调用则从当前值继续向新的结束值运动
+         */
+        void start() {
+            mEngine.setTransform(mAnimation.getScale(), mAnimation.getRotation(),
+                    mAnimation.getCenterX(), mAnimation.getCenterY());
+            if (mRunning) return;
+            mAnimation.start();
+            if (!mAnimation.isRunning()) {
+                // 已在结束值附近，直接设置为结束值
+                mEngine.setTransform(mAnimation.getTargetScale(), mAnimation.getTargetRotation(),
+                        mAnimation.getTargetCenterX(), mAnimation.getTargetCenterY());
+                applyMatrix();
+                return;
+            }
+            mRunning = true;
+            mLastFrameTimeNanos = System.nanoTime();
+            Choreographer.getInstance().postFrameCallback(this);
+            updateRenderQuality();
+        }
+
+        boolean isRunning() {
+            return mRunning;
+        }
+
+        /**
+         * 动画到指定的变换，动画进行中调用不会重新开始
+         */
+        void animateTo(float scale, float rotation, float centerX, float centerY) {
+            if (!mRunning) setFrom();
+            mAnimation.setTarget(scale, rotation, centerX, centerY);
+            start();
+        }
+
+        void cancel() {
+            if (!mRunning) return;
+            mRunning = false;
+            mAnimation.cancel();
+            Choreographer.getInstance().removeFrameCallback(this);
+            updateRenderQuality();
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!mRunning) return;
+            long frameTime = Math.max(0, frameTimeNanos - mLastFrameTimeNanos);
+            float dt = frameTime / 1e9f;
+            mLastFrameTimeNanos = frameTimeNanos;
+            if (mMetrics != null) {
+                // 帧间隔超过一个刷新周期的部分视为丢帧
+                int dropped = Math.max(0, Math.round((float) frameTime / mFrameIntervalNanos) - 1);
+                mMetrics.recordRevertFrame(frameTime, dropped);
+            }
+            mRunning = mAnimation.step(dt);
+            mEngine.setTransform(mAnimation.getScale(), mAnimation.getRotation(),
+                    mAnimation.getCenterX(), mAnimation.getCenterY());
+            applyMatrix();
+            if (mRunning) {
+                Choreographer.getInstance().postFrameCallback(this);
+            } else {
+                updateRenderQuality();
+            }
+        }
+    }
+
+    //-----Fling-----------------------
+
+    private VelocityTracker mVelocityTracker; // 开启惯性滑动时跟踪手指速度
+    private float mMinFlingVelocity; // 触发惯性滑动的最小速度
+    private float mMaxFlingVelocity; // 惯性滑动的最大速度
+    private float mFlingVelocityX; // 抬起手指时x方向速度
+    private float mFlingVelocityY; // 抬起手指时y方向速度
+    private FlingAnimator mFlingAnimator = new FlingAnimator(); // 惯性滑动动画
+
+    /**
+     * 惯性滑动动画，每个vsync通过Choreographer更新一次矩阵，每帧不分配对象。
+     * 开启平移回弹时，到达边界后该方向停止滑动，边界判断与回弹使用相同的规则
+     */
+    private class FlingAnimator implements Choreographer.FrameCallback {
+        private final Fling mFling = new Fling();
+        private long mLastFrameTimeNanos; // 上一帧时间
+        private boolean mRunning = false;
+
+        void start(float velocityX, float velocityY) {
+            cancel();
+            mFling.start(velocityX, velocityY);
+            mLastFrameTimeNanos = System.nanoTime();
+            mRunning = true;
+            Choreographer.getInstance().postFrameCallback(this);
+            updateRenderQuality();
+        }
+
+        boolean isRunning() {
+            return mRunning;
+        }
+
+        void cancel() {
+            if (!mRunning) return;
+            mRunning = false;
+            mFling.stop();
+            Choreographer.getInstance().removeFrameCallback(this);
+            updateRenderQuality();
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!mRunning) return;
+            float dt = Math.max(0, frameTimeNanos - mLastFrameTimeNanos) / 1e9f;
+            mLastFrameTimeNanos = frameTimeNanos;
+            if (!mFling.step(dt)) {
+                mRunning = false;
+                updateRenderQuality();
+                return;
+            }
+            // 到达边界的方向停在边界上，与是否开启平移回弹无关
+            int blocked = mEngine.translateWithinBorder(mFling.getDx(), mFling.getDy());
+            if ((blocked & TransformEngine.BLOCKED_X) != 0) mFling.stopX();
+            if ((blocked & TransformEngine.BLOCKED_Y) != 0) mFling.stopY();
+            applyMatrix();
+            if (mFling.isFinished()) {
+                mRunning = false;
+                updateRenderQuality();
+            } else {
+                Choreographer.getInstance().postFrameCallback(this);
+            }
+        }
+    }
+
+    //-------getter and setter---------
+
+    public void setmMaxScaleFactor(float mMaxScaleFactor) {
+        mEngine.setMaxScaleFactor(mMaxScaleFactor);
+    }
+
+    public float getMaxScaleFactor() {
+        return mEngine.getMaxScaleFactor();
+    }
+
+    /**
+     * @return 当前缩放比例，即图片的一个像素在控件中显示为多少像素
+     */
+    public float getScaleFactor() {
+        return mEngine.getScaleFactor();
+    }
+
+    /**
+     * 以动画方式变换到指定的状态，动画进行中调用时从当前状态平滑地转向新目标
+     *
+     * @param scale 缩放比例
+     * @param rotation 旋转角度，单位“度”
+     * @param centerX 图片中心在控件中的x坐标
+     * @param centerY 图片中心在控件中的y坐标
+     */
+    public void animateTo(float scale, float rotation, float centerX, float centerY) {
+        mFlingAnimator.cancel();
+        mRevertAnimator.animateTo(scale, rotation, centerX, centerY);
+    }
+
+    /**
+     * 设置回弹动画是否使用弹簧动力学
+     */
+    public void setRevertSpring(boolean revertSpring) {
+        mRevertSpring = revertSpring;
+        mRevertAnimator.setSpring(revertSpring);
+    }
+
+    /**
+     * 设置是否合并触摸事件：处理每个事件中批量的历史触点，每帧只提交一次矩阵
+     */
+    public void setCoalesceTouch(boolean coalesceTouch) {
+        mCoalesceTouch = coalesceTouch;
+        if (!coalesceTouch) flushMatrixCommit();
+    }
+
+    /**
+     * 设置是否开启触点预测，合并触摸事件时在提交的矩阵上加上根据拖动速度预测的一帧位移，以降低延迟
+     */
+    public void setTouchPrediction(boolean touchPrediction) {
+        mTouchPrediction = touchPrediction;
+    }
+
+    /**
+     * 开启性能统计，统计结果直接记录在metrics中
+     *
+     * @param metrics 为null时关闭统计
+     */
+    public void setPerformanceMetrics(@Nullable PerformanceMetrics metrics) {
+        mMetrics = metrics;
+        mPendingMoveTime = 0;
+        if (mTileManager != null) mTileManager.setPerformanceMetrics(metrics);
+    }
+
+    @Nullable
+    public PerformanceMetrics getPerformanceMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * 开始记录触摸轨迹，从下一次手指落下开始记录
+     *
+     * @param recorder 为null时停止记录，停止后由调用者关闭recorder
+     */
+    public void setGestureTraceRecorder(@Nullable GestureTraceRecorder recorder) {
+        mTraceRecorder = recorder;
+    }
+
+    /**
+     * 设置绘制质量策略
+     *
+     * @param renderQuality {@link #RENDER_QUALITY_HIGH}、{@link #RENDER_QUALITY_ADAPTIVE}
+     *                      或{@link #RENDER_QUALITY_FAST}
+     */
+    public void setRenderQuality(int renderQuality) {
+        mRenderQuality = renderQuality;
+        updateRenderQuality();
+    }
+
+    public int getRenderQuality() {
+        return mRenderQuality;
+    }
+
+    /**
+     * 设置是否开启惯性滑动
+     */
+    public void setOpenFling(boolean openFling) {
+        mOpenFling = openFling;
+        if (!openFling) mFlingAnimator.cancel();
     }
 }
@@ -0,0 +1,277 @@
+package cn.lkllkllkl.transformativeimageview;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Picture;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Region;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.PictureDrawable;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * 在后台线程中按当前缩放比例重新光栅化矢量图（VectorDrawable、PictureDrawable等）的可见区域。
+ * <p>
+ * 矢量图通过矩阵放大时显示的是按原始大小生成的位图，放大后会模糊，而按最大缩放比例预先生成又太占内存。
+ * 变换停止后把可见区域按当前缩放比例绘制到一张与屏幕大小相当的位图中，
+ * 绘制时先绘制原图，再在该区域绘制清晰的位图；手势和动画过程中这张位图随矩阵一起缩放显示，
+ * 直到下一次变换停止后被新的位图取代。
+ * <p>
+ * 请求最多每{@link #MIN_RENDER_INTERVAL_MILLIS}毫秒执行一次，期间的请求只保留最后一个，
+ * 后台线程使用图片的独立副本绘制，不会与主线程同时访问同一个Drawable。
+ * 注意VectorDrawable自身的缓存位图在部分系统版本上边长不超过2048像素，超过后仍会有一定程度的模糊
+ */
+class VectorRasterizer {
+    private static final String TAG = VectorRasterizer.class.getSimpleName();
+    private static final long MIN_RENDER_INTERVAL_MILLIS = 150; // 两次光栅化之间的最小间隔
+    private static final float MAX_PIXELS_PER_VIEW_PIXEL = 2f; // 位图像素数最多为控件像素数的倍数
+
+    /**
+     * 光栅化回调，在主线程中执行
+     */
+    interface Callback {
+        /**
+         * 新的位图已经可以绘制，需要重绘
+         */
+        void onRasterReady();
+    }
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final HandlerThread mRenderThread;
+    private final Handler mRenderHandler;
+    private final Callback mCallback;
+    private volatile boolean mReleased = false;
+
+    // 以下字段只在主线程中读写
+    private int mGeneration = 0; // 图片每次变化都会增加，用于丢弃旧图片的结果
+    private Drawable mSource; // 后台线程使用的图片副本
+    private Picture mPicture; // PictureDrawable的图片副本
+    private final Rect mSourceBounds = new Rect(); // 图片在原始坐标中的区域
+    private final RectF mRequestRect = new RectF(); // 最近一次请求的区域，坐标为图片原始坐标
+    private float mRequestScale; // 最近一次请求的缩放比例
+    private int mMaxPixels; // 最近一次请求允许的最大像素数
+    private boolean mRequestPending = false; // 是否有尚未执行的请求
+    private boolean mRendering = false; // 后台线程是否正在绘制
+    private long mLastRenderTime = 0; // 上一次开始绘制的时间
+    private Bitmap mFrontBitmap; // 正在显示的位图
+    private final RectF mFrontRect = new RectF(); // mFrontBitmap在图片原始坐标中的区域
+    private float mFrontScale; // 绘制mFrontBitmap时请求的缩放比例
+    private boolean mFrontDrawn = false; // mFrontBitmap是否已绘制过
+    private Bitmap mRetiredBitmap; // 被替换的已绘制过的位图，新位图绘制后才能复用
+    private Bitmap mBackBitmap; // 可复用的位图，交给后台线程绘制
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    private final Runnable mRenderRunnable = new Runnable() {
+        @Override
+        public void run() {
+            startRender();
+        }
+    };
+
+    VectorRasterizer(Callback callback) {
+        mCallback = callback;
+        mRenderThread = new HandlerThread(TAG);
+        mRenderThread.start();
+        mRenderHandler = new Handler(mRenderThread.getLooper());
+    }
+
+    /**
+     * 判断图片是否需要并且可以重新光栅化：位图图片不需要，没有ConstantState的图片无法创建副本
+     */
+    static boolean isSupported(Drawable drawable) {
+        if (drawable == null || drawable instanceof BitmapDrawable
+                || drawable instanceof TiledDrawable) {
+            return false;
+        }
+        if (drawable.getIntrinsicWidth() <= 0 || drawable.getIntrinsicHeight() <= 0) return false;
+        return drawable instanceof PictureDrawable || drawable.getConstantState() != null;
+    }
+
+    /**
+     * 设置需要光栅化的图片，丢弃之前图片的位图和请求
+     *
+     * @param drawable 应满足{@link #isSupported(Drawable)}
+     */
+    void setSource(Drawable drawable) {
+        mGeneration++;
+        mMainHandler.removeCallbacks(mRenderRunnable);
+        mRequestPending = false;
+        mFrontRect.setEmpty();
+        mFrontScale = 0f;
+        // 与ImageView的MATRIX模式相同，图片区域为其固有大小
+        mSourceBounds.set(0, 0, drawable.getIntrinsicWidth(), drawable.getIntrinsicHeight());
+        if (drawable instanceof PictureDrawable) {
+            // Picture录制完成后不再变化，复制一份给后台线程
+            mPicture = new Picture(((PictureDrawable) drawable).getPicture());
+            mSource = null;
+        } else {
+            // mutate后副本不再与原图共享缓存等可变状态
+            mSource = drawable.getConstantState().newDrawable().mutate();
+            mSource.setBounds(mSourceBounds);
+            mPicture = null;
+        }
+    }
+
+    /**
+     * 请求按缩放比例光栅化区域，与上次请求间隔太短时延迟执行，延迟期间新的请求会覆盖旧的请求
+     *
+     * @param rect 区域，坐标为图片原始坐标
+     * @param scale 当前缩放比例
+     * @param viewPixels 控件的像素数，用于限制位图大小
+     */
+    void request(RectF rect, float scale, int viewPixels) {
+        if (mReleased || (mSource == null && mPicture == null)) return;
+        mRequestRect.set(rect);
+        if (!mRequestRect.intersect(mSourceBounds.left, mSourceBounds.top,
+                mSourceBounds.right, mSourceBounds.bottom)) {
+            return;
+        }
+        // 已显示的位图覆盖该区域且分辨率相同时不需要重新绘制
+        if (mFrontScale == scale && mFrontRect.contains(mRequestRect)) return;
+        mRequestScale = scale;
+        mMaxPixels = (int) (viewPixels * MAX_PIXELS_PER_VIEW_PIXEL);
+        mRequestPending = true;
+        scheduleRender();
+    }
+
+    private void scheduleRender() {
+        if (!mRequestPending || mRendering) return;
+        mMainHandler.removeCallbacks(mRenderRunnable);
+        long delay = mLastRenderTime + MIN_RENDER_INTERVAL_MILLIS - SystemClock.uptimeMillis();
+        if (delay > 0) {
+            mMainHandler.postDelayed(mRenderRunnable, delay);
+        } else {
+            startRender();
+        }
+    }
+
+    private void startRender() {
+        if (!mRequestPending || mRendering || mReleased) return;
+        mRequestPending = false;
+        mRendering = true;
+        mLastRenderTime = SystemClock.uptimeMillis();
+
+        final RectF rect = new RectF(mRequestRect);
+        float scale = mRequestScale;
+        // 位图太大时降低分辨率
+        float pixels = rect.width() * scale * rect.height() * scale;
+        if (pixels > mMaxPixels) scale *= (float) Math.sqrt(mMaxPixels / pixels);
+        final int width = Math.max(1, Math.round(rect.width() * scale));
+        final int height = Math.max(1, Math.round(rect.height() * scale));
+        final float renderScale = scale;
+        final float requestScale = mRequestScale;
+        final int generation = mGeneration;
+        final Drawable source = mSource;
+        final Picture picture = mPicture;
+        final Rect bounds = new Rect(mSourceBounds);
+        final Bitmap reusable = mBackBitmap;
+        mBackBitmap = null;
+        mRenderHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mReleased) return;
+                Bitmap bitmap = reusable;
+                if (bitmap == null || bitmap.getWidth() != width || bitmap.getHeight() != height) {
+                    bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                } else {
+                    bitmap.eraseColor(0);
+                }
+                Canvas canvas = new Canvas(bitmap);
+                canvas.scale(renderScale, renderScale);
+                canvas.translate(-rect.left, -rect.top);
+                if (picture != null) {
+                    canvas.drawPicture(picture, bounds);
+                } else {
+                    source.draw(canvas);
+                }
+                final Bitmap rendered = bitmap;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onRendered(rendered, rect, requestScale, generation);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onRendered(Bitmap bitmap, RectF rect, float scale, int generation) {
+        mRendering = false;
+        if (mReleased) return;
+        if (generation != mGeneration) {
+            // 图片已经变化，位图留作复用
+            mBackBitmap = bitmap;
+        } else {
+            if (mFrontDrawn) {
+                // 上一次绘制的内容仍引用旧位图，新位图绘制后才能交给后台线程覆盖
+                mRetiredBitmap = mFrontBitmap;
+            } else if (mFrontBitmap != null) {
+                // 旧位图从未绘制过，可以直接复用
+                mBackBitmap = mFrontBitmap;
+            }
+            mFrontBitmap = bitmap;
+            mFrontDrawn = false;
+            mFrontRect.set(rect);
+            mFrontScale = scale;
+            mCallback.onRasterReady();
+        }
+        scheduleRender();
+    }
+
+    /**
+     * 绘制图片，canvas的坐标系应为图片原始坐标系。
+     * 有光栅化的位图时原图只绘制位图以外的区域，避免半透明的部分叠加两次
+     */
+    void draw(Canvas canvas, Drawable drawable) {
+        if (mFrontBitmap == null || mFrontRect.isEmpty()) {
+            drawable.draw(canvas);
+            return;
+        }
+        int saveCount = canvas.save();
+        canvas.clipRect(mFrontRect, Region.Op.DIFFERENCE);
+        drawable.draw(canvas);
+        canvas.restoreToCount(saveCount);
+        canvas.drawBitmap(mFrontBitmap, null, mFrontRect, mPaint);
+        mFrontDrawn = true;
+        // 新位图已经绘制，被替换的位图不再被引用
+        if (mRetiredBitmap != null) {
+            if (mBackBitmap == null) mBackBitmap = mRetiredBitmap;
+            mRetiredBitmap = null;
+        }
+    }
+
+    /**
+     * 设置绘制光栅化的位图时是否使用双线性过滤
+     */
+    void setFilterBitmap(boolean filter) {
+        mPaint.setFilterBitmap(filter);
+    }
+
+    /**
+     * 取消尚未执行的请求，已绘制的位图保留
+     */
+    void cancelPending() {
+        mMainHandler.removeCallbacks(mRenderRunnable);
+        mRequestPending = false;
+    }
+
+    /**
+     * 释放位图和后台线程，释放后不可再使用
+     */
+    void release() {
+        mReleased = true;
+        mMainHandler.removeCallbacks(mRenderRunnable);
+        mFrontBitmap = null;
+        mRetiredBitmap = null;
+        mBackBitmap = null;
+        mSource = null;
+        mPicture = null;
+        mRenderThread.quit();
+    }
+}